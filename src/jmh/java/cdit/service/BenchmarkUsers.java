@@ -0,0 +1,32 @@
+package cdit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import cdit.model.User;
+
+/**
+ * The users every benchmark works on: unique names and salaries in cents within the valid range,
+ * the same for a given count in every run.
+ */
+final class BenchmarkUsers {
+  private BenchmarkUsers() {}
+
+  static List<User> create(int userCount) {
+    Random random = new Random(userCount);
+    List<User> users = new ArrayList<User>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      users.add(new User("user " + i, random.nextInt(400000) / 100.0));
+    }
+    return users;
+  }
+
+  static byte[] toCsv(List<User> users) {
+    StringBuilder csv = new StringBuilder("name,salary\n");
+    for (User user : users) {
+      csv.append(user.getName()).append(',').append(user.getSalary()).append('\n');
+    }
+    return csv.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,89 @@
+package cdit.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import cdit.exception.CditException;
+import cdit.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Parses an upload of {@code userCount} users into validated users the three ways an upload can
+ * be parsed: from a stream, in parallel chunks and pushed piece by piece as by
+ * {@code /users/stream}. The stream is also parsed reporting every error, which has to keep the
+ * line of every row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CsvParserBenchmark {
+  private static final int BATCH_SIZE = 1000;
+  private static final int PUSHED_PIECE_SIZE = 16 * 1024;
+  private static final int MAX_REPORTED_ERRORS = 100;
+
+  @Param({"1000", "100000", "1000000"})
+  public int userCount;
+
+  private CsvParserServiceImpl _csvParserService;
+  private UserMapperService _userMapperService;
+  private byte[] _csv;
+
+  @Setup
+  public void createCsv() {
+    _csvParserService = new CsvParserServiceImpl(
+        new UserMetrics(new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class)),
+        MAX_REPORTED_ERRORS);
+    _userMapperService = new UserMapperServiceImpl();
+    _csv = BenchmarkUsers.toCsv(BenchmarkUsers.create(userCount));
+  }
+
+  @TearDown
+  public void shutdownParsePool() {
+    _csvParserService.shutdownParsePool();
+  }
+
+  @Benchmark
+  public void parseInputStream(Blackhole blackhole) throws Exception {
+    _csvParserService.parseInputStream(new ByteArrayInputStream(_csv), _userMapperService,
+        BATCH_SIZE, (List<User> batch) -> blackhole.consume(batch));
+  }
+
+  @Benchmark
+  public void parseInputStreamReportingEveryError(Blackhole blackhole) throws Exception {
+    _csvParserService.parseInputStream(new ByteArrayInputStream(_csv), _userMapperService,
+        BATCH_SIZE, (List<User> batch) -> blackhole.consume(batch), true);
+  }
+
+  @Benchmark
+  public void parseBytesInParallel(Blackhole blackhole) throws Exception {
+    _csvParserService.parseBytesInParallel(_csv, _userMapperService, BATCH_SIZE,
+        (List<User> batch) -> blackhole.consume(batch));
+  }
+
+  @Benchmark
+  public void parsePushedPieces(Blackhole blackhole) throws CditException {
+    CditPushParser<User> parser = _csvParserService.createPushParser(_userMapperService,
+        BATCH_SIZE, (List<User> batch) -> blackhole.consume(batch));
+    for (int from = 0; from < _csv.length; from += PUSHED_PIECE_SIZE) {
+      parser.feed(_csv, from, Math.min(PUSHED_PIECE_SIZE, _csv.length - from));
+    }
+    parser.finish();
+  }
+}
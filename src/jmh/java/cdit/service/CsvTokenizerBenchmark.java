@@ -0,0 +1,94 @@
+package cdit.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvFactory;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+
+/**
+ * Tokenizes an upload of {@code userCount} users with {@link CsvTokenizer} and with the Jackson
+ * {@link MappingIterator} of {@code String[]} it replaced, configured as the parser used to be.
+ * Each is measured turning every record into a {@code String[]}, and reading the trimmed name and
+ * the parsed salary as the user mapper does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CsvTokenizerBenchmark {
+  private static final int NAME_INDEX = 0;
+  private static final int SALARY_INDEX = 1;
+
+  @Param({"1000", "100000", "1000000"})
+  public int userCount;
+
+  private ObjectReader _jacksonReader;
+  private byte[] _csv;
+
+  @Setup
+  public void createCsv() {
+    CsvFactory csvFactory = new CsvFactory();
+    csvFactory.enable(CsvParser.Feature.WRAP_AS_ARRAY);
+    _jacksonReader = new CsvMapper(csvFactory).readerFor(String[].class);
+    _csv = BenchmarkUsers.toCsv(BenchmarkUsers.create(userCount));
+  }
+
+  @Benchmark
+  public void jacksonStringArrays(Blackhole blackhole) throws Exception {
+    try (MappingIterator<String[]> it =
+        _jacksonReader.readValues(new ByteArrayInputStream(_csv))) {
+      while (it.hasNext()) {
+        blackhole.consume(it.next());
+      }
+    }
+  }
+
+  @Benchmark
+  public void tokenizerStringArrays(Blackhole blackhole) throws Exception {
+    CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(_csv));
+    while (tokenizer.hasNext()) {
+      blackhole.consume(tokenizer.next().toStringArray());
+    }
+  }
+
+  @Benchmark
+  public void jacksonNamesAndSalaries(Blackhole blackhole) throws Exception {
+    try (MappingIterator<String[]> it =
+        _jacksonReader.readValues(new ByteArrayInputStream(_csv))) {
+      it.next();
+      while (it.hasNext()) {
+        String[] row = it.next();
+        blackhole.consume(row[NAME_INDEX].trim());
+        blackhole.consume(Double.parseDouble(row[SALARY_INDEX].trim()));
+      }
+    }
+  }
+
+  @Benchmark
+  public void tokenizerNamesAndSalaries(Blackhole blackhole) throws Exception {
+    CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(_csv));
+    tokenizer.setHeaders(tokenizer.next().toStringArray());
+    while (tokenizer.hasNext()) {
+      CditRecord record = tokenizer.next();
+      blackhole.consume(record.getTrimmedField(NAME_INDEX));
+      blackhole.consume(record.parseTrimmedFieldAsDouble(SALARY_INDEX));
+    }
+  }
+}
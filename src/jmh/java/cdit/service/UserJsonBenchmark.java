@@ -0,0 +1,57 @@
+package cdit.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Serializes the body of GET {@code /users} for a snapshot of {@code userCount} users, as rendered
+ * once per upload and as streamed with {@code stream=true}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserJsonBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  public int userCount;
+
+  private UserJsonCacheServiceImpl _userJsonCacheService;
+  private ColumnarUsers _users;
+  private ByteArrayOutputStream _body;
+
+  /**
+   * Writes the body once so that the buffer has grown to its size before it is timed.
+   */
+  @Setup
+  public void createUsers() throws Exception {
+    _userJsonCacheService = new UserJsonCacheServiceImpl(
+        new StaticListableBeanFactory().getBeanProvider(ObjectMapper.class),
+        new UserMetrics(new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class)));
+    _users = new ColumnarUsers.Builder().add(BenchmarkUsers.create(userCount)).build();
+    _body = new ByteArrayOutputStream();
+    _userJsonCacheService.writeUsers(_users, _body);
+  }
+
+  @Benchmark
+  public int writeUsers() throws Exception {
+    _body.reset();
+    _userJsonCacheService.writeUsers(_users, _body);
+    return _body.size();
+  }
+}
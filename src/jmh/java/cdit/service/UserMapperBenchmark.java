@@ -0,0 +1,70 @@
+package cdit.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import cdit.exception.CditException;
+import cdit.model.User;
+
+/**
+ * Maps and validates {@code userCount} rows with {@link UserMapperServiceImpl}, one operation
+ * covering every row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserMapperBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  public int userCount;
+
+  private UserMapperServiceImpl _userMapperService;
+  private Map<String, Integer> _headerIndices;
+  private String[][] _rows;
+  private List<User> _users;
+
+  @Setup
+  public void createRows() throws CditException {
+    _userMapperService = new UserMapperServiceImpl();
+    _headerIndices = _userMapperService.getHeaderIndices(new String[] {"name", "salary"});
+    _users = BenchmarkUsers.create(userCount);
+    _rows = new String[userCount][];
+    for (int i = 0; i < userCount; i++) {
+      User user = _users.get(i);
+      _rows[i] = new String[] {user.getName(), String.valueOf(user.getSalary())};
+    }
+  }
+
+  @Benchmark
+  public void createObjectByRow(Blackhole blackhole) throws CditException {
+    for (String[] row : _rows) {
+      blackhole.consume(_userMapperService.createObjectByRow(row, _headerIndices));
+    }
+  }
+
+  @Benchmark
+  public void validateObject() throws CditException {
+    for (User user : _users) {
+      _userMapperService.validateObject(user);
+    }
+  }
+
+  @Benchmark
+  public void validateObjects() throws CditException {
+    _userMapperService.validateObjects(_users);
+  }
+}
@@ -0,0 +1,149 @@
+package cdit.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import cdit.Application;
+import cdit.dao.UserRepository;
+import cdit.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Replaces and reads {@code userCount} users through {@link UserServiceImpl}, in the JPA store
+ * against the application's in-memory H2 database and in the columnar store.
+ *
+ * Each replacement is timed once per iteration, since at a million users one takes seconds. Beside
+ * the service, the two ways users have been written to H2 are compared on their own: the batched
+ * JDBC inserts of {@link UserRepository#insertUsers(List)} and the {@code deleteAll} and
+ * {@code saveAll} of JPA they replaced.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserServiceBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class H2Store {
+    @Param({"1000", "100000", "1000000"})
+    public int userCount;
+
+    private ConfigurableApplicationContext _context;
+    private UserService _userService;
+    private UserRepository _userRepository;
+    private TransactionTemplate _transactionTemplate;
+    private List<User> _users;
+
+    @Setup
+    public void startApplication() {
+      _context = SpringApplication.run(Application.class, "--server.port=0",
+          "--spring.main.banner-mode=off", "--logging.level.root=WARN", "--cdit.users.store=jpa",
+          "--cdit.users.snapshot-dir=");
+      _userService = _context.getBean(UserService.class);
+      _userRepository = _context.getBean(UserRepository.class);
+      _transactionTemplate =
+          new TransactionTemplate(_context.getBean(PlatformTransactionManager.class));
+      _users = BenchmarkUsers.create(userCount);
+      _userService.updateUsers(_users);
+    }
+
+    @TearDown
+    public void stopApplication() {
+      _context.close();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ColumnarStore {
+    @Param({"1000", "100000", "1000000"})
+    public int userCount;
+
+    private UserService _userService;
+    private List<User> _users;
+
+    @Setup
+    public void createService() {
+      _userService = new UserServiceImpl(null, null, null, 2, new double[] {50, 90, 95, 99}, 40,
+          "columnar", "",
+          new UserMetrics(new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class)));
+      _users = BenchmarkUsers.create(userCount);
+      _userService.updateUsers(_users);
+    }
+  }
+
+  @Benchmark
+  public void updateUsersInH2(H2Store store) {
+    store._userService.updateUsers(store._users);
+  }
+
+  @Benchmark
+  public void updateUsersInColumnarStore(ColumnarStore store) {
+    store._userService.updateUsers(store._users);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  public void getAllUsers(H2Store store, Blackhole blackhole) {
+    for (User user : store._userService.getAllUsers()) {
+      blackhole.consume(user);
+    }
+  }
+
+  /**
+   * Reads every user back from H2, as the service does when it starts without a saved snapshot.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  public void scanUsersFromH2(H2Store store, Blackhole blackhole) {
+    store._userRepository.scanUsers((User user) -> blackhole.consume(user));
+  }
+
+  @Benchmark
+  public void insertUsersWithJdbcBatches(H2Store store) {
+    store._transactionTemplate.execute(status -> {
+      store._userRepository.deleteAllUsers();
+      store._userRepository.insertUsers(store._users);
+      return null;
+    });
+  }
+
+  /**
+   * The original write path. The entities are new objects every time, since
+   * {@code saveAll} would otherwise find them in the persistence context.
+   */
+  @Benchmark
+  public void insertUsersWithJpa(H2Store store) {
+    List<User> users = new ArrayList<User>(store._users.size());
+    for (User user : store._users) {
+      users.add(new User(user.getName(), user.getSalary()));
+    }
+    store._transactionTemplate.execute(status -> {
+      store._userRepository.deleteAll();
+      store._userRepository.saveAll(users);
+      return null;
+    });
+  }
+}
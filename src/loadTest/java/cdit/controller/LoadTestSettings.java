@@ -0,0 +1,89 @@
+package cdit.controller;
+
+import java.io.File;
+
+/**
+ * The settings of {@link UserLoadTest}, read from the system properties {@code loadTest.<name>}
+ * that {@code gradle loadTest} passes on from the project properties of the same names, for
+ * example {@code gradle loadTest -PloadTest.getClients=32}.
+ */
+final class LoadTestSettings {
+  private static final String PREFIX = "loadTest.";
+
+  private final int _warmupSeconds = getInt("warmupSeconds", 10);
+  private final int _durationSeconds = getInt("durationSeconds", 30);
+  private final int _getClients = getInt("getClients", 16);
+  private final int _postClients = getInt("postClients", 1);
+  /** Requests per second sent by all GET clients together, whether or not they are answered. */
+  private final double _getsPerSecond = getDouble("getsPerSecond", 200);
+  private final double _postsPerSecond = getDouble("postsPerSecond", 0.5);
+  /** Rows of every generated CSV file, which must stay below the 2MB upload limit. */
+  private final int _usersPerUpload = getInt("usersPerUpload", 20000);
+  private final double _maxGetP99Millis = getDouble("maxGetP99Millis", 250);
+  private final double _maxGetP999Millis = getDouble("maxGetP999Millis", 1000);
+  private final double _maxPostP99Millis = getDouble("maxPostP99Millis", 5000);
+  private final double _minGetsPerSecond = getDouble("minGetsPerSecond", 100);
+  private final int _maxErrors = getInt("maxErrors", 0);
+  private final File _reportDirectory =
+      new File(System.getProperty(PREFIX + "reportDirectory", "build/reports/loadTest"));
+
+  int getWarmupSeconds() {
+    return _warmupSeconds;
+  }
+
+  int getDurationSeconds() {
+    return _durationSeconds;
+  }
+
+  int getGetClients() {
+    return _getClients;
+  }
+
+  int getPostClients() {
+    return _postClients;
+  }
+
+  double getGetsPerSecond() {
+    return _getsPerSecond;
+  }
+
+  double getPostsPerSecond() {
+    return _postsPerSecond;
+  }
+
+  int getUsersPerUpload() {
+    return _usersPerUpload;
+  }
+
+  double getMaxGetP99Millis() {
+    return _maxGetP99Millis;
+  }
+
+  double getMaxGetP999Millis() {
+    return _maxGetP999Millis;
+  }
+
+  double getMaxPostP99Millis() {
+    return _maxPostP99Millis;
+  }
+
+  double getMinGetsPerSecond() {
+    return _minGetsPerSecond;
+  }
+
+  int getMaxErrors() {
+    return _maxErrors;
+  }
+
+  File getReportDirectory() {
+    return _reportDirectory;
+  }
+
+  private static int getInt(String name, int defaultValue) {
+    return Integer.parseInt(System.getProperty(PREFIX + name, String.valueOf(defaultValue)));
+  }
+
+  private static double getDouble(String name, double defaultValue) {
+    return Double.parseDouble(System.getProperty(PREFIX + name, String.valueOf(defaultValue)));
+  }
+}
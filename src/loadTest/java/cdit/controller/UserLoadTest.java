@@ -0,0 +1,260 @@
+package cdit.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import cdit.SwaggerConfig;
+
+/**
+ * Runs clients sending GET {@code /users} and clients uploading generated CSV files to POST
+ * {@code /users} at the same time against the application on a random port, and fails when the
+ * latency or throughput measured crosses the thresholds of {@link LoadTestSettings}.
+ *
+ * Every client sends its requests on a fixed schedule, so that the clients of a type together
+ * send them at the rate of {@link LoadTestSettings}. The latency of a request is measured from
+ * when the schedule meant it to be sent, not from when it was: a client held up by a slow
+ * response sends the requests it owes at once, and they count the time they were held up. Timing
+ * requests from when they were sent would leave that wait out, understating the latency of a
+ * loaded server. The time the server took once a request was sent is reported beside it, as the
+ * service time.
+ *
+ * Both are recorded after the warmup into one histogram per request type, printed as percentiles
+ * and written to the report directory in the HdrHistogram log format, so that runs of different
+ * versions can be compared with its tools. The thresholds apply to the latency.
+ */
+@RunWith(SpringRunner.class)
+@ComponentScan(basePackages = "cdit",
+    excludeFilters = @Filter(type = FilterType.ASSIGNABLE_TYPE, classes = SwaggerConfig.class))
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class UserLoadTest {
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final int CSV_FILE_COUNT = 4;
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  @LocalServerPort
+  private int _port;
+
+  private final LoadTestSettings _settings = new LoadTestSettings();
+  private final RestTemplate _restTemplate = new RestTemplate();
+
+  @Test
+  public void testConcurrentGetAndPostUsers() throws Exception {
+    byte[][] csvFiles = createCsvFiles();
+    assertEquals(HttpStatus.OK, uploadUsers(csvFiles[0]).getStatusCode());
+
+    int clientCount = _settings.getGetClients() + _settings.getPostClients();
+    ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+    long measureFromNanos =
+        System.nanoTime() + TimeUnit.SECONDS.toNanos(_settings.getWarmupSeconds());
+    long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(_settings.getDurationSeconds());
+    List<Future<ClientResult>> getResults = new ArrayList<Future<ClientResult>>();
+    List<Future<ClientResult>> postResults = new ArrayList<Future<ClientResult>>();
+    long startNanos = System.nanoTime();
+    long getIntervalNanos =
+        getIntervalNanos(_settings.getGetClients(), _settings.getGetsPerSecond());
+    for (int i = 0; i < _settings.getGetClients(); i++) {
+      long firstNanos = startNanos + getIntervalNanos * i / _settings.getGetClients();
+      getResults.add(executor.submit(() -> runClient(firstNanos, getIntervalNanos,
+          measureFromNanos, endNanos,
+          () -> _restTemplate.getForEntity(getUserUrl(), byte[].class))));
+    }
+    long postIntervalNanos =
+        getIntervalNanos(_settings.getPostClients(), _settings.getPostsPerSecond());
+    for (int i = 0; i < _settings.getPostClients(); i++) {
+      Random random = new Random(i);
+      long firstNanos = startNanos + postIntervalNanos * i / _settings.getPostClients();
+      postResults.add(executor.submit(() -> runClient(firstNanos, postIntervalNanos,
+          measureFromNanos, endNanos,
+          () -> uploadUsers(csvFiles[random.nextInt(csvFiles.length)]))));
+    }
+    ClientResult getResult = merge(getResults);
+    ClientResult postResult = merge(postResults);
+    executor.shutdown();
+
+    _settings.getReportDirectory().mkdirs();
+    System.out.printf("%-14s %10s %8s %12s %10s %10s %10s %10s%n", "", "requests", "errors",
+        "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+    report("GET", getResult._latencies, getResult._errorCount);
+    report("GET-service", getResult._serviceTimes, getResult._errorCount);
+    report("POST", postResult._latencies, postResult._errorCount);
+    report("POST-service", postResult._serviceTimes, postResult._errorCount);
+
+    List<String> violations = new ArrayList<String>();
+    checkAtMost(violations, "GET p99 ms", getMillisAt(getResult._latencies, 99),
+        _settings.getMaxGetP99Millis());
+    checkAtMost(violations, "GET p99.9 ms", getMillisAt(getResult._latencies, 99.9),
+        _settings.getMaxGetP999Millis());
+    checkAtMost(violations, "POST p99 ms", getMillisAt(postResult._latencies, 99),
+        _settings.getMaxPostP99Millis());
+    checkAtMost(violations, "errors", getResult._errorCount + postResult._errorCount,
+        _settings.getMaxErrors());
+    double getsPerSecond = getResult._latencies.getTotalCount() / getDurationSeconds();
+    if (getsPerSecond < _settings.getMinGetsPerSecond()) {
+      violations.add(String.format("GET requests/s is %.1f, below %.1f", getsPerSecond,
+          _settings.getMinGetsPerSecond()));
+    }
+    assertTrue(String.join("; ", violations), violations.isEmpty());
+  }
+
+  /**
+   * Sends a request every {@code intervalNanos} from {@code firstNanos}, or at once while behind
+   * the schedule, until {@code endNanos}.
+   */
+  private ClientResult runClient(long firstNanos, long intervalNanos, long measureFromNanos,
+      long endNanos, Callable<ResponseEntity<?>> request) throws Exception {
+    ClientResult result = new ClientResult();
+    for (long intendedNanos = firstNanos;
+        intendedNanos < endNanos && System.nanoTime() < endNanos;
+        intendedNanos += intervalNanos) {
+      long waitNanos = intendedNanos - System.nanoTime();
+      if (waitNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+      long startNanos = System.nanoTime();
+      boolean isSuccessful;
+      try {
+        isSuccessful = request.call().getStatusCode().is2xxSuccessful();
+      } catch (RestClientException e) {
+        isSuccessful = false;
+      }
+      long finishNanos = System.nanoTime();
+      if (intendedNanos >= measureFromNanos) {
+        result._latencies.recordValue(
+            Math.min(finishNanos - intendedNanos, HIGHEST_TRACKABLE_NANOS));
+        result._serviceTimes.recordValue(
+            Math.min(finishNanos - startNanos, HIGHEST_TRACKABLE_NANOS));
+        if (!isSuccessful) {
+          result._errorCount++;
+        }
+      }
+    }
+    return result;
+  }
+
+  private long getIntervalNanos(int clientCount, double requestsPerSecond) {
+    return (long) (clientCount * 1e9 / requestsPerSecond);
+  }
+
+  private ResponseEntity<?> uploadUsers(byte[] csvFile) {
+    MultiValueMap<String, Object> parameters = new LinkedMultiValueMap<String, Object>();
+    parameters.add("file", new ByteArrayResource(csvFile) {
+      @Override
+      public String getFilename() {
+        return "users.csv";
+      }
+    });
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    return _restTemplate.postForEntity(getUserUrl(),
+        new HttpEntity<MultiValueMap<String, Object>>(parameters, headers), String.class);
+  }
+
+  /**
+   * Files with the same names and different salaries, so that every upload replaces each user.
+   */
+  private byte[][] createCsvFiles() {
+    byte[][] csvFiles = new byte[CSV_FILE_COUNT][];
+    for (int i = 0; i < csvFiles.length; i++) {
+      Random random = new Random(i);
+      StringBuilder csv = new StringBuilder("name,salary\n");
+      for (int row = 0; row < _settings.getUsersPerUpload(); row++) {
+        csv.append("user ").append(row).append(',').append(random.nextInt(400000) / 100.0)
+            .append('\n');
+      }
+      csvFiles[i] = csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    return csvFiles;
+  }
+
+  private ClientResult merge(List<Future<ClientResult>> results) throws Exception {
+    ClientResult mergedResult = new ClientResult();
+    for (Future<ClientResult> result : results) {
+      mergedResult._latencies.add(result.get()._latencies);
+      mergedResult._serviceTimes.add(result.get()._serviceTimes);
+      mergedResult._errorCount += result.get()._errorCount;
+    }
+    return mergedResult;
+  }
+
+  private void report(String name, Histogram histogram, long errorCount) throws IOException {
+    System.out.printf("%-14s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f%n", name,
+        histogram.getTotalCount(), errorCount, histogram.getTotalCount() / getDurationSeconds(),
+        getMillisAt(histogram, 50), getMillisAt(histogram, 99), getMillisAt(histogram, 99.9),
+        histogram.getMaxValue() / NANOS_PER_MILLI);
+
+    File logFile = new File(_settings.getReportDirectory(), name + ".hlog");
+    try (PrintStream logStream = new PrintStream(new FileOutputStream(logFile), false, "UTF-8")) {
+      HistogramLogWriter logWriter = new HistogramLogWriter(logStream);
+      logWriter.outputLogFormatVersion();
+      logWriter.outputLegend();
+      logWriter.outputIntervalHistogram(histogram);
+    }
+    File percentileFile = new File(_settings.getReportDirectory(), name + ".hgrm");
+    try (PrintStream percentileStream =
+        new PrintStream(new FileOutputStream(percentileFile), false, "UTF-8")) {
+      histogram.outputPercentileDistribution(percentileStream, NANOS_PER_MILLI);
+    }
+  }
+
+  private double getMillisAt(Histogram histogram, double percentile) {
+    return histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+  }
+
+  private double getDurationSeconds() {
+    return _settings.getDurationSeconds();
+  }
+
+  private void checkAtMost(List<String> violations, String name, double value, double maximum) {
+    if (value > maximum) {
+      violations.add(String.format("%s is %.2f, above %.2f", name, value, maximum));
+    }
+  }
+
+  private String getUserUrl() {
+    return String.format("http://localhost:%d/users", _port);
+  }
+
+  private static class ClientResult {
+    /** From when each request was meant to be sent. */
+    private final Histogram _latencies =
+        new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    /** From when each request was sent. */
+    private final Histogram _serviceTimes =
+        new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    private long _errorCount;
+  }
+}
@@ -1,5 +1,9 @@
 package cdit;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -8,20 +12,42 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.method.annotation.ExceptionHandlerMethodResolver;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 import cdit.exception.CditException;
+import cdit.exception.CursorExpiredException;
+import cdit.exception.DecompressedSizeExceededException;
+import cdit.exception.InvalidCompressedUploadException;
+import cdit.exception.InvalidCursorException;
 import cdit.exception.InvalidCsvException;
+import cdit.exception.InvalidPageLimitException;
+import cdit.exception.InvalidRecordException;
+import cdit.exception.InvalidRowsException;
+import cdit.exception.InvalidUserQueryException;
+import cdit.exception.RowError;
+import cdit.exception.StreamBufferFullException;
+import cdit.exception.StreamedBodySizeExceededException;
+import cdit.exception.StreamedUsersExceededException;
+import cdit.exception.UnsupportedContentEncodingException;
+import cdit.exception.UploadJobNotFoundException;
+import cdit.exception.UploadJobRejectedException;
 import cdit.exception.UserDuplicateException;
 import cdit.exception.UserListValidationException;
 import cdit.exception.UserMissingCsvHeaderException;
 import cdit.exception.UserNameIsEmptyException;
 import cdit.exception.UserSalaryInvalidTypeException;
 import cdit.exception.UserSalaryOutOfRangeException;
+import cdit.service.UploadErrorMapper;
+import cdit.service.UserServiceImpl;
+import cdit.service.UserUploadJobError;
 
 @ControllerAdvice
-public class RestExceptionHandler extends ResponseEntityExceptionHandler {
+public class RestExceptionHandler extends ResponseEntityExceptionHandler
+    implements UploadErrorMapper {
   public static final String MSG_INVALID_CSV = "The CSV file is invalid. Please revise the file.";
+  public static final String MSG_INVALID_RECORD =
+      "The uploaded file is malformed. Please revise the file.";
   public static final String MSG_USER_MISSING_HEADER =
       "Please revise your Users\' CSV file as the headers are missing.";
   public static final String MSG_USER_NAME_EMPTY =
@@ -32,13 +58,66 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
       "Please revise your Users\' CSV file as the \'salary\' must be a number between 0 to 4000.";
   public static final String MSG_USER_CSV_INVALID =
       "Please revise your Users\' CSV file as it fails the validation.";
+  public static final String MSG_USER_ROWS_INVALID =
+      "Please revise your Users\' CSV file as some of its rows fail the validation.";
   public static final String MSG_UPLOAD_SIZE_EXCEEDED =
       "The file upload size is too big, please use a smaller file.";
+  public static final String MSG_DECOMPRESSED_SIZE_EXCEEDED =
+      "The file upload is too big once decompressed, please use a smaller file.";
+  public static final String MSG_STREAMED_USERS_EXCEEDED =
+      "The upload has too many users to be streamed, please use a smaller file.";
+  public static final String MSG_STREAM_BUFFER_FULL =
+      "Too many users are being streamed at once. Please try again later.";
+  public static final String MSG_COMPRESSED_UPLOAD_INVALID =
+      "The compressed file upload is corrupt or cut short. Please compress the file again.";
+  public static final String MSG_CONTENT_ENCODING_UNSUPPORTED =
+      "The file upload must be sent as it is or compressed with gzip or deflate.";
+  public static final String MSG_CURSOR_INVALID =
+      "The \'cursor\' is invalid. Please request the first page again.";
+  public static final String MSG_CURSOR_EXPIRED =
+      "The users have changed since the \'cursor\' was issued. "
+          + "Please request the first page again.";
+  public static final String MSG_PAGE_LIMIT_INVALID =
+      "The \'limit\' must be between 1 and " + UserServiceImpl.MAX_PAGE_LIMIT + ".";
+  public static final String MSG_USER_QUERY_INVALID =
+      "The \'sort\' must be \'upload\', \'name\' or \'salary\', the salaries must be numbers, "
+          + "and a \'cursor\' cannot be combined with them.";
+  public static final String MSG_UPLOAD_JOB_REJECTED =
+      "Too many uploads are waiting. Please try again later.";
+  public static final String MSG_UPLOAD_JOB_NOT_FOUND =
+      "There is no such upload job, or it finished too long ago.";
   public static final String MSG_EXCEPTION =
       "An error has occured. Please contact chanjunweimy@gmail.com for more details.";
 
   private Logger _logger = LoggerFactory.getLogger(RestExceptionHandler.class);
+  private final ExceptionHandlerMethodResolver _handlerMethodResolver =
+      new ExceptionHandlerMethodResolver(RestExceptionHandler.class);
 
+  /**
+   * Describes {@code failure} with the handler that would have answered it had it been thrown by
+   * a request. There is no request to hand the handler, which only needs one to answer 500.
+   */
+  @Override
+  public UserUploadJobError toError(Exception failure) {
+    ResponseEntity<Object> response = handleDetachedException(failure, null);
+    return new UserUploadJobError(response.getStatusCodeValue(), response.getBody());
+  }
+
+  /**
+   * Answers {@code ex} with the handler that would have answered it had it been thrown by
+   * {@code request}.
+   */
+  private ResponseEntity<Object> handleDetachedException(Exception ex, WebRequest request) {
+    Method handlerMethod = _handlerMethodResolver.resolveMethod(ex);
+    try {
+      @SuppressWarnings("unchecked")
+      ResponseEntity<Object> response =
+          (ResponseEntity<Object>) handlerMethod.invoke(this, ex, request);
+      return response;
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      return handleGeneralException(ex, request);
+    }
+  }
 
   @ExceptionHandler({InvalidCsvException.class})
   protected ResponseEntity<Object> handleInvalidCsvException(Exception ex, WebRequest request) {
@@ -46,6 +125,12 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         request);
   }
 
+  @ExceptionHandler({InvalidRecordException.class})
+  protected ResponseEntity<Object> handleInvalidRecordException(Exception ex, WebRequest request) {
+    return handleExceptionInternal(ex, MSG_INVALID_RECORD, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
   @ExceptionHandler({UserMissingCsvHeaderException.class})
   protected ResponseEntity<Object> handleUserMissingCsvHeaderException(Exception ex,
       WebRequest request) {
@@ -80,6 +165,24 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         HttpStatus.BAD_REQUEST, request);
   }
 
+  /**
+   * Lists every bad row with the message its error is answered with on its own.
+   */
+  @ExceptionHandler({InvalidRowsException.class})
+  protected ResponseEntity<Object> handleInvalidRowsException(Exception ex, WebRequest request) {
+    InvalidRowsException invalidRowsException = (InvalidRowsException) ex;
+    List<RowErrorReport.Row> rows = new ArrayList<RowErrorReport.Row>();
+    for (RowError rowError : invalidRowsException.getRowErrors()) {
+      Object reason = handleDetachedException(rowError.getCause(), request).getBody();
+      rows.add(new RowErrorReport.Row(rowError.getLine(),
+          rowError.getColumn() == 0 ? null : rowError.getColumn(), reason));
+    }
+    RowErrorReport report = new RowErrorReport(MSG_USER_ROWS_INVALID,
+        invalidRowsException.getErrorCount(), rows);
+    return handleExceptionInternal(ex, report, new HttpHeaders(), HttpStatus.BAD_REQUEST,
+        request);
+  }
+
   @ExceptionHandler({UserListValidationException.class})
   protected ResponseEntity<Object> handleUserListValidationException(Exception ex,
       WebRequest request) {
@@ -95,6 +198,89 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         request);
   }
   
+  @ExceptionHandler({DecompressedSizeExceededException.class})
+  protected ResponseEntity<Object> handleDecompressedSizeExceededException(Exception ex,
+      WebRequest request) {
+    _logger.error(ex.getMessage());
+    return handleExceptionInternal(ex, MSG_DECOMPRESSED_SIZE_EXCEEDED, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({StreamedUsersExceededException.class})
+  protected ResponseEntity<Object> handleStreamedUsersExceededException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_STREAMED_USERS_EXCEEDED, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({StreamedBodySizeExceededException.class})
+  protected ResponseEntity<Object> handleStreamedBodySizeExceededException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_UPLOAD_SIZE_EXCEEDED, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({StreamBufferFullException.class})
+  protected ResponseEntity<Object> handleStreamBufferFullException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_STREAM_BUFFER_FULL, new HttpHeaders(),
+        HttpStatus.SERVICE_UNAVAILABLE, request);
+  }
+
+  @ExceptionHandler({InvalidCompressedUploadException.class})
+  protected ResponseEntity<Object> handleInvalidCompressedUploadException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_COMPRESSED_UPLOAD_INVALID, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({UnsupportedContentEncodingException.class})
+  protected ResponseEntity<Object> handleUnsupportedContentEncodingException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_CONTENT_ENCODING_UNSUPPORTED, new HttpHeaders(),
+        HttpStatus.UNSUPPORTED_MEDIA_TYPE, request);
+  }
+
+  @ExceptionHandler({InvalidCursorException.class})
+  protected ResponseEntity<Object> handleInvalidCursorException(Exception ex, WebRequest request) {
+    return handleExceptionInternal(ex, MSG_CURSOR_INVALID, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({CursorExpiredException.class})
+  protected ResponseEntity<Object> handleCursorExpiredException(Exception ex, WebRequest request) {
+    return handleExceptionInternal(ex, MSG_CURSOR_EXPIRED, new HttpHeaders(), HttpStatus.GONE,
+        request);
+  }
+
+  @ExceptionHandler({InvalidPageLimitException.class})
+  protected ResponseEntity<Object> handleInvalidPageLimitException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_PAGE_LIMIT_INVALID, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({InvalidUserQueryException.class})
+  protected ResponseEntity<Object> handleInvalidUserQueryException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_USER_QUERY_INVALID, new HttpHeaders(),
+        HttpStatus.BAD_REQUEST, request);
+  }
+
+  @ExceptionHandler({UploadJobRejectedException.class})
+  protected ResponseEntity<Object> handleUploadJobRejectedException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_UPLOAD_JOB_REJECTED, new HttpHeaders(),
+        HttpStatus.SERVICE_UNAVAILABLE, request);
+  }
+
+  @ExceptionHandler({UploadJobNotFoundException.class})
+  protected ResponseEntity<Object> handleUploadJobNotFoundException(Exception ex,
+      WebRequest request) {
+    return handleExceptionInternal(ex, MSG_UPLOAD_JOB_NOT_FOUND, new HttpHeaders(),
+        HttpStatus.NOT_FOUND, request);
+  }
+
   @ExceptionHandler({CditException.class})
   protected ResponseEntity<Object> handleCditException(Exception ex, WebRequest request) {
     _logger.error(ex.getMessage());
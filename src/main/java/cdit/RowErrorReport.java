@@ -0,0 +1,59 @@
+package cdit;
+
+import java.util.List;
+
+/**
+ * The body of an upload that failed with {@link cdit.exception.InvalidRowsException}: the bad rows
+ * in line order, each with the message it would have failed the upload with on its own, and how
+ * many bad rows there were in all.
+ */
+public final class RowErrorReport {
+  private final String _message;
+  private final long _errorCount;
+  private final List<Row> _errors;
+
+  public RowErrorReport(String message, long errorCount, List<Row> errors) {
+    _message = message;
+    _errorCount = errorCount;
+    _errors = errors;
+  }
+
+  public String getMessage() {
+    return _message;
+  }
+
+  public long getErrorCount() {
+    return _errorCount;
+  }
+
+  public List<Row> getErrors() {
+    return _errors;
+  }
+
+  /**
+   * One bad row. The column is {@code null} when the error is about the row as a whole.
+   */
+  public static final class Row {
+    private final long _line;
+    private final Integer _column;
+    private final Object _reason;
+
+    public Row(long line, Integer column, Object reason) {
+      _line = line;
+      _column = column;
+      _reason = reason;
+    }
+
+    public long getLine() {
+      return _line;
+    }
+
+    public Integer getColumn() {
+      return _column;
+    }
+
+    public Object getReason() {
+      return _reason;
+    }
+  }
+}
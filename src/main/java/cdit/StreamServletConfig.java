@@ -0,0 +1,49 @@
+package cdit;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cdit.controller.UserStreamServlet;
+import cdit.service.IngestService;
+import cdit.service.UploadErrorMapper;
+import cdit.service.UploadDecoderService;
+import cdit.service.UserJsonCacheService;
+import cdit.service.UserMapperService;
+import cdit.service.UserMetrics;
+import cdit.service.UserService;
+import cdit.service.UserUploadJobService;
+
+/**
+ * Registers {@link UserStreamServlet} beside Spring MVC's dispatcher, which cannot read or write
+ * without blocking.
+ */
+@Configuration
+public class StreamServletConfig {
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+  @Bean
+  public ServletRegistrationBean<UserStreamServlet> userStreamServlet(
+      IngestService ingestService, UploadDecoderService uploadDecoderService,
+      UserMapperService userMapperService, UserService userService,
+      UserUploadJobService userUploadJobService, UserJsonCacheService userJsonCacheService,
+      UploadErrorMapper uploadErrorMapper,
+      ObjectProvider<ObjectMapper> objectMapperProvider, UserMetrics userMetrics,
+      @Value("${cdit.users.stream.timeout-millis:600000}") long timeoutMillis,
+      @Value("${cdit.users.stream.max-buffered-users:1000000}") long maxBufferedUsers,
+      @Value("${cdit.users.stream.max-buffered-users-total:2000000}") long maxBufferedUsersTotal,
+      @Value("${cdit.users.stream.max-body-megabytes:64}") long maxBodyMegabytes) {
+    UserStreamServlet servlet = new UserStreamServlet(ingestService,
+        uploadDecoderService, userMapperService, userService, userUploadJobService,
+        userJsonCacheService, uploadErrorMapper,
+        objectMapperProvider.getIfAvailable(ObjectMapper::new), userMetrics, timeoutMillis,
+        maxBufferedUsers, maxBufferedUsersTotal, maxBodyMegabytes * BYTES_PER_MEGABYTE);
+    ServletRegistrationBean<UserStreamServlet> registration =
+        new ServletRegistrationBean<UserStreamServlet>(servlet,
+            UserStreamServlet.ENDPOINT_USERS_STREAM);
+    registration.setAsyncSupported(true);
+    return registration;
+  }
+}
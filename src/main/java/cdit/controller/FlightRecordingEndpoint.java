@@ -0,0 +1,68 @@
+package cdit.controller;
+
+import java.io.IOException;
+import java.text.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.Resource;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import cdit.service.FlightRecordingService;
+import cdit.service.FlightRecordingStatus;
+
+/**
+ * Serves {@code /actuator/jfr}, which records the application with the JDK Flight Recorder. POST
+ * starts a recording, optionally with {@code durationSeconds} and {@code maxSizeMegabytes} in a
+ * JSON body, GET reports on it and DELETE stops it and answers with the {@code .jfr} file. Only
+ * one recording is kept at a time, so a POST is answered with 429 until the last one is fetched.
+ * It is not exposed over HTTP unless {@code management.endpoints.web.exposure.include} names it.
+ */
+@Component
+@WebEndpoint(id = "jfr")
+public class FlightRecordingEndpoint {
+  private static final long DEFAULT_DURATION_SECONDS = 60;
+  private static final long DEFAULT_MAX_SIZE_MEGABYTES = 100;
+
+  private final FlightRecordingService _flightRecordingService;
+
+  private Logger _logger = LoggerFactory.getLogger(FlightRecordingEndpoint.class);
+
+  public FlightRecordingEndpoint(FlightRecordingService flightRecordingService) {
+    _flightRecordingService = flightRecordingService;
+  }
+
+  @WriteOperation
+  public WebEndpointResponse<FlightRecordingStatus> start(@Nullable Long durationSeconds,
+      @Nullable Long maxSizeMegabytes) throws IOException, ParseException {
+    FlightRecordingStatus status = _flightRecordingService.start(
+        durationSeconds == null ? DEFAULT_DURATION_SECONDS : durationSeconds,
+        maxSizeMegabytes == null ? DEFAULT_MAX_SIZE_MEGABYTES : maxSizeMegabytes);
+    if (status == null) {
+      return new WebEndpointResponse<FlightRecordingStatus>(
+          WebEndpointResponse.STATUS_TOO_MANY_REQUESTS);
+    }
+    _logger.info("Started a flight recording of {} seconds", status.getDurationSeconds());
+    return new WebEndpointResponse<FlightRecordingStatus>(status);
+  }
+
+  @ReadOperation
+  public WebEndpointResponse<FlightRecordingStatus> status() {
+    FlightRecordingStatus status = _flightRecordingService.getStatus();
+    return status == null
+        ? new WebEndpointResponse<FlightRecordingStatus>(WebEndpointResponse.STATUS_NOT_FOUND)
+        : new WebEndpointResponse<FlightRecordingStatus>(status);
+  }
+
+  @DeleteOperation
+  public WebEndpointResponse<Resource> stop() throws IOException {
+    Resource recording = _flightRecordingService.stop();
+    return recording == null
+        ? new WebEndpointResponse<Resource>(WebEndpointResponse.STATUS_NOT_FOUND)
+        : new WebEndpointResponse<Resource>(recording);
+  }
+}
@@ -0,0 +1,40 @@
+package cdit.controller;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The users that all uploads to {@code /users/stream} may keep in memory together. Every upload
+ * reserves its batches here as it parses them, and releases them as its job takes them or once it
+ * has failed, so that many slow clients together cannot hold more than
+ * {@code cdit.users.stream.max-buffered-users-total}.
+ */
+final class StreamBufferBudget {
+  private final long _maxUserCount;
+  private final AtomicLong _userCount = new AtomicLong();
+
+  StreamBufferBudget(long maxUserCount) {
+    _maxUserCount = maxUserCount;
+  }
+
+  /**
+   * Reserves {@code count} users, unless that would go beyond the budget.
+   */
+  boolean tryReserve(long count) {
+    while (true) {
+      long userCount = _userCount.get();
+      if (userCount + count > _maxUserCount) {
+        return false;
+      } else if (_userCount.compareAndSet(userCount, userCount + count)) {
+        return true;
+      }
+    }
+  }
+
+  void release(long count) {
+    _userCount.addAndGet(-count);
+  }
+
+  long getUserCount() {
+    return _userCount.get();
+  }
+}
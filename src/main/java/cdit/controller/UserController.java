@@ -1,64 +1,313 @@
 package cdit.controller;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Locale;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
-import cdit.service.CsvParserService;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import cdit.service.CditBatchConsumer;
+import cdit.service.CditBatchProducer;
+import cdit.service.CditIngestFormat;
+import cdit.service.IngestService;
+import cdit.service.UploadDecoderService;
+import cdit.service.UploadEncoding;
+import cdit.service.RenderedJson;
+import cdit.service.UserPage;
+import cdit.service.UserSnapshot;
+import cdit.service.UserSortOrder;
+import cdit.service.UserStatistics;
+import cdit.service.UserJsonCacheService;
 import cdit.service.UserMapperService;
+import cdit.service.UserMetrics;
 import cdit.service.UserService;
+import cdit.service.UserUploadJob;
+import cdit.service.UserUploadJobService;
+import cdit.service.UserUploadJobStatus;
 import cdit.util.LoggerHelper;
 import cdit.exception.CditException;
+import cdit.exception.InvalidUserQueryException;
+import cdit.exception.UploadJobNotFoundException;
 import cdit.model.User;
 
 @RestController
 public class UserController {
-  private final CsvParserService _csvParserService;
+  private final IngestService _ingestService;
+  private final UploadDecoderService _uploadDecoderService;
   private final UserMapperService _userMapperService;
   private final UserService _userService;
+  private final UserJsonCacheService _userJsonCacheService;
+  private final UserUploadJobService _userUploadJobService;
+  private final UserMetrics _userMetrics;
 
   private static final String ENDPOINT_USERS = "/users";
+  private static final String ENDPOINT_USERS_STATS = "/users/stats";
+  private static final String ENDPOINT_USERS_JOBS = "/users/jobs";
+  private static final int USERS_BATCH_SIZE = 1000;
+  private static final String CONTENT_ENCODING_GZIP = "gzip";
+  private static final int DEFAULT_PAGE_LIMIT = 1000;
 
   private Logger _logger = LoggerFactory.getLogger(UserController.class);
 
-  public UserController(CsvParserService csvParserService, UserMapperService userMapperService,
-      UserService userService) {
-    _csvParserService = csvParserService;
+  public UserController(IngestService ingestService,
+      UploadDecoderService uploadDecoderService, UserMapperService userMapperService,
+      UserService userService, UserJsonCacheService userJsonCacheService,
+      UserUploadJobService userUploadJobService, UserMetrics userMetrics) {
+    _ingestService = ingestService;
+    _uploadDecoderService = uploadDecoderService;
     _userMapperService = userMapperService;
     _userService = userService;
+    _userJsonCacheService = userJsonCacheService;
+    _userUploadJobService = userUploadJobService;
+    _userMetrics = userMetrics;
   }
 
+  /**
+   * Replaces every user with the uploaded file. With {@code delta} only the users that changed are
+   * written and the body counts them. With {@code async} the upload is queued as a job and answered
+   * at once with 202 and the job's status, to be polled at the {@code Location} returned. With
+   * {@code allErrors} the whole file is validated and every bad row reported at once.
+   *
+   * The file is read in the format its part's {@code Content-Type} names through
+   * {@link IngestService}, CSV unless it names NDJSON or the binary format. A file compressed with
+   * gzip or deflate, as told by its first bytes, is decompressed while it is parsed. It is always
+   * parsed sequentially, as decompressing is, even with {@code parallel}; so are all formats but
+   * CSV.
+   */
   @PostMapping(value = ENDPOINT_USERS)
-  public ResponseEntity<?> updateUsers(@RequestParam("file") MultipartFile multipartFile)
+  public ResponseEntity<?> updateUsers(@RequestParam("file") MultipartFile multipartFile,
+      @RequestParam(value = "parallel", defaultValue = "false") boolean isParallel,
+      @RequestParam(value = "delta", defaultValue = "false") boolean isDelta,
+      @RequestParam(value = "async", defaultValue = "false") boolean isAsync,
+      @RequestParam(value = "allErrors", defaultValue = "false") boolean isEveryErrorReported)
       throws CditException, IOException {
     LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_POST, ENDPOINT_USERS,
         "UserController");
 
-    List<User> users =
-        _csvParserService.parseInputStream(multipartFile.getInputStream(), _userMapperService);
-    _userService.updateUsers(users);
+    _userMetrics.countUploadedBytes(multipartFile.getSize());
+    UploadEncoding encoding = sniffEncoding(multipartFile);
+    CditIngestFormat format = _ingestService.getFormat(multipartFile.getContentType());
+    ResponseEntity<?> response;
+    if (isAsync) {
+      // the multipart file is deleted once the request completes, before the job reads it
+      byte[] bytes = multipartFile.getBytes();
+      UserUploadJob job = _userUploadJobService.submit(
+          (CditBatchConsumer<User> batchConsumer) -> parseUsers(bytes, format, encoding,
+              isParallel, isEveryErrorReported, batchConsumer),
+          isDelta);
+      response = ResponseEntity.accepted()
+          .location(URI.create(ENDPOINT_USERS_JOBS + "/" + job.getId())).body(job.toStatus());
+    } else {
+      CditBatchProducer<User> userBatchProducer = (CditBatchConsumer<User> batchConsumer) -> {
+        if (encoding != UploadEncoding.IDENTITY) {
+          parseCompressedUsers(multipartFile.getInputStream(), format, encoding,
+              isEveryErrorReported, batchConsumer);
+        } else if (isParallel) {
+          parseUsers(multipartFile.getBytes(), format, encoding, true, isEveryErrorReported,
+              batchConsumer);
+        } else {
+          format.parseInputStream(multipartFile.getInputStream(), _userMapperService,
+              USERS_BATCH_SIZE, batchConsumer, isEveryErrorReported);
+        }
+      };
+      if (isDelta) {
+        response = ResponseEntity.ok(_userService.updateChangedUsers(userBatchProducer));
+      } else {
+        _userService.updateUsers(userBatchProducer);
+        response = ResponseEntity.ok().build();
+      }
+    }
 
     LoggerHelper.logMessageAtEndOfMethod(_logger, LoggerHelper.METHOD_POST, ENDPOINT_USERS,
         "UserController");
 
-    return ResponseEntity.ok().build();
+    return response;
   }
 
+  /**
+   * Reports the phase and progress of an upload job and, once it has failed, the status and body
+   * the upload would have been answered with had it not run in the background.
+   */
+  @GetMapping(value = ENDPOINT_USERS_JOBS + "/{id}")
+  public UserUploadJobStatus getUploadJob(@PathVariable("id") String id) throws CditException {
+    LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_GET, ENDPOINT_USERS_JOBS,
+        "UserController");
+
+    UserUploadJob job = _userUploadJobService.getJob(id);
+    if (job == null) {
+      throw new UploadJobNotFoundException();
+    }
+    UserUploadJobStatus status = job.toStatus();
+
+    LoggerHelper.logMessageAtEndOfMethod(_logger, LoggerHelper.METHOD_GET, ENDPOINT_USERS_JOBS,
+        "UserController");
+    return status;
+  }
+
+  /**
+   * Without {@code limit} and {@code cursor}, serves the whole list as the body rendered once for
+   * the current snapshot, gzipped when the client accepts it. The ETag is checked against
+   * {@code If-None-Match} by Spring, which answers 304 on a match.
+   *
+   * With either parameter, serves one page ordered by name along with the cursor of the next page.
+   * With {@code minSalary}, {@code maxSalary} or {@code sort}, serves the matching users from the
+   * snapshot's indexes, at most {@code limit} of them; these cannot be combined with a cursor.
+   * With {@code stream} and none of the others, {@link #getUsersStreamed()} serves the request.
+   */
   @GetMapping(value = ENDPOINT_USERS)
-  public List<User> getUsers() {
+  public ResponseEntity<?> getUsers(
+      @RequestParam(value = "limit", required = false) Integer limit,
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @RequestParam(value = "minSalary", required = false) Double minSalary,
+      @RequestParam(value = "maxSalary", required = false) Double maxSalary,
+      @RequestParam(value = "sort", required = false) String sort,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+      throws CditException, IOException {
     LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_GET, ENDPOINT_USERS,
         "UserController");
 
-    List<User> users = _userService.getAllUsers();
+    ResponseEntity<?> response;
+    if (minSalary != null || maxSalary != null || sort != null) {
+      if (cursor != null) {
+        throw new InvalidUserQueryException();
+      }
+      response = ResponseEntity.ok(_userService.findUsers(minSalary, maxSalary,
+          UserSortOrder.fromParameter(sort), limit));
+    } else if (limit != null || cursor != null) {
+      UserPage page =
+          _userService.getUsersPage(cursor, limit == null ? DEFAULT_PAGE_LIMIT : limit.intValue());
+      response = ResponseEntity.ok(page);
+    } else {
+      response = getRenderedUsers(acceptEncoding);
+    }
 
     LoggerHelper.logMessageAtEndOfMethod(_logger, LoggerHelper.METHOD_POST, ENDPOINT_USERS,
         "UserController");
-    return users;
+    return response;
+  }
+
+  /**
+   * Writes the current snapshot out user by user instead of as one rendered body, which keeps
+   * memory per request constant and sends the first bytes sooner. It is mapped apart from
+   * {@link #getUsers} because Spring only streams a body whose declared type is
+   * {@link StreamingResponseBody}.
+   */
+  @GetMapping(value = ENDPOINT_USERS,
+      params = {"stream=true", "!limit", "!cursor", "!minSalary", "!maxSalary", "!sort"})
+  public ResponseEntity<StreamingResponseBody> getUsersStreamed() {
+    LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_GET, ENDPOINT_USERS,
+        "UserController");
+
+    UserSnapshot snapshot = _userService.getSnapshot();
+    StreamingResponseBody body = outputStream -> _userJsonCacheService
+        .writeUsers(snapshot.getUsers(), outputStream);
+
+    LoggerHelper.logMessageAtEndOfMethod(_logger, LoggerHelper.METHOD_GET, ENDPOINT_USERS,
+        "UserController");
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+  }
+
+  /**
+   * Serves the salary statistics of the current snapshot, computed when it was uploaded.
+   */
+  @GetMapping(value = ENDPOINT_USERS_STATS)
+  public UserStatistics getUserStatistics() {
+    LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_GET,
+        ENDPOINT_USERS_STATS, "UserController");
+
+    UserStatistics statistics = _userService.getSnapshot().getStatistics();
+
+    LoggerHelper.logMessageAtEndOfMethod(_logger, LoggerHelper.METHOD_GET, ENDPOINT_USERS_STATS,
+        "UserController");
+    return statistics;
+  }
+
+  private ResponseEntity<byte[]> getRenderedUsers(String acceptEncoding) throws IOException {
+    RenderedJson renderedUsers = _userJsonCacheService.getRenderedUsers(_userService.getSnapshot());
+    ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON_UTF8).varyBy(HttpHeaders.ACCEPT_ENCODING);
+    if (acceptsGzip(acceptEncoding)) {
+      return responseBuilder.eTag(renderedUsers.getGzipEtag())
+          .header(HttpHeaders.CONTENT_ENCODING, CONTENT_ENCODING_GZIP)
+          .body(renderedUsers.getGzipBytes());
+    }
+    return responseBuilder.eTag(renderedUsers.getEtag()).body(renderedUsers.getBytes());
+  }
+
+  /**
+   * Whether {@code Accept-Encoding} allows gzip, either by name or through {@code *}, and not with
+   * a quality of zero. An explicit gzip entry takes precedence over {@code *}.
+   */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    boolean isAnyCodingAccepted = false;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      boolean isRefused = false;
+      for (int i = 1; i < parts.length; i++) {
+        isRefused |= parts[i].replace(" ", "").matches("q=0(\\.0{0,3})?");
+      }
+      if (name.equals(CONTENT_ENCODING_GZIP)) {
+        return !isRefused;
+      } else if (name.equals("*")) {
+        isAnyCodingAccepted = !isRefused;
+      }
+    }
+    return isAnyCodingAccepted;
+  }
+
+  /**
+   * The encoding of the uploaded file, going by its first bytes since a multipart request has no
+   * {@code Content-Encoding} of its parts.
+   */
+  private static UploadEncoding sniffEncoding(MultipartFile multipartFile) throws IOException {
+    byte[] firstBytes = new byte[UploadEncoding.MAGIC_LENGTH];
+    int length = 0;
+    try (InputStream inputStream = multipartFile.getInputStream()) {
+      int count;
+      while (length < firstBytes.length
+          && (count = inputStream.read(firstBytes, length, firstBytes.length - length)) != -1) {
+        length += count;
+      }
+    }
+    return UploadEncoding.sniff(firstBytes, length);
+  }
+
+  private void parseUsers(byte[] bytes, CditIngestFormat format, UploadEncoding encoding,
+      boolean isParallel, boolean isEveryErrorReported, CditBatchConsumer<User> batchConsumer)
+      throws CditException, IOException {
+    if (encoding != UploadEncoding.IDENTITY) {
+      parseCompressedUsers(new ByteArrayInputStream(bytes), format, encoding,
+          isEveryErrorReported, batchConsumer);
+    } else if (isParallel) {
+      format.parseBytesInParallel(bytes, _userMapperService, USERS_BATCH_SIZE, batchConsumer,
+          isEveryErrorReported);
+    } else {
+      format.parseInputStream(new ByteArrayInputStream(bytes), _userMapperService,
+          USERS_BATCH_SIZE, batchConsumer, isEveryErrorReported);
+    }
+  }
+
+  private void parseCompressedUsers(InputStream inputStream, CditIngestFormat format,
+      UploadEncoding encoding, boolean isEveryErrorReported,
+      CditBatchConsumer<User> batchConsumer) throws CditException, IOException {
+    _uploadDecoderService.parseInputStream(inputStream, encoding,
+        format.createPushParser(_userMapperService, USERS_BATCH_SIZE, batchConsumer,
+            isEveryErrorReported));
   }
 }
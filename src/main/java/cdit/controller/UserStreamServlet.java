@@ -0,0 +1,329 @@
+package cdit.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import cdit.exception.StreamedBodySizeExceededException;
+import cdit.exception.UnsupportedContentEncodingException;
+import cdit.exception.UploadJobRejectedException;
+import cdit.model.User;
+import cdit.service.IngestService;
+import cdit.service.UploadDecoderService;
+import cdit.service.UploadErrorMapper;
+import cdit.service.UploadEncoding;
+import cdit.service.UserJsonCacheService;
+import cdit.service.UserMapperService;
+import cdit.service.UserMetrics;
+import cdit.service.UserSerializeEvent;
+import cdit.service.UserService;
+import cdit.service.UserSnapshot;
+import cdit.service.UserUploadJob;
+import cdit.service.UserUploadJobError;
+import cdit.service.UserUploadJobPhase;
+import cdit.service.UserUploadJobService;
+import cdit.util.LoggerHelper;
+
+/**
+ * Serves {@code /users/stream} with the non-blocking I/O of the servlet container, so that slow
+ * clients hold a connection but no thread while they send or receive.
+ *
+ * POST takes the file as the raw request body, in the format its {@code Content-Type} names
+ * through {@link IngestService}, parses it as it arrives and, once all of it has, uploads it as an
+ * upload job; with {@code delta} only the users that changed are written and with
+ * {@code allErrors} every bad row is reported, as for POST {@code /users}. A body compressed with
+ * gzip or deflate, as named by {@code Content-Encoding} or told by its first bytes, is
+ * decompressed as it arrives. Until the job takes them, the users parsed are kept in memory, at
+ * most {@code cdit.users.stream.max-buffered-users} of them per upload and
+ * {@code cdit.users.stream.max-buffered-users-total} for all uploads together, beyond which
+ * uploads are answered with 503; the body itself may have at most
+ * {@code cdit.users.stream.max-body-megabytes}. It is answered once the job has finished,
+ * or as soon as the body fails to parse, with the status and body POST {@code /users} would have
+ * answered with. GET writes the users of the current snapshot as the JSON array GET
+ * {@code /users} serves, a chunk at a time whenever the client has taken the previous one.
+ */
+public class UserStreamServlet extends HttpServlet {
+  public static final String ENDPOINT_USERS_STREAM = "/users/stream";
+
+  private static final long serialVersionUID = 1L;
+  private static final String PARAMETER_DELTA = "delta";
+  private static final String PARAMETER_ALL_ERRORS = "allErrors";
+  private static final int USERS_BATCH_SIZE = 1000;
+  private static final int USERS_PER_CHUNK = 256;
+
+  private final IngestService _ingestService;
+  private final UploadDecoderService _uploadDecoderService;
+  private final UserMapperService _userMapperService;
+  private final UserService _userService;
+  private final UserUploadJobService _userUploadJobService;
+  private final UserJsonCacheService _userJsonCacheService;
+  private final UploadErrorMapper _uploadErrorMapper;
+  private final ObjectMapper _objectMapper;
+  private final UserMetrics _userMetrics;
+  private final long _timeoutMillis;
+  private final long _maxBufferedUsers;
+  private final long _maxBodyBytes;
+  private final StreamBufferBudget _budget;
+
+  private Logger _logger = LoggerFactory.getLogger(UserStreamServlet.class);
+
+  public UserStreamServlet(IngestService ingestService,
+      UploadDecoderService uploadDecoderService, UserMapperService userMapperService,
+      UserService userService,
+      UserUploadJobService userUploadJobService, UserJsonCacheService userJsonCacheService,
+      UploadErrorMapper uploadErrorMapper, ObjectMapper objectMapper,
+      UserMetrics userMetrics, long timeoutMillis, long maxBufferedUsers,
+      long maxBufferedUsersTotal, long maxBodyBytes) {
+    if (maxBufferedUsers > maxBufferedUsersTotal) {
+      throw new IllegalArgumentException(
+          "An upload cannot buffer more users than all uploads together.");
+    }
+    _ingestService = ingestService;
+    _uploadDecoderService = uploadDecoderService;
+    _userMapperService = userMapperService;
+    _userService = userService;
+    _userUploadJobService = userUploadJobService;
+    _userJsonCacheService = userJsonCacheService;
+    _uploadErrorMapper = uploadErrorMapper;
+    _objectMapper = objectMapper;
+    _userMetrics = userMetrics;
+    _timeoutMillis = timeoutMillis;
+    _maxBufferedUsers = maxBufferedUsers;
+    _maxBodyBytes = maxBodyBytes;
+    _budget = new StreamBufferBudget(maxBufferedUsersTotal);
+    userMetrics.registerStreamBuffer(_budget, StreamBufferBudget::getUserCount);
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_POST,
+        ENDPOINT_USERS_STREAM, "UserStreamServlet");
+
+    boolean isDelta = Boolean.parseBoolean(request.getParameter(PARAMETER_DELTA));
+    boolean isEveryErrorReported =
+        Boolean.parseBoolean(request.getParameter(PARAMETER_ALL_ERRORS));
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(_timeoutMillis);
+    AtomicBoolean isAnswered = new AtomicBoolean();
+    UploadEncoding encoding;
+    try {
+      encoding =
+          UploadEncoding.fromContentEncoding(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+    } catch (UnsupportedContentEncodingException e) {
+      answerWithFailure(asyncContext, isAnswered, e);
+      return;
+    }
+    if (request.getContentLengthLong() > _maxBodyBytes) {
+      answerWithFailure(asyncContext, isAnswered, new StreamedBodySizeExceededException());
+      return;
+    }
+    UserStreamUpload upload = new UserStreamUpload(request.getInputStream(),
+        _ingestService.getFormat(request.getContentType()), _uploadDecoderService, encoding,
+        _userMapperService, _userMetrics, USERS_BATCH_SIZE, isEveryErrorReported,
+        _maxBufferedUsers, _maxBodyBytes, _budget, new UserStreamUpload.Listener() {
+          @Override
+          public void onUploadRead(UserStreamUpload upload) {
+            submitUpload(asyncContext, isAnswered, upload, isDelta);
+          }
+
+          @Override
+          public void onUploadFailed(Exception failure) {
+            answerWithFailure(asyncContext, isAnswered, failure);
+          }
+        });
+    asyncContext.addListener(new TimeoutListener(() -> {
+      IOException failure = new IOException("The upload timed out.");
+      upload.abort(failure);
+      answerWithFailure(asyncContext, isAnswered, failure);
+    }));
+    upload.start();
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    LoggerHelper.logMessageAtStartOfMethod(_logger, LoggerHelper.METHOD_GET,
+        ENDPOINT_USERS_STREAM, "UserStreamServlet");
+
+    UserSnapshot snapshot = _userService.getSnapshot();
+    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(_timeoutMillis);
+    asyncContext.addListener(new TimeoutListener(asyncContext::complete));
+    ServletOutputStream outputStream = response.getOutputStream();
+    outputStream.setWriteListener(new UsersWriter(asyncContext, outputStream, snapshot));
+  }
+
+  /**
+   * Uploads the users of a body that has been parsed as a job, and answers once it has finished.
+   * Whatever the job leaves of them is released then.
+   */
+  private void submitUpload(AsyncContext asyncContext, AtomicBoolean isAnswered,
+      UserStreamUpload upload, boolean isDelta) {
+    UserUploadJob job;
+    try {
+      job = _userUploadJobService.submit(upload, isDelta);
+    } catch (UploadJobRejectedException e) {
+      upload.discard();
+      answerWithFailure(asyncContext, isAnswered, e);
+      return;
+    }
+    job.whenFinished(() -> {
+      upload.discard();
+      if (job.getPhase() == UserUploadJobPhase.FAILED) {
+        answerWithError(asyncContext, isAnswered, job.toStatus().getError());
+      } else {
+        Object body = isDelta ? job.toStatus().getDelta() : null;
+        answer(asyncContext, isAnswered, HttpStatus.OK.value(), body);
+      }
+    });
+  }
+
+  private void answerWithFailure(AsyncContext asyncContext, AtomicBoolean isAnswered,
+      Exception failure) {
+    answerWithError(asyncContext, isAnswered, _uploadErrorMapper.toError(failure));
+  }
+
+  private void answerWithError(AsyncContext asyncContext, AtomicBoolean isAnswered,
+      UserUploadJobError error) {
+    answer(asyncContext, isAnswered, error.getStatus(), error.getMessage());
+  }
+
+  /**
+   * Writes a short body the way Spring MVC would, a string as text and anything else as JSON, and
+   * ends the request unless it has been answered already.
+   */
+  private void answer(AsyncContext asyncContext, AtomicBoolean isAnswered, int status,
+      Object body) {
+    if (!isAnswered.compareAndSet(false, true)) {
+      return;
+    }
+    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+    try {
+      response.setStatus(status);
+      if (body != null) {
+        byte[] bytes;
+        if (body instanceof String) {
+          response.setContentType(MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8");
+          bytes = ((String) body).getBytes(StandardCharsets.UTF_8);
+        } else {
+          response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+          bytes = _objectMapper.writeValueAsBytes(body);
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+      }
+    } catch (IOException e) {
+      _logger.error(e.getMessage());
+    } finally {
+      asyncContext.complete();
+    }
+  }
+
+  /**
+   * Writes the users as a JSON array, encoding the next {@link #USERS_PER_CHUNK} of them only once
+   * the container is ready to take more, so no more than one chunk is held per client. Each chunk
+   * gets a {@link UserSerializeEvent} of its own, which leaves the waits for the client out.
+   */
+  private class UsersWriter implements WriteListener {
+    private final AsyncContext _asyncContext;
+    private final ServletOutputStream _outputStream;
+    private final List<User> _users;
+    private final long _version;
+    private final ByteArrayOutputStream _chunk = new ByteArrayOutputStream();
+    private SequenceWriter _sequenceWriter;
+    private long _encodingNanos;
+    private int _nextRow;
+    private boolean _isClosed;
+
+    private UsersWriter(AsyncContext asyncContext, ServletOutputStream outputStream,
+        UserSnapshot snapshot) {
+      _asyncContext = asyncContext;
+      _outputStream = outputStream;
+      _users = snapshot.getUsers();
+      _version = snapshot.getVersion();
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      if (_sequenceWriter == null) {
+        _sequenceWriter = _userJsonCacheService.openUserArray(_chunk);
+      }
+      while (_outputStream.isReady()) {
+        if (_isClosed) {
+          _asyncContext.complete();
+          return;
+        }
+        UserSerializeEvent serializeEvent = new UserSerializeEvent();
+        serializeEvent.begin();
+        long start = System.nanoTime();
+        int firstRow = _nextRow;
+        int end = Math.min(_users.size(), _nextRow + USERS_PER_CHUNK);
+        for (; _nextRow < end; _nextRow++) {
+          _sequenceWriter.write(_users.get(_nextRow));
+        }
+        if (_nextRow == _users.size()) {
+          _sequenceWriter.close();
+          _isClosed = true;
+        } else {
+          _sequenceWriter.flush();
+        }
+        _encodingNanos += System.nanoTime() - start;
+        serializeEvent.commit(_nextRow - firstRow, _chunk.size(), _version);
+        if (_isClosed) {
+          _userMetrics.recordSerialization(UserMetrics.MODE_CHUNKED, _encodingNanos);
+        }
+        _chunk.writeTo(_outputStream);
+        _chunk.reset();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      _logger.error(t.getMessage());
+      _asyncContext.complete();
+    }
+  }
+
+  private static class TimeoutListener implements AsyncListener {
+    private final Runnable _onTimeout;
+
+    private TimeoutListener(Runnable onTimeout) {
+      _onTimeout = onTimeout;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      _onTimeout.run();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package cdit.controller;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import cdit.exception.CditException;
+import cdit.exception.StreamBufferFullException;
+import cdit.exception.StreamedBodySizeExceededException;
+import cdit.exception.StreamedUsersExceededException;
+import cdit.model.User;
+import cdit.service.CditBatchConsumer;
+import cdit.service.CditBatchProducer;
+import cdit.service.CditIngestFormat;
+import cdit.service.CditPushParser;
+import cdit.service.UploadDecoderService;
+import cdit.service.UploadEncoding;
+import cdit.service.UserMapperService;
+import cdit.service.UserMetrics;
+
+/**
+ * Reads and parses the body of one request without a thread waiting on the client. The container
+ * calls {@link #onDataAvailable()} when bytes have arrived, and they are read and parsed at once
+ * into batches that are kept here. Once the whole body has been parsed the {@link Listener} is told
+ * so, and only then is the upload handed to a job, which takes the batches in
+ * {@link #produce(CditBatchConsumer)} without waiting; a slow client therefore never holds the
+ * lock and transaction of {@link cdit.service.UserService}, nor a job thread.
+ *
+ * At most {@code maxBufferedUsers} users are kept; an upload with more fails with
+ * {@link StreamedUsersExceededException} as soon as it goes beyond them, and one with a body of
+ * more than {@code maxBodyBytes} with {@link StreamedBodySizeExceededException}. The users kept
+ * are reserved from the {@link StreamBufferBudget} shared by every upload, and an upload that
+ * finds it spent fails with {@link StreamBufferFullException}; they are released as the job takes
+ * them, or all at once by {@link #discard()}. Every read happens under this object's lock,
+ * whichever thread does it.
+ */
+final class UserStreamUpload implements ReadListener, CditBatchProducer<User> {
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final ServletInputStream _inputStream;
+  private final CditPushParser<User> _parser;
+  private final UserMetrics _userMetrics;
+  private final long _maxBufferedUsers;
+  private final long _maxBodyBytes;
+  private final StreamBufferBudget _budget;
+  private final Listener _listener;
+  private final byte[] _readBuffer = new byte[READ_BUFFER_SIZE];
+  private final Deque<List<User>> _bufferedBatches = new ArrayDeque<List<User>>();
+  /** Every user parsed so far, taken or not. */
+  private long _bufferedUserCount;
+  /** The users kept and reserved from {@link #_budget}. */
+  private long _reservedUserCount;
+  private long _bodyByteCount;
+  private boolean _isAllDataRead;
+  private Exception _failure;
+
+  UserStreamUpload(ServletInputStream inputStream, CditIngestFormat ingestFormat,
+      UploadDecoderService uploadDecoderService, UploadEncoding encoding,
+      UserMapperService userMapperService, UserMetrics userMetrics, int batchSize,
+      boolean isEveryErrorReported, long maxBufferedUsers, long maxBodyBytes,
+      StreamBufferBudget budget, Listener listener) {
+    _inputStream = inputStream;
+    _userMetrics = userMetrics;
+    _maxBufferedUsers = maxBufferedUsers;
+    _maxBodyBytes = maxBodyBytes;
+    _budget = budget;
+    _listener = listener;
+    _parser = uploadDecoderService.createDecodingParser(encoding,
+        ingestFormat.createPushParser(userMapperService, batchSize, this::buffer,
+            isEveryErrorReported));
+  }
+
+  void start() {
+    _inputStream.setReadListener(this);
+  }
+
+  /**
+   * Stops reading for good, for uploads that have been answered already. The users of a body read
+   * whole are left to its job, which may have begun to take them.
+   */
+  synchronized void abort(Exception failure) {
+    if (_failure == null) {
+      _failure = failure;
+    }
+    if (!_isAllDataRead) {
+      discard();
+    }
+  }
+
+  /**
+   * Drops the users that have not been taken and releases them from the budget, once the job has
+   * finished with them or they will never be uploaded.
+   */
+  synchronized void discard() {
+    _bufferedBatches.clear();
+    _budget.release(_reservedUserCount);
+    _reservedUserCount = 0;
+  }
+
+  @Override
+  public void onDataAvailable() {
+    readAvailable();
+  }
+
+  @Override
+  public void onAllDataRead() {
+    readAvailable();
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    abort(t instanceof IOException ? (IOException) t : new IOException(t));
+  }
+
+  /**
+   * Hands over the batches parsed, releasing each once it has been accepted. Only called once the
+   * whole body has been parsed.
+   */
+  @Override
+  public void produce(CditBatchConsumer<User> batchConsumer) throws CditException {
+    List<User> batch;
+    while ((batch = takeBatch()) != null) {
+      batchConsumer.accept(batch);
+    }
+  }
+
+  private synchronized List<User> takeBatch() {
+    List<User> batch = _bufferedBatches.poll();
+    if (batch != null) {
+      _budget.release(batch.size());
+      _reservedUserCount -= batch.size();
+    }
+    return batch;
+  }
+
+  private void buffer(List<User> batch)
+      throws StreamedUsersExceededException, StreamBufferFullException {
+    _bufferedUserCount += batch.size();
+    if (_bufferedUserCount > _maxBufferedUsers) {
+      throw new StreamedUsersExceededException();
+    } else if (!_budget.tryReserve(batch.size())) {
+      throw new StreamBufferFullException();
+    }
+    _reservedUserCount += batch.size();
+    _bufferedBatches.add(new ArrayList<User>(batch));
+  }
+
+  /**
+   * Reads and parses until the container has no more bytes, telling the {@link Listener} once the
+   * body has been parsed or has failed to. Once {@link ServletInputStream#isReady()} has answered
+   * false the container calls {@link #onDataAvailable()} again.
+   */
+  private synchronized void readAvailable() {
+    if (_failure != null || _isAllDataRead) {
+      return;
+    }
+    try {
+      while (true) {
+        if (_inputStream.isFinished()) {
+          _parser.finish();
+          _isAllDataRead = true;
+          _listener.onUploadRead(this);
+          return;
+        } else if (!_inputStream.isReady()) {
+          return;
+        }
+        int count = _inputStream.read(_readBuffer);
+        if (count > 0) {
+          _bodyByteCount += count;
+          if (_bodyByteCount > _maxBodyBytes) {
+            throw new StreamedBodySizeExceededException();
+          }
+          _userMetrics.countUploadedBytes(count);
+          _parser.feed(_readBuffer, 0, count);
+        }
+      }
+    } catch (CditException | IOException e) {
+      _failure = e;
+      discard();
+      _listener.onUploadFailed(e);
+    }
+  }
+
+  /**
+   * Told, on a container thread, how reading the body ended; one of its methods is called once,
+   * unless the upload has been aborted first.
+   */
+  interface Listener {
+    void onUploadRead(UserStreamUpload upload);
+
+    void onUploadFailed(Exception failure);
+  }
+}
@@ -3,5 +3,5 @@ package cdit.dao;
 import org.springframework.data.jpa.repository.JpaRepository;
 import cdit.model.User;
 
-public interface UserRepository extends JpaRepository<User, String> {
+public interface UserRepository extends JpaRepository<User, String>, UserRepositoryCustom {
 }
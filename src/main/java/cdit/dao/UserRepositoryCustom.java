@@ -0,0 +1,44 @@
+package cdit.dao;
+
+import java.util.List;
+import java.util.function.Consumer;
+import cdit.model.User;
+
+/**
+ * Set-based and batched JDBC operations on the users table that bypass the persistence context.
+ * They join the surrounding transaction and never load entities.
+ *
+ * Uploads are first staged into a separate table so that the live table is only touched by the
+ * short transaction that publishes them.
+ */
+public interface UserRepositoryCustom {
+  public void deleteAllUsers();
+
+  /**
+   * Reads every user straight off a forward-only result set fetched in bounded chunks, without
+   * building entities in the persistence context.
+   */
+  public void scanUsers(Consumer<User> userConsumer);
+
+  public void insertUsers(List<User> users);
+
+  /**
+   * Sets the salary of every user in {@code users} that already exists, found by name.
+   */
+  public void updateUserSalaries(List<User> users);
+
+  public void deleteUsers(List<String> names);
+
+  /**
+   * Creates the staging table if needed and empties it. This is DDL and commits the transaction it
+   * runs in, so it must run in a transaction of its own.
+   */
+  public void resetStagedUsers();
+
+  public void stageUsers(List<User> users);
+
+  /**
+   * Copies every staged user into the users table.
+   */
+  public void publishStagedUsers();
+}
@@ -0,0 +1,102 @@
+package cdit.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.function.Consumer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import cdit.model.User;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+  /** Rows per JDBC batch; H2 gains little above this and larger batches only hold more memory. */
+  static final int INSERT_BATCH_SIZE = 500;
+  private static final int SCAN_FETCH_SIZE = 1000;
+
+  private static final String STAGING_TABLE_NAME = User.TABLE_NAME + "_staging";
+  private static final String COLUMNS = User.COLUMN_NAME + ", " + User.COLUMN_SALARY;
+
+  private static final String SQL_SELECT_ALL_USERS =
+      "SELECT " + COLUMNS + " FROM " + User.TABLE_NAME;
+  private static final String SQL_DELETE_ALL_USERS = "DELETE FROM " + User.TABLE_NAME;
+  private static final String SQL_INSERT_USER =
+      "INSERT INTO " + User.TABLE_NAME + " (" + COLUMNS + ") VALUES (?, ?)";
+  private static final String SQL_UPDATE_USER_SALARY = "UPDATE " + User.TABLE_NAME + " SET "
+      + User.COLUMN_SALARY + " = ? WHERE " + User.COLUMN_NAME + " = ?";
+  private static final String SQL_DELETE_USER =
+      "DELETE FROM " + User.TABLE_NAME + " WHERE " + User.COLUMN_NAME + " = ?";
+  private static final String SQL_CREATE_STAGING_TABLE =
+      "CREATE TABLE IF NOT EXISTS " + STAGING_TABLE_NAME + " (" + User.COLUMN_NAME
+          + " VARCHAR(255) NOT NULL, " + User.COLUMN_SALARY + " DOUBLE NOT NULL)";
+  private static final String SQL_TRUNCATE_STAGING_TABLE = "TRUNCATE TABLE " + STAGING_TABLE_NAME;
+  private static final String SQL_STAGE_USER =
+      "INSERT INTO " + STAGING_TABLE_NAME + " (" + COLUMNS + ") VALUES (?, ?)";
+  private static final String SQL_PUBLISH_STAGED_USERS = "INSERT INTO " + User.TABLE_NAME + " ("
+      + COLUMNS + ") SELECT " + COLUMNS + " FROM " + STAGING_TABLE_NAME;
+
+  private final JdbcTemplate _jdbcTemplate;
+
+  public UserRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+    _jdbcTemplate = jdbcTemplate;
+  }
+
+  /**
+   * A single {@code DELETE} rather than {@code TRUNCATE}, which H2 does not roll back.
+   */
+  @Override
+  public void deleteAllUsers() {
+    _jdbcTemplate.update(SQL_DELETE_ALL_USERS);
+  }
+
+  @Override
+  public void scanUsers(Consumer<User> userConsumer) {
+    _jdbcTemplate.query(connection -> {
+      PreparedStatement statement = connection.prepareStatement(SQL_SELECT_ALL_USERS,
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(SCAN_FETCH_SIZE);
+      return statement;
+    }, (ResultSet resultSet) -> userConsumer
+        .accept(new User(resultSet.getString(1), resultSet.getDouble(2))));
+  }
+
+  @Override
+  public void insertUsers(List<User> users) {
+    batchInsert(SQL_INSERT_USER, users);
+  }
+
+  @Override
+  public void updateUserSalaries(List<User> users) {
+    _jdbcTemplate.batchUpdate(SQL_UPDATE_USER_SALARY, users, INSERT_BATCH_SIZE, (ps, user) -> {
+      ps.setDouble(1, user.getSalary());
+      ps.setString(2, user.getName());
+    });
+  }
+
+  @Override
+  public void deleteUsers(List<String> names) {
+    _jdbcTemplate.batchUpdate(SQL_DELETE_USER, names, INSERT_BATCH_SIZE,
+        (ps, name) -> ps.setString(1, name));
+  }
+
+  @Override
+  public void resetStagedUsers() {
+    _jdbcTemplate.execute(SQL_CREATE_STAGING_TABLE);
+    _jdbcTemplate.execute(SQL_TRUNCATE_STAGING_TABLE);
+  }
+
+  @Override
+  public void stageUsers(List<User> users) {
+    batchInsert(SQL_STAGE_USER, users);
+  }
+
+  @Override
+  public void publishStagedUsers() {
+    _jdbcTemplate.update(SQL_PUBLISH_STAGED_USERS);
+  }
+
+  private void batchInsert(String sql, List<User> users) {
+    _jdbcTemplate.batchUpdate(sql, users, INSERT_BATCH_SIZE, (ps, user) -> {
+      ps.setString(1, user.getName());
+      ps.setDouble(2, user.getSalary());
+    });
+  }
+}
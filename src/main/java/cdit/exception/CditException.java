@@ -1,5 +1,10 @@
 package cdit.exception;
 
+/**
+ * The errors of requests that the client has to fix, answered by {@code RestExceptionHandler}
+ * with a fixed message. They carry no stack trace, since it is never looked at and filling it in
+ * would cost more than the rest of validating a row.
+ */
 public class CditException extends Exception {
   /**
    * 
@@ -7,10 +12,10 @@ public class CditException extends Exception {
   private static final long serialVersionUID = 8318928365485639988L;
   
   public CditException() {
-    super();
+    super(null, null, false, false);
   }
 
   public CditException(String message) {
-    super(message);
+    super(message, null, false, false);
   }
 }
@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class CursorExpiredException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 2728431062395014357L;
+}
@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class DecompressedSizeExceededException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1907654219853176843L;
+}
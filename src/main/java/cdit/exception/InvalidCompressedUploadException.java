@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class InvalidCompressedUploadException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = -4879413250735186612L;
+}
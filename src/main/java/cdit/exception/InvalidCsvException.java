@@ -1,6 +1,6 @@
 package cdit.exception;
 
-public class InvalidCsvException extends CditException {
+public class InvalidCsvException extends InvalidRecordException {
   /**
    * 
    */
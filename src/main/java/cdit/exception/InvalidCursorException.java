@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class InvalidCursorException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = -5093140861553374092L;
+}
@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class InvalidPageLimitException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = -3329051218733829420L;
+}
@@ -0,0 +1,16 @@
+package cdit.exception;
+
+public class InvalidRecordException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 5318027764193460792L;
+
+  public InvalidRecordException() {
+    super();
+  }
+
+  public InvalidRecordException(String message) {
+    super(message);
+  }
+}
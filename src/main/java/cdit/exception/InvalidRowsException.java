@@ -0,0 +1,31 @@
+package cdit.exception;
+
+import java.util.List;
+
+/**
+ * Fails an upload validated to the end with every bad row found, up to a limit. The errors are
+ * in line order, and {@link #getErrorCount()} counts those beyond the limit too.
+ */
+public class InvalidRowsException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 3514720934196012374L;
+
+  private final transient List<RowError> _rowErrors;
+  private final long _errorCount;
+
+  public InvalidRowsException(List<RowError> rowErrors, long errorCount) {
+    super();
+    _rowErrors = rowErrors;
+    _errorCount = errorCount;
+  }
+
+  public List<RowError> getRowErrors() {
+    return _rowErrors;
+  }
+
+  public long getErrorCount() {
+    return _errorCount;
+  }
+}
@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class InvalidUserQueryException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 4418796037281547151L;
+}
@@ -0,0 +1,29 @@
+package cdit.exception;
+
+/**
+ * Where a row of an upload failed and with which error. Lines count from 1 at the start of the
+ * file and columns from 1 at the first field; column 0 means the row as a whole.
+ */
+public final class RowError {
+  private final long _line;
+  private final int _column;
+  private final CditException _cause;
+
+  public RowError(long line, int column, CditException cause) {
+    _line = line;
+    _column = column;
+    _cause = cause;
+  }
+
+  public long getLine() {
+    return _line;
+  }
+
+  public int getColumn() {
+    return _column;
+  }
+
+  public CditException getCause() {
+    return _cause;
+  }
+}
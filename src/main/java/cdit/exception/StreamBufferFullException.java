@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class StreamBufferFullException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = -2871436095246610318L;
+}
@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class StreamedBodySizeExceededException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 7140925386521347063L;
+}
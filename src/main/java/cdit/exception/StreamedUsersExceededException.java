@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class StreamedUsersExceededException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 4630171268115523742L;
+}
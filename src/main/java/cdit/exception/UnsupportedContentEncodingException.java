@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class UnsupportedContentEncodingException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 7351958024617733301L;
+}
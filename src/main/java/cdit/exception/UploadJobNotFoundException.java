@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class UploadJobNotFoundException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 2117624858150304643L;
+}
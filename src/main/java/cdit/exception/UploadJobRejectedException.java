@@ -0,0 +1,8 @@
+package cdit.exception;
+
+public class UploadJobRejectedException extends CditException {
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 306394864539759707L;
+}
@@ -1,21 +1,29 @@
 package cdit.model;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Table;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 @Entity
+@Table(name = User.TABLE_NAME)
 public class User {
+  public static final String TABLE_NAME = "user";
+  public static final String COLUMN_NAME = "_name";
+  public static final String COLUMN_SALARY = "_salary";
   public static final double SALARY_MIN = 0.0;
   public static final double SALARY_MAX = 4000.0;
 
   @Id
   @NotNull
+  @Column(name = COLUMN_NAME)
   private String _name;
 
   @NotNull
+  @Column(name = COLUMN_SALARY)
   @Min((long) SALARY_MIN)
   @Max((long) SALARY_MAX)
   private double _salary;
@@ -0,0 +1,31 @@
+package cdit.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * The compact binary format of name and salary records that {@link BinaryRecordReader} reads.
+ */
+@Service()
+public class BinaryIngestFormat extends FramedIngestFormat {
+  private static final List<String> MEDIA_TYPES =
+      Collections.unmodifiableList(Arrays.asList("application/vnd.cdit.users"));
+
+  public BinaryIngestFormat(UserMetrics userMetrics,
+      @Value("${cdit.users.upload.max-reported-errors:100}") int maxReportedErrors) {
+    super(userMetrics, maxReportedErrors);
+  }
+
+  @Override
+  public List<String> getMediaTypes() {
+    return MEDIA_TYPES;
+  }
+
+  @Override
+  RecordFraming createFraming() {
+    return new BinaryRecordReader.Framing();
+  }
+}
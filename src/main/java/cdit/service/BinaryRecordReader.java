@@ -0,0 +1,216 @@
+package cdit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import cdit.exception.InvalidRecordException;
+
+/**
+ * Reads the compact binary format of users in place, in which every record is the length of the
+ * name as an unsigned 16-bit big-endian integer, the name in that many bytes of UTF-8, and the
+ * salary as a 64-bit big-endian IEEE 754 double. There are no headers and no separators; a record
+ * cut short by the end of the input is malformed.
+ *
+ * Since the layout is fixed, the reader presents the header {@code name,salary} before the first
+ * record of a non-empty input, without consuming anything. Records count as lines, from 1.
+ */
+final class BinaryRecordReader implements CditRecordReader, CditRecord {
+  private static final String[] HEADERS = {"name", "salary"};
+  private static final int NAME_LENGTH_SIZE = 2;
+  private static final int SALARY_SIZE = 8;
+  private static final int NAME_INDEX = 0;
+  private static final int SALARY_INDEX = 1;
+
+  private final byte[] _bytes;
+  private final int _limit;
+  private int _position;
+
+  private boolean _isHeaderPresented;
+  private boolean _hasHeaders;
+  private boolean _hasPendingRecord;
+  private int _nameStart;
+  private int _nameEnd;
+  private double _salary;
+  private long _lineNumber = 1;
+  private long _nextLineNumber = 1;
+
+  /**
+   * The format has no byte order mark, so {@code isAtStartOfInput} only serves
+   * {@link RecordFraming}.
+   */
+  BinaryRecordReader(byte[] bytes, int from, int to, boolean isAtStartOfInput) {
+    _bytes = bytes;
+    _position = from;
+    _limit = to;
+  }
+
+  /**
+   * Only marks the header as read, since the layout cannot change.
+   */
+  @Override
+  public void setHeaders(String[] headers) {
+    _hasHeaders = true;
+    _isHeaderPresented = false;
+  }
+
+  @Override
+  public void setFirstLineNumber(long firstLineNumber) {
+    _lineNumber = firstLineNumber;
+    _nextLineNumber = firstLineNumber;
+  }
+
+  @Override
+  public long getLineNumber() {
+    return _lineNumber;
+  }
+
+  @Override
+  public long getNextLineNumber() {
+    return _nextLineNumber;
+  }
+
+  @Override
+  public long getOffset() {
+    return _position;
+  }
+
+  @Override
+  public int getErrorColumn() {
+    return 0;
+  }
+
+  /**
+   * Skips the rest of the input, since a record is only ever malformed by being cut short.
+   */
+  @Override
+  public void skipRecord() {
+    _hasPendingRecord = false;
+    _position = _limit;
+    _nextLineNumber = _lineNumber + 1;
+  }
+
+  @Override
+  public boolean hasNext() throws InvalidRecordException {
+    if (_hasPendingRecord) {
+      return true;
+    }
+    if (_position >= _limit) {
+      return false;
+    }
+    if (!_hasHeaders) {
+      _isHeaderPresented = true;
+      _hasPendingRecord = true;
+      return true;
+    }
+    _lineNumber = _nextLineNumber;
+    int recordEnd = findRecordEnd(_bytes, _position, _limit);
+    if (recordEnd < 0) {
+      throw new InvalidRecordException();
+    }
+    _nameStart = _position + NAME_LENGTH_SIZE;
+    _nameEnd = recordEnd - SALARY_SIZE;
+    _salary = Double.longBitsToDouble(readLong(_nameEnd));
+    _hasPendingRecord = true;
+    return true;
+  }
+
+  /**
+   * Returns the next record. The header presented is not consumed, so the first record follows it
+   * once the header has been set.
+   */
+  @Override
+  public CditRecord next() throws InvalidRecordException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    _hasPendingRecord = false;
+    if (!_isHeaderPresented) {
+      _position = _nameEnd + SALARY_SIZE;
+      _nextLineNumber = _lineNumber + 1;
+    }
+    return this;
+  }
+
+  @Override
+  public int getFieldCount() {
+    return HEADERS.length;
+  }
+
+  @Override
+  public String getField(int index) {
+    checkFieldIndex(index);
+    if (_isHeaderPresented) {
+      return HEADERS[index];
+    } else if (index == NAME_INDEX) {
+      return new String(_bytes, _nameStart, _nameEnd - _nameStart, StandardCharsets.UTF_8);
+    }
+    return Double.toString(_salary);
+  }
+
+  @Override
+  public String getTrimmedField(int index) {
+    return getField(index).trim();
+  }
+
+  @Override
+  public double parseTrimmedFieldAsDouble(int index) throws NumberFormatException {
+    checkFieldIndex(index);
+    if (!_isHeaderPresented && index == SALARY_INDEX) {
+      return _salary;
+    }
+    return Double.parseDouble(getTrimmedField(index));
+  }
+
+  @Override
+  public String[] toStringArray() {
+    return new String[] {getField(NAME_INDEX), getField(SALARY_INDEX)};
+  }
+
+  /**
+   * Returns the end of the record starting at {@code start}, or -1 if it does not end by
+   * {@code limit}.
+   */
+  static int findRecordEnd(byte[] bytes, int start, int limit) {
+    if (limit - start < NAME_LENGTH_SIZE) {
+      return -1;
+    }
+    int nameLength = (bytes[start] & 0xFF) << 8 | (bytes[start + 1] & 0xFF);
+    long recordEnd = (long) start + NAME_LENGTH_SIZE + nameLength + SALARY_SIZE;
+    return recordEnd <= limit ? (int) recordEnd : -1;
+  }
+
+  private long readLong(int start) {
+    long value = 0;
+    for (int i = start; i < start + SALARY_SIZE; i++) {
+      value = value << 8 | (_bytes[i] & 0xFF);
+    }
+    return value;
+  }
+
+  private void checkFieldIndex(int index) {
+    if (index < 0 || index >= HEADERS.length) {
+      throw new IndexOutOfBoundsException("Field " + index + " of " + HEADERS.length);
+    }
+  }
+
+  /**
+   * Finds records by their lengths, walking them from the start of the bytes since every piece
+   * leaves at most one record incomplete.
+   */
+  static final class Framing implements RecordFraming {
+    @Override
+    public int findRecordsEnd(byte[] bytes, int scanned, int length) {
+      int recordsEnd = 0;
+      int recordEnd;
+      while ((recordEnd = findRecordEnd(bytes, recordsEnd, length)) > 0) {
+        recordsEnd = recordEnd;
+      }
+      return recordsEnd;
+    }
+
+    @Override
+    public CditRecordReader createReader(byte[] bytes, int from, int to,
+        boolean isAtStartOfInput) {
+      return new BinaryRecordReader(bytes, from, to, isAtStartOfInput);
+    }
+  }
+}
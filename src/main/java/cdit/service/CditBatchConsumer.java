@@ -0,0 +1,13 @@
+package cdit.service;
+
+import java.util.List;
+import cdit.exception.CditException;
+
+/**
+ * Receives validated objects in file order, one batch at a time. The batch list is reused by the
+ * caller once {@link #accept(List)} returns, so implementations must copy anything they keep.
+ */
+@FunctionalInterface
+public interface CditBatchConsumer<T> {
+  public void accept(List<T> batch) throws CditException;
+}
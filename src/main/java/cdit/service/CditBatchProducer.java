@@ -0,0 +1,9 @@
+package cdit.service;
+
+import java.io.IOException;
+import cdit.exception.CditException;
+
+@FunctionalInterface
+public interface CditBatchProducer<T> {
+  public void produce(CditBatchConsumer<T> batchConsumer) throws CditException, IOException;
+}
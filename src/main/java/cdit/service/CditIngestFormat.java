@@ -0,0 +1,41 @@
+package cdit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import cdit.exception.CditException;
+
+/**
+ * A format that records can be uploaded in, chosen by the media type of the upload through
+ * {@link IngestService}. Formats only read records; the header, validation and batches are those
+ * of the {@link CditRecordMapper} given, so the same rules hold whatever the format.
+ */
+public interface CditIngestFormat {
+  /**
+   * The media types the format is chosen for, in lowercase and without parameters.
+   */
+  public List<String> getMediaTypes();
+
+  /**
+   * Parses like {@link CsvParserService#parseInputStream(InputStream, CditRecordMapper, int,
+   * CditBatchConsumer, boolean)} does.
+   */
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException;
+
+  /**
+   * Parses the bytes on several threads where the format allows it, with the same result as
+   * parsing them in order, which is all formats that do not allow it do.
+   */
+  public default <T> void parseBytesInParallel(byte[] bytes,
+      CditRecordMapper<T> cditRecordMapper, int batchSize, CditBatchConsumer<T> batchConsumer,
+      boolean isEveryErrorReported) throws CditException, IOException {
+    parseInputStream(new ByteArrayInputStream(bytes), cditRecordMapper, batchSize, batchConsumer,
+        isEveryErrorReported);
+  }
+
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported);
+}
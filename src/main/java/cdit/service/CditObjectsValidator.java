@@ -0,0 +1,11 @@
+package cdit.service;
+
+import cdit.exception.CditException;
+
+/**
+ * Stateful validator for the rules spanning several objects (e.g. duplicates). A new instance is
+ * created for every parse and fed each object once, in file order.
+ */
+public interface CditObjectsValidator<T> {
+  public void validateNextObject(T object) throws CditException;
+}
@@ -0,0 +1,17 @@
+package cdit.service;
+
+import cdit.exception.CditException;
+
+/**
+ * Parses an upload handed over piece by piece, for callers that receive the bytes instead of
+ * reading them. Complete records are parsed and passed on as soon as they arrive, so that only the
+ * record still being received is held.
+ */
+public interface CditPushParser<T> {
+  public void feed(byte[] bytes, int offset, int length) throws CditException;
+
+  /**
+   * Parses whatever was fed after the last complete record and passes on the last batch.
+   */
+  public void finish() throws CditException;
+}
@@ -0,0 +1,21 @@
+package cdit.service;
+
+/**
+ * A single parsed record. Instances handed out by a {@link CditRecordIterator} are only valid until
+ * the next call to the iterator, and fields are only decoded when they are asked for.
+ */
+public interface CditRecord {
+  public int getFieldCount();
+
+  public String getField(int index);
+
+  public String getTrimmedField(int index);
+
+  /**
+   * Parses the trimmed field like {@link Double#parseDouble(String)} would, without creating a
+   * {@link String} for plain decimals.
+   */
+  public double parseTrimmedFieldAsDouble(int index) throws NumberFormatException;
+
+  public String[] toStringArray();
+}
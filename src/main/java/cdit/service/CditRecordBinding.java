@@ -0,0 +1,20 @@
+package cdit.service;
+
+import cdit.exception.CditException;
+
+/**
+ * The result of resolving a header once with {@link CditRecordMapper#bind(String[])}. It creates an
+ * object from every following record without looking at the header again.
+ */
+@FunctionalInterface
+public interface CditRecordBinding<T> {
+  public T createObject(CditRecord record) throws CditException;
+
+  /**
+   * The column, counted from 1, that {@code rowError} thrown while creating or validating an object
+   * is about, or 0 if it is about the row as a whole.
+   */
+  public default int getColumn(CditException rowError) {
+    return 0;
+  }
+}
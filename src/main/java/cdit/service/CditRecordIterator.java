@@ -0,0 +1,10 @@
+package cdit.service;
+
+import java.io.IOException;
+import cdit.exception.CditException;
+
+public interface CditRecordIterator {
+  public boolean hasNext() throws CditException, IOException;
+
+  public CditRecord next() throws CditException, IOException;
+}
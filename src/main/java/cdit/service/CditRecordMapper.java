@@ -1,12 +1,12 @@
 package cdit.service;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import com.fasterxml.jackson.databind.MappingIterator;
 import cdit.exception.CditException;
 
-public interface CditCsvMapper<T> {
-  public String[] getHeaders(MappingIterator<String[]> it) throws CditException;
+public interface CditRecordMapper<T> {
+  public String[] getHeaders(CditRecordIterator it) throws CditException, IOException;
 
   public Map<String, Integer> getHeaderIndices(String[] headers) throws CditException;
 
@@ -14,7 +14,11 @@ public interface CditCsvMapper<T> {
 
   public T createObjectByRow(String[] row, Map<String, Integer> headerIndices) throws CditException;
 
+  public CditRecordBinding<T> bind(String[] headers) throws CditException;
+
   public void validateObject(T object) throws CditException;
 
   public void validateObjects(List<T> objects) throws CditException;
+
+  public CditObjectsValidator<T> createObjectsValidator();
 }
@@ -0,0 +1,50 @@
+package cdit.service;
+
+import java.io.IOException;
+
+/**
+ * A {@link CditRecordIterator} over the records of one ingest format that keeps track of where it
+ * is, so that errors can name the line of a record and bad records can be skipped. Formats without
+ * lines count their records as lines instead.
+ */
+interface CditRecordReader extends CditRecordIterator {
+  /**
+   * Reads every following record against {@code headers}, the header the mapper read from the
+   * first record, failing those that do not fit it.
+   */
+  public void setHeaders(String[] headers);
+
+  /**
+   * Numbers the lines from {@code firstLineNumber} on, for readers that do not start at the start
+   * of the input.
+   */
+  public void setFirstLineNumber(long firstLineNumber);
+
+  /**
+   * The line the record returned last starts on, or, after {@link #hasNext()} failed, the line of
+   * the record that failed.
+   */
+  public long getLineNumber();
+
+  /**
+   * The line the record after those read or skipped so far starts on.
+   */
+  public long getNextLineNumber();
+
+  /**
+   * How far into the input the records returned so far reach.
+   */
+  public long getOffset();
+
+  /**
+   * The column, counted from 1, of the record {@link #hasNext()} failed on that the failure is
+   * about, or 0 if it is about the record as a whole.
+   */
+  public int getErrorColumn();
+
+  /**
+   * Skips the record that {@link #hasNext()} failed on, so that reading can go on with the record
+   * after it.
+   */
+  public void skipRecord() throws IOException;
+}
@@ -0,0 +1,222 @@
+package cdit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import cdit.model.User;
+import cdit.util.Fingerprints;
+
+/**
+ * Users stored column by column: the salaries in a {@code double[]} and the names as UTF-8 bytes
+ * packed into one {@code byte[]} with the end offset of every name, plus an open-addressing index
+ * from name to row. A user costs 12 bytes in the columns plus the UTF-8 length of its name, and 8
+ * to 16 more in the name index, which keeps two to four slots per user: about 32 bytes for a short
+ * name, against a {@link User}, its {@link String} and the string's bytes at around 70 bytes plus
+ * the length.
+ *
+ * As a {@link List} it is unmodifiable, and {@link #get(int)} builds the {@link User} of a row on
+ * demand.
+ */
+public final class ColumnarUsers extends AbstractList<User> implements RandomAccess {
+  private static final int EMPTY_SLOT = 0;
+
+  private final int _size;
+  private final double[] _salaries;
+  private final byte[] _names;
+  private final int[] _nameEnds;
+  private final int[] _rowSlots;
+  private final int _mask;
+
+  /**
+   * Takes over the columns and the name index as they are, as read back by
+   * {@link UserSnapshotFile}.
+   */
+  ColumnarUsers(double[] salaries, byte[] names, int[] nameEnds, int[] rowSlots) {
+    assert (salaries.length == nameEnds.length && Integer.bitCount(rowSlots.length) == 1);
+    _size = salaries.length;
+    _salaries = salaries;
+    _names = names;
+    _nameEnds = nameEnds;
+    _rowSlots = rowSlots;
+    _mask = rowSlots.length - 1;
+  }
+
+  private ColumnarUsers(double[] salaries, byte[] names, int[] nameEnds) {
+    this(salaries, names, nameEnds, indexNames(names, nameEnds));
+  }
+
+  @Override
+  public User get(int row) {
+    if (row < 0 || row >= _size) {
+      throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + _size);
+    }
+    return new User(getName(row), _salaries[row]);
+  }
+
+  @Override
+  public int size() {
+    return _size;
+  }
+
+  public double getSalary(int row) {
+    return _salaries[row];
+  }
+
+  public String getName(int row) {
+    int start = getNameStart(row);
+    return new String(_names, start, _nameEnds[row] - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The row of the user named exactly {@code name}, or -1.
+   */
+  public int getRow(String name) {
+    byte[] encodedName = encodeName(name);
+    int slot = (int) Fingerprints.of(encodedName, 0, encodedName.length) & _mask;
+    while (_rowSlots[slot] != EMPTY_SLOT) {
+      int row = _rowSlots[slot] - 1;
+      if (compareName(row, encodedName) == 0) {
+        return row;
+      }
+      slot = (slot + 1) & _mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Compares the names of two rows in the order of {@link String#compareTo(String)}.
+   */
+  public int compareNames(int rowA, int rowB) {
+    return compareUtf8InUtf16Order(_names, getNameStart(rowA), _nameEnds[rowA], _names,
+        getNameStart(rowB), _nameEnds[rowB]);
+  }
+
+  /**
+   * Compares the name of {@code row} with a name encoded by {@link #encodeName(String)}, in the
+   * order of {@link String#compareTo(String)}.
+   */
+  public int compareName(int row, byte[] encodedName) {
+    return compareUtf8InUtf16Order(_names, getNameStart(row), _nameEnds[row], encodedName, 0,
+        encodedName.length);
+  }
+
+  public static byte[] encodeName(String name) {
+    return name.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /*
+   * The raw columns, for UserSnapshotFile. They are shared, not copied, and must not be modified.
+   */
+
+  double[] getSalaryColumn() {
+    return _salaries;
+  }
+
+  byte[] getNameColumn() {
+    return _names;
+  }
+
+  int[] getNameEndColumn() {
+    return _nameEnds;
+  }
+
+  int[] getRowSlots() {
+    return _rowSlots;
+  }
+
+  private int getNameStart(int row) {
+    return getNameStart(_nameEnds, row);
+  }
+
+  private static int getNameStart(int[] nameEnds, int row) {
+    return row == 0 ? 0 : nameEnds[row - 1];
+  }
+
+  /**
+   * Lays the rows out by name in a table at most half full, holding {@code row + 1} per slot.
+   */
+  private static int[] indexNames(byte[] names, int[] nameEnds) {
+    int size = nameEnds.length;
+    int capacity = Integer.highestOneBit(Math.max(16, size * 2 - 1)) << 1;
+    int[] rowSlots = new int[capacity];
+    int mask = capacity - 1;
+    for (int row = 0; row < size; row++) {
+      int slot = (int) Fingerprints.of(names, getNameStart(nameEnds, row), nameEnds[row]) & mask;
+      while (rowSlots[slot] != EMPTY_SLOT) {
+        slot = (slot + 1) & mask;
+      }
+      rowSlots[slot] = row + 1;
+    }
+    return rowSlots;
+  }
+
+  /**
+   * UTF-8 bytes compare in code point order, while {@link String} compares UTF-16 units, where
+   * supplementary characters (lead bytes F0 to F4) sort before U+E000 to U+FFFF (lead bytes EE and
+   * EF). Rotating those lead bytes at the first difference gives the order of strings.
+   */
+  private static int compareUtf8InUtf16Order(byte[] a, int aFrom, int aTo, byte[] b, int bFrom,
+      int bTo) {
+    int length = Math.min(aTo - aFrom, bTo - bFrom);
+    for (int i = 0; i < length; i++) {
+      int byteA = a[aFrom + i] & 0xFF;
+      int byteB = b[bFrom + i] & 0xFF;
+      if (byteA != byteB) {
+        return getUtf16Weight(byteA) - getUtf16Weight(byteB);
+      }
+    }
+    return (aTo - aFrom) - (bTo - bFrom);
+  }
+
+  private static int getUtf16Weight(int utf8Byte) {
+    if (utf8Byte >= 0xF0) {
+      return utf8Byte - 2;
+    } else if (utf8Byte >= 0xEE) {
+      return utf8Byte + 5;
+    }
+    return utf8Byte;
+  }
+
+  /**
+   * Appends users to growing columns; {@link #build()} trims them and indexes the names.
+   */
+  public static final class Builder {
+    private int _size;
+    private double[] _salaries = new double[1024];
+    private byte[] _names = new byte[16 * 1024];
+    private int _namesLength;
+    private int[] _nameEnds = new int[1024];
+
+    public Builder add(List<User> users) {
+      for (User user : users) {
+        add(user.getName(), user.getSalary());
+      }
+      return this;
+    }
+
+    public Builder add(String name, double salary) {
+      if (_size == _salaries.length) {
+        _salaries = Arrays.copyOf(_salaries, _size * 2);
+        _nameEnds = Arrays.copyOf(_nameEnds, _size * 2);
+      }
+      byte[] encodedName = encodeName(name);
+      if (_namesLength + encodedName.length > _names.length) {
+        _names =
+            Arrays.copyOf(_names, Math.max(_names.length * 2, _namesLength + encodedName.length));
+      }
+      System.arraycopy(encodedName, 0, _names, _namesLength, encodedName.length);
+      _namesLength += encodedName.length;
+      _salaries[_size] = salary;
+      _nameEnds[_size] = _namesLength;
+      _size++;
+      return this;
+    }
+
+    public ColumnarUsers build() {
+      return new ColumnarUsers(Arrays.copyOf(_salaries, _size),
+          Arrays.copyOf(_names, _namesLength), Arrays.copyOf(_nameEnds, _size));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.stereotype.Service;
+import cdit.exception.CditException;
+
+/**
+ * CSV as {@link CsvParserService} parses it, the format of uploads whose media type names no other.
+ */
+@Service()
+public class CsvIngestFormat implements CditIngestFormat {
+  private static final List<String> MEDIA_TYPES =
+      Collections.unmodifiableList(Arrays.asList("text/csv"));
+
+  private final CsvParserService _csvParserService;
+
+  public CsvIngestFormat(CsvParserService csvParserService) {
+    _csvParserService = csvParserService;
+  }
+
+  @Override
+  public List<String> getMediaTypes() {
+    return MEDIA_TYPES;
+  }
+
+  @Override
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException {
+    _csvParserService.parseInputStream(inputStream, cditRecordMapper, batchSize, batchConsumer,
+        isEveryErrorReported);
+  }
+
+  @Override
+  public <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException {
+    _csvParserService.parseBytesInParallel(bytes, cditRecordMapper, batchSize, batchConsumer,
+        isEveryErrorReported);
+  }
+
+  @Override
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported) {
+    return _csvParserService.createPushParser(cditRecordMapper, batchSize, batchConsumer,
+        isEveryErrorReported);
+  }
+}
@@ -6,6 +6,32 @@ import java.util.List;
 import cdit.exception.CditException;
 
 public interface CsvParserService {
-  public <T> List<T> parseInputStream(InputStream inputStream, CditCsvMapper<T> cditCsvMapper)
+  public <T> List<T> parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper)
       throws CditException, IOException;
+
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer) throws CditException, IOException;
+
+  /**
+   * With {@code isEveryErrorReported}, goes on past bad rows and, once the whole file has been
+   * read, fails with {@link cdit.exception.InvalidRowsException} naming the line, column and
+   * error of each, up to {@code cdit.users.upload.max-reported-errors} of them. Only a missing
+   * header still fails the parse at once.
+   */
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException;
+
+  public <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer) throws CditException, IOException;
+
+  public <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException;
+
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer);
+
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported);
 }
@@ -2,93 +2,280 @@ package cdit.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.MappingIterator;
-import com.fasterxml.jackson.dataformat.csv.CsvFactory;
-import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvParser;
 import cdit.exception.CditException;
 import cdit.exception.InvalidCsvException;
 
 @Service()
 public class CsvParserServiceImpl implements CsvParserService {
-  private Logger _logger = LoggerFactory.getLogger(CsvParserServiceImpl.class);
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int MIN_CHUNK_SIZE_IN_BYTES = 64 * 1024;
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final int INITIAL_CHUNK_ROW_CAPACITY = 1024;
+
+  private final ForkJoinPool _parsePool =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  private final UserMetrics _userMetrics;
+  private final int _maxReportedErrors;
+
+  public CsvParserServiceImpl(UserMetrics userMetrics,
+      @Value("${cdit.users.upload.max-reported-errors:100}") int maxReportedErrors) {
+    if (maxReportedErrors < 1) {
+      throw new IllegalArgumentException("At least one error must be reported.");
+    }
+    _userMetrics = userMetrics;
+    _maxReportedErrors = maxReportedErrors;
+  }
 
   @Override
-  public <T> List<T> parseInputStream(InputStream inputStream, CditCsvMapper<T> cditCsvMapper)
+  public <T> List<T> parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper)
       throws CditException, IOException {
-    CsvMapper mapper = getCsvMapper();
     List<T> data = new ArrayList<T>();
+    parseInputStream(inputStream, cditRecordMapper, DEFAULT_BATCH_SIZE,
+        (List<T> batch) -> data.addAll(batch));
+    return data;
+  }
 
-    MappingIterator<String[]> it = mapper.readerFor(String[].class).readValues(inputStream);
-    Map<String, Integer> headerIndices = null;
+  @Override
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer) throws CditException, IOException {
+    parseInputStream(inputStream, cditRecordMapper, batchSize, batchConsumer, false);
+  }
 
-    String[] headers = cditCsvMapper.getHeaders(it);
-    headerIndices = cditCsvMapper.getHeaderIndices(headers);
-    cditCsvMapper.validateHeaderIndices(headerIndices);
+  @Override
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException {
+    assert (batchSize > 0);
+    ParseRecorder parseRecorder = new ParseRecorder(_userMetrics);
+    parseRecorder.resume();
+    try {
+      CsvTokenizer tokenizer = new CsvTokenizer(inputStream);
+      String[] headers = cditRecordMapper.getHeaders(tokenizer);
+      CditRecordBinding<T> binding = cditRecordMapper.bind(headers);
+      tokenizer.setHeaders(headers);
+      RecordBatcher<T> batcher = new RecordBatcher<T>(cditRecordMapper, binding, true, batchSize,
+          batchConsumer, parseRecorder, createRowErrors(isEveryErrorReported));
+      batcher.parse(tokenizer);
+      batcher.finish();
+    } catch (CditException e) {
+      parseRecorder.pause();
+      parseRecorder.record(e);
+      throw e;
+    }
+    parseRecorder.pause();
+    parseRecorder.record();
+  }
 
-    while (true) {
-      String[] row;
-      try {
-        if (!it.hasNext()) {
-          break;
-        }
-        row = it.next();
-      } catch (Exception e) {
-        _logger.warn(e.getMessage());
-        throw new InvalidCsvException();
-      }
-      validateCsvRowRequirement(headers, row);
+  @Override
+  public <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer) throws CditException, IOException {
+    parseBytesInParallel(bytes, cditRecordMapper, batchSize, batchConsumer, false);
+  }
 
-      T object = cditCsvMapper.createObjectByRow(row, headerIndices);
-      cditCsvMapper.validateObject(object);
-      data.add(object);
-    }
-    cditCsvMapper.validateObjects(data);
+  @Override
+  public <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException {
+    int chunkSize = Math.max(MIN_CHUNK_SIZE_IN_BYTES,
+        bytes.length / (_parsePool.getParallelism() * CHUNKS_PER_THREAD));
+    parseBytesInParallel(bytes, cditRecordMapper, batchSize, batchConsumer, chunkSize,
+        isEveryErrorReported);
+  }
 
-    return data;
+  /**
+   * Splits {@code bytes} into chunks of roughly {@code chunkSize} bytes on record boundaries,
+   * parses and validates the chunks on {@link #_parsePool} and hands the rows to
+   * {@code batchConsumer} in file order. Rules spanning several rows are checked during the
+   * in-order merge, so the error reported is always the one of the first bad row in the file.
+   * Chunks number their lines from 1 and the merge shifts them by the lines of the chunks before.
+   */
+  <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, int chunkSize) throws CditException, IOException {
+    parseBytesInParallel(bytes, cditRecordMapper, batchSize, batchConsumer, chunkSize, false);
   }
 
-  private CsvMapper getCsvMapper() {
-    CsvFactory csvFactory = new CsvFactory();
-    csvFactory.enable(CsvParser.Feature.WRAP_AS_ARRAY);
-    CsvMapper mapper = new CsvMapper(csvFactory);
-    return mapper;
+  <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, int chunkSize, boolean isEveryErrorReported)
+      throws CditException, IOException {
+    assert (batchSize > 0 && chunkSize > 0);
+    ParseRecorder parseRecorder = new ParseRecorder(_userMetrics);
+    parseRecorder.resume();
+    try {
+      parseBytesInParallel(bytes, cditRecordMapper, batchSize, batchConsumer, chunkSize,
+          isEveryErrorReported, parseRecorder);
+    } catch (CditException e) {
+      parseRecorder.pause();
+      parseRecorder.record(e);
+      throw e;
+    }
+    parseRecorder.pause();
+    parseRecorder.record();
   }
 
-  private void validateCsvRowRequirement(String[] headers, String[] row)
-      throws InvalidCsvException {
-    if (!isDoubleQuotesInFieldMeetsCsvRequirementInRow(row) || isColumnLengthEqual(headers, row)) {
-      throw new InvalidCsvException();
+  private <T> void parseBytesInParallel(byte[] bytes, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, int chunkSize,
+      boolean isEveryErrorReported, ParseRecorder parseRecorder)
+      throws CditException, IOException {
+    int headerEnd = CsvTokenizer.findRecordEnd(bytes, 0, 0);
+    CsvTokenizer headerTokenizer = new CsvTokenizer(bytes, 0, headerEnd);
+    String[] headers = cditRecordMapper.getHeaders(headerTokenizer);
+    CditRecordBinding<T> binding = cditRecordMapper.bind(headers);
+    int dataStart = (int) headerTokenizer.getOffset();
+    long version = parseRecorder.getDatasetVersion();
+
+    List<ForkJoinTask<ChunkResult<T>>> tasks = new ArrayList<ForkJoinTask<ChunkResult<T>>>();
+    int chunkStart = dataStart;
+    while (chunkStart < bytes.length) {
+      int from = chunkStart;
+      int to = CsvTokenizer.findRecordEnd(bytes, from, from + chunkSize);
+      tasks.add(_parsePool.submit(() -> parseChunk(bytes, from, to, headers.length, binding,
+          cditRecordMapper, version, isEveryErrorReported)));
+      chunkStart = to;
+    }
+
+    RowErrors rowErrors = createRowErrors(isEveryErrorReported);
+    RecordBatcher<T> batcher = new RecordBatcher<T>(cditRecordMapper, binding, false, batchSize,
+        batchConsumer, parseRecorder, rowErrors);
+    long firstLineNumber = headerTokenizer.getNextLineNumber();
+    try {
+      for (ForkJoinTask<ChunkResult<T>> task : tasks) {
+        ChunkResult<T> result = task.join();
+        parseRecorder.addRowValidation(result.rowValidationNanos);
+        if (rowErrors != null) {
+          rowErrors.addAll(result.rowErrors, firstLineNumber);
+        }
+        batcher.add(result.objects, result.lines, firstLineNumber, result.byteCount);
+        firstLineNumber += result.lineCount;
+        if (result.error != null) {
+          throw batcher.fail(result.error);
+        }
+      }
+    } finally {
+      for (ForkJoinTask<ChunkResult<T>> task : tasks) {
+        task.cancel(false);
+      }
     }
+    batcher.finish();
+  }
+
+  @Override
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer) {
+    return createPushParser(cditRecordMapper, batchSize, batchConsumer, false);
+  }
+
+  @Override
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported) {
+    return new RecordPushParser<T>(new CsvTokenizer.Framing(), cditRecordMapper, batchSize,
+        batchConsumer, new ParseRecorder(_userMetrics), createRowErrors(isEveryErrorReported));
   }
 
-  private boolean isColumnLengthEqual(String[] headers, String[] row) {
-    return row.length != headers.length;
+  @PreDestroy
+  public void shutdownParsePool() {
+    _parsePool.shutdownNow();
   }
 
-  private boolean isDoubleQuotesInFieldMeetsCsvRequirementInRow(String[] row) {
-    for (String field : row) {
-      if (!isDoubleQuotesInFieldMeetsCsvRequirement(field)) {
-        return false;
+  /**
+   * Parses the chunk, then checks its rows on their own, like {@link RecordBatcher} does, on the
+   * thread of the pool that runs it. The duplicate check is left to the merging thread, which
+   * commits validate events of its own for it.
+   */
+  private <T> ChunkResult<T> parseChunk(byte[] bytes, int from, int to, int fieldCount,
+      CditRecordBinding<T> binding, CditRecordMapper<T> cditRecordMapper, long version,
+      boolean isEveryErrorReported) {
+    ChunkResult<T> result = new ChunkResult<T>(createRowErrors(isEveryErrorReported));
+    UserParseEvent parseEvent = new UserParseEvent();
+    parseEvent.begin();
+    CsvTokenizer tokenizer = new CsvTokenizer(bytes, from, to);
+    tokenizer.setExpectedFieldCount(fieldCount);
+    CditException parseError = null;
+    try {
+      while (true) {
+        try {
+          if (!tokenizer.hasNext()) {
+            break;
+          }
+        } catch (InvalidCsvException e) {
+          if (result.rowErrors == null) {
+            parseError = e;
+            break;
+          }
+          result.rowErrors.add(tokenizer.getLineNumber(), tokenizer.getFieldCount() + 1, e);
+          tokenizer.skipRecord();
+          continue;
+        }
+        try {
+          result.add(binding.createObject(tokenizer.next()), tokenizer.getLineNumber());
+        } catch (CditException e) {
+          if (result.rowErrors == null) {
+            parseError = e;
+            break;
+          }
+          result.rowErrors.add(tokenizer.getLineNumber(), binding.getColumn(e), e);
+        }
       }
+    } catch (IOException e) {
+      // the tokenizer never reads from a stream when parsing a byte range
+      throw new UncheckedIOException(e);
     }
-    return true;
-  }
+    result.byteCount = tokenizer.getOffset() - from;
+    result.lineCount = tokenizer.getNextLineNumber() - 1;
+    parseEvent.commit(result.objects.size(), result.byteCount, version);
 
-  private boolean isDoubleQuotesInFieldMeetsCsvRequirement(String field) {
-    if (isFieldQuoted(field)) {
-      return true;
+    UserValidateEvent validateEvent = new UserValidateEvent();
+    validateEvent.begin();
+    int rowCount = result.objects.size();
+    long start = System.nanoTime();
+    CditException rowError = null;
+    if (result.rowErrors != null) {
+      RecordBatcher.retainValidRows(result.objects, result.lines, cditRecordMapper::validateObject,
+          binding, result.rowErrors);
+    } else {
+      rowError = RecordBatcher.validateRows(cditRecordMapper, result.objects);
     }
-    return !field.contains("\"");
+    result.rowValidationNanos = System.nanoTime() - start;
+    validateEvent.commit(rowCount, result.byteCount, version);
+    result.error = rowError != null ? rowError : parseError;
+    return result;
+  }
+
+  private RowErrors createRowErrors(boolean isEveryErrorReported) {
+    return isEveryErrorReported ? new RowErrors(_maxReportedErrors, _userMetrics) : null;
   }
 
-  private boolean isFieldQuoted(String field) {
-    return field.startsWith("\"") && field.endsWith("\"");
+  private static class ChunkResult<T> {
+    private final List<T> objects = new ArrayList<T>();
+    private final RowErrors rowErrors;
+    /** The line of each object, numbered from the start of the chunk, kept along with errors. */
+    private long[] lines;
+    private long byteCount;
+    private long lineCount;
+    private long rowValidationNanos;
+    private CditException error;
+
+    private ChunkResult(RowErrors rowErrors) {
+      this.rowErrors = rowErrors;
+      lines = rowErrors == null ? null : new long[INITIAL_CHUNK_ROW_CAPACITY];
+    }
+
+    private void add(T object, long line) {
+      if (lines != null) {
+        if (objects.size() == lines.length) {
+          lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        lines[objects.size()] = line;
+      }
+      objects.add(object);
+    }
   }
 }
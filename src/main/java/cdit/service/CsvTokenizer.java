@@ -0,0 +1,536 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import cdit.exception.InvalidCsvException;
+
+/**
+ * Splits raw UTF-8 bytes into records while enforcing the CSV dialect of the README in the same
+ * pass: double quotes may only wrap a whole field, quoted fields may contain commas and line
+ * breaks, and every record must have the expected number of fields.
+ *
+ * The tokenizer only records where each field starts and ends; a field is decoded into a
+ * {@link String} when {@link #getField(int)} asks for it, so columns nobody reads cost nothing
+ * but the scan. The tokenizer is its own {@link CditRecord}, which is why a record is only valid
+ * until the next call to {@link #hasNext()} or {@link #next()}.
+ *
+ * Lines are counted as records go by, a line break inside a quoted field counting as one, so that
+ * errors can name the line a record starts on.
+ */
+final class CsvTokenizer implements CditRecordReader, CditRecord {
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  private static final int INITIAL_FIELD_CAPACITY = 8;
+  private static final int NO_EXPECTED_FIELD_COUNT = -1;
+
+  private static final byte QUOTE = '"';
+  private static final byte COMMA = ',';
+  private static final byte LINE_FEED = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+  static final byte[] BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+  private static final long MAX_EXACT_DIGITS = 1L << 53;
+  private static final double[] EXACT_POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+      1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private static final int RESULT_RECORD = 0;
+  private static final int RESULT_NEED_MORE_INPUT = 1;
+  private static final int RESULT_END_OF_INPUT = 2;
+
+  private final InputStream _inputStream;
+  private byte[] _buffer;
+  /** The bytes of the input that were dropped from the front of {@link #_buffer}. */
+  private long _discardedByteCount;
+  private int _position;
+  private int _limit;
+  private boolean _isEndOfInput;
+  private boolean _isAtStartOfInput;
+
+  private int[] _fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+  private int[] _fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+  private int _fieldCount;
+  private int _expectedFieldCount = NO_EXPECTED_FIELD_COUNT;
+  private boolean _hasPendingRecord;
+  /** The line the record tokenized last starts on. */
+  private long _lineNumber = 1;
+  /** The line the record after it starts on. */
+  private long _nextLineNumber = 1;
+
+  CsvTokenizer(InputStream inputStream) {
+    _inputStream = inputStream;
+    _buffer = new byte[DEFAULT_BUFFER_SIZE];
+    _position = 0;
+    _limit = 0;
+    _isEndOfInput = false;
+    _isAtStartOfInput = true;
+  }
+
+  /**
+   * Tokenizes {@code bytes[from, to)} in place, without copying. {@code from} must be the start
+   * of a record.
+   */
+  CsvTokenizer(byte[] bytes, int from, int to) {
+    this(bytes, from, to, from == 0);
+  }
+
+  /**
+   * Tokenizes {@code bytes[from, to)} in place, skipping a byte order mark only if
+   * {@code isAtStartOfInput}, for buffers whose first byte is not the first of the file.
+   */
+  CsvTokenizer(byte[] bytes, int from, int to, boolean isAtStartOfInput) {
+    _inputStream = null;
+    _buffer = bytes;
+    _position = from;
+    _limit = to;
+    _isEndOfInput = true;
+    _isAtStartOfInput = isAtStartOfInput;
+  }
+
+  /**
+   * Makes every following record fail with {@link InvalidCsvException} unless it has exactly
+   * {@code expectedFieldCount} fields.
+   */
+  void setExpectedFieldCount(int expectedFieldCount) {
+    _expectedFieldCount = expectedFieldCount;
+  }
+
+  /**
+   * Expects as many fields in every following record as {@code headers} has.
+   */
+  @Override
+  public void setHeaders(String[] headers) {
+    setExpectedFieldCount(headers.length);
+  }
+
+  @Override
+  public void setFirstLineNumber(long firstLineNumber) {
+    _lineNumber = firstLineNumber;
+    _nextLineNumber = firstLineNumber;
+  }
+
+  @Override
+  public long getLineNumber() {
+    return _lineNumber;
+  }
+
+  @Override
+  public long getNextLineNumber() {
+    return _nextLineNumber;
+  }
+
+  /**
+   * The column after the fields tokenized before the failure, which are those before the bad one.
+   */
+  @Override
+  public int getErrorColumn() {
+    return _fieldCount + 1;
+  }
+
+  /**
+   * Skips the record that {@link #hasNext()} failed on, up to the first line break outside quotes,
+   * so that tokenizing can go on with the record after it. As in the dialect, only a quote that
+   * starts a field opens a quoted field; a quoted field that is never closed skips the rest of the
+   * input.
+   */
+  @Override
+  public void skipRecord() throws IOException {
+    _hasPendingRecord = false;
+    long lineBreakCount = 0;
+    boolean isInQuotes = false;
+    boolean isAtFieldStart = true;
+    int scanned = 0;
+    while (true) {
+      int i = _position + scanned;
+      if (i >= _limit) {
+        if (_isEndOfInput) {
+          _position = _limit;
+          break;
+        }
+        fill();
+        continue;
+      }
+      byte b = _buffer[i];
+      if (isInQuotes) {
+        isInQuotes = b != QUOTE;
+        if (b == LINE_FEED) {
+          lineBreakCount++;
+        }
+      } else if (b == QUOTE && isAtFieldStart) {
+        isInQuotes = true;
+      } else if (b == LINE_FEED || b == CARRIAGE_RETURN) {
+        if (b == CARRIAGE_RETURN && i + 1 >= _limit && !_isEndOfInput) {
+          fill();
+          continue;
+        }
+        if (b == CARRIAGE_RETURN && i + 1 < _limit && _buffer[i + 1] == LINE_FEED) {
+          i++;
+        }
+        _position = i + 1;
+        break;
+      }
+      isAtFieldStart = !isInQuotes && b == COMMA;
+      scanned++;
+    }
+    _nextLineNumber = _lineNumber + lineBreakCount + 1;
+  }
+
+  /**
+   * Returns the offset just past the first line feed that ends a record at or after
+   * {@code minEnd}, scanning from the known record start {@code recordStart}. Quotes may only
+   * delimit fields, so a line feed ends a record exactly when an even number of quotes precede it.
+   */
+  static int findRecordEnd(byte[] bytes, int recordStart, int minEnd) {
+    boolean isInQuotes = false;
+    for (int i = recordStart; i < bytes.length; i++) {
+      byte b = bytes[i];
+      if (b == QUOTE) {
+        isInQuotes = !isInQuotes;
+      } else if (b == LINE_FEED && !isInQuotes && i + 1 >= minEnd) {
+        return i + 1;
+      }
+    }
+    return bytes.length;
+  }
+
+  /**
+   * Returns how far into the input the records returned so far reach, counted from the start of
+   * the stream, or from the start of the array for tokenizers that work in place.
+   */
+  @Override
+  public long getOffset() {
+    return _discardedByteCount + _position;
+  }
+
+  @Override
+  public boolean hasNext() throws InvalidCsvException, IOException {
+    if (_hasPendingRecord) {
+      return true;
+    }
+    skipByteOrderMark();
+    while (true) {
+      int result = tokenizeRecord();
+      if (result == RESULT_RECORD) {
+        _hasPendingRecord = true;
+        return true;
+      }
+      if (result == RESULT_END_OF_INPUT) {
+        return false;
+      }
+      fill();
+    }
+  }
+
+  @Override
+  public CditRecord next() throws InvalidCsvException, IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    _hasPendingRecord = false;
+    return this;
+  }
+
+  @Override
+  public int getFieldCount() {
+    return _fieldCount;
+  }
+
+  @Override
+  public String getField(int index) {
+    checkFieldIndex(index);
+    return decode(_fieldStarts[index], _fieldEnds[index]);
+  }
+
+  @Override
+  public String getTrimmedField(int index) {
+    checkFieldIndex(index);
+    int start = trimStart(_fieldStarts[index], _fieldEnds[index]);
+    int end = trimEnd(start, _fieldEnds[index]);
+    return decode(start, end);
+  }
+
+  @Override
+  public double parseTrimmedFieldAsDouble(int index) throws NumberFormatException {
+    checkFieldIndex(index);
+    int start = trimStart(_fieldStarts[index], _fieldEnds[index]);
+    int end = trimEnd(start, _fieldEnds[index]);
+    double value = parsePlainDecimal(_buffer, start, end);
+    if (!Double.isNaN(value)) {
+      return value;
+    }
+    return Double.parseDouble(decode(start, end));
+  }
+
+  @Override
+  public String[] toStringArray() {
+    String[] fields = new String[_fieldCount];
+    for (int i = 0; i < _fieldCount; i++) {
+      fields[i] = getField(i);
+    }
+    return fields;
+  }
+
+  /**
+   * Parses {@code [+-]digits[.digits]} whose digits fit in 53 bits and which has at most 22
+   * fraction digits. Both the digits and the power of ten are then exact doubles, so one division
+   * gives the correctly rounded result {@link Double#parseDouble(String)} would. Returns
+   * {@link Double#NaN} for anything else, which the caller hands to the JDK instead.
+   */
+  static double parsePlainDecimal(byte[] bytes, int start, int end) {
+    int i = start;
+    boolean isNegative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      isNegative = bytes[i] == '-';
+      i++;
+    }
+    long digits = 0;
+    int digitCount = 0;
+    int fractionDigitCount = 0;
+    boolean hasDecimalPoint = false;
+    for (; i < end; i++) {
+      byte b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        if (digits >= MAX_EXACT_DIGITS / 10) {
+          return Double.NaN;
+        }
+        digits = digits * 10 + (b - '0');
+        digitCount++;
+        if (hasDecimalPoint) {
+          fractionDigitCount++;
+        }
+      } else if (b == '.' && !hasDecimalPoint) {
+        hasDecimalPoint = true;
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (digitCount == 0 || fractionDigitCount >= EXACT_POWERS_OF_TEN.length) {
+      return Double.NaN;
+    }
+    double value = digits / EXACT_POWERS_OF_TEN[fractionDigitCount];
+    return isNegative ? -value : value;
+  }
+
+  /**
+   * Tokenizes the record starting at {@link #_position}. When the buffer ends before the record
+   * does, nothing is consumed and the record is tokenized again from its start after
+   * {@link #fill()}. A record that fails is not consumed either, so {@link #skipRecord()} can
+   * skip it.
+   */
+  private int tokenizeRecord() throws InvalidCsvException {
+    int i = _position;
+    if (i >= _limit) {
+      return _isEndOfInput ? RESULT_END_OF_INPUT : RESULT_NEED_MORE_INPUT;
+    }
+    _lineNumber = _nextLineNumber;
+    _fieldCount = 0;
+    int recordEnd;
+    long lineBreakCount = 0;
+    while (true) {
+      int start;
+      int end;
+      if (_buffer[i] == QUOTE) {
+        int closingQuote = indexOfQuote(i + 1);
+        if (closingQuote < 0) {
+          if (_isEndOfInput) {
+            throw new InvalidCsvException();
+          }
+          return RESULT_NEED_MORE_INPUT;
+        }
+        start = i + 1;
+        end = closingQuote;
+        lineBreakCount += countLineFeeds(start, end);
+        i = closingQuote + 1;
+        if (i < _limit && !isFieldTerminator(_buffer[i])) {
+          throw new InvalidCsvException();
+        }
+      } else {
+        start = i;
+        while (i < _limit && !isFieldTerminator(_buffer[i])) {
+          if (_buffer[i] == QUOTE) {
+            throw new InvalidCsvException();
+          }
+          i++;
+        }
+        end = i;
+      }
+      if (i >= _limit && !_isEndOfInput) {
+        return RESULT_NEED_MORE_INPUT;
+      }
+      addField(start, end);
+
+      if (i >= _limit) {
+        recordEnd = i;
+        break;
+      }
+      byte terminator = _buffer[i];
+      if (terminator == COMMA) {
+        i++;
+        if (i >= _limit) {
+          if (!_isEndOfInput) {
+            return RESULT_NEED_MORE_INPUT;
+          }
+          addField(i, i);
+          recordEnd = i;
+          break;
+        }
+        continue;
+      }
+      if (terminator == CARRIAGE_RETURN) {
+        if (i + 1 >= _limit && !_isEndOfInput) {
+          return RESULT_NEED_MORE_INPUT;
+        }
+        if (i + 1 < _limit && _buffer[i + 1] == LINE_FEED) {
+          i++;
+        }
+      }
+      recordEnd = i + 1;
+      break;
+    }
+    if (_expectedFieldCount != NO_EXPECTED_FIELD_COUNT && _fieldCount != _expectedFieldCount) {
+      throw new InvalidCsvException();
+    }
+    _position = recordEnd;
+    _nextLineNumber = _lineNumber + lineBreakCount + 1;
+    return RESULT_RECORD;
+  }
+
+  private void addField(int start, int end) throws InvalidCsvException {
+    if (_fieldCount == _expectedFieldCount) {
+      throw new InvalidCsvException();
+    }
+    if (_fieldCount == _fieldStarts.length) {
+      _fieldStarts = Arrays.copyOf(_fieldStarts, _fieldCount * 2);
+      _fieldEnds = Arrays.copyOf(_fieldEnds, _fieldCount * 2);
+    }
+    _fieldStarts[_fieldCount] = start;
+    _fieldEnds[_fieldCount] = end;
+    _fieldCount++;
+  }
+
+  private void checkFieldIndex(int index) {
+    if (index < 0 || index >= _fieldCount) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+  }
+
+  private String decode(int start, int end) {
+    return new String(_buffer, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Skips the same characters as {@link String#trim()}. They are all ASCII, and UTF-8 never uses
+   * ASCII byte values inside a multi-byte character.
+   */
+  private int trimStart(int start, int end) {
+    while (start < end && (_buffer[start] & 0xFF) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  private int trimEnd(int start, int end) {
+    while (end > start && (_buffer[end - 1] & 0xFF) <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  private int countLineFeeds(int start, int end) {
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (_buffer[i] == LINE_FEED) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int indexOfQuote(int from) {
+    for (int i = from; i < _limit; i++) {
+      if (_buffer[i] == QUOTE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isFieldTerminator(byte b) {
+    return b == COMMA || b == LINE_FEED || b == CARRIAGE_RETURN;
+  }
+
+  private void skipByteOrderMark() throws IOException {
+    if (!_isAtStartOfInput) {
+      return;
+    }
+    _isAtStartOfInput = false;
+    while (_limit - _position < BYTE_ORDER_MARK.length && !_isEndOfInput) {
+      fill();
+    }
+    if (_limit - _position < BYTE_ORDER_MARK.length) {
+      return;
+    }
+    for (int i = 0; i < BYTE_ORDER_MARK.length; i++) {
+      if (_buffer[_position + i] != BYTE_ORDER_MARK[i]) {
+        return;
+      }
+    }
+    _position += BYTE_ORDER_MARK.length;
+  }
+
+  /**
+   * Moves the unconsumed bytes to the front of the buffer, growing it when a single record fills
+   * all of it, and reads as much input as fits behind them.
+   */
+  private void fill() throws IOException {
+    if (_inputStream == null) {
+      _isEndOfInput = true;
+      return;
+    }
+    if (_position > 0) {
+      _discardedByteCount += _position;
+      System.arraycopy(_buffer, _position, _buffer, 0, _limit - _position);
+      _limit -= _position;
+      _position = 0;
+    }
+    if (_limit == _buffer.length) {
+      _buffer = Arrays.copyOf(_buffer, _buffer.length * 2);
+    }
+    int read = _inputStream.read(_buffer, _limit, _buffer.length - _limit);
+    if (read < 0) {
+      _isEndOfInput = true;
+    } else {
+      _limit += read;
+    }
+  }
+
+  /**
+   * Finds records the way {@link #findRecordEnd(byte[], int, int)} does, carrying the quote state
+   * over from one piece to the next so that every byte is scanned once. Records ending with a lone
+   * carriage return are therefore only found at the end of the input.
+   */
+  static final class Framing implements RecordFraming {
+    private boolean _isInQuotes;
+
+    @Override
+    public int findRecordsEnd(byte[] bytes, int scanned, int length) {
+      int recordsEnd = 0;
+      for (int i = scanned; i < length; i++) {
+        byte b = bytes[i];
+        if (b == QUOTE) {
+          _isInQuotes = !_isInQuotes;
+        } else if (b == LINE_FEED && !_isInQuotes) {
+          recordsEnd = i + 1;
+        }
+      }
+      return recordsEnd;
+    }
+
+    @Override
+    public CditRecordReader createReader(byte[] bytes, int from, int to,
+        boolean isAtStartOfInput) {
+      return new CsvTokenizer(bytes, from, to, isAtStartOfInput);
+    }
+  }
+}
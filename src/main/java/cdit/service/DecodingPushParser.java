@@ -0,0 +1,300 @@
+package cdit.service;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import cdit.exception.CditException;
+import cdit.exception.DecompressedSizeExceededException;
+import cdit.exception.InvalidCompressedUploadException;
+
+/**
+ * Decompresses the bytes fed with an {@link Inflater} and feeds what comes out to another push
+ * parser, a buffer at a time, so that the decompressed file is never held as a whole. The gzip
+ * header and trailer are read here, as the inflater only knows zlib and raw deflate; files of
+ * several gzip members are read as one, as {@link java.util.zip.GZIPInputStream} reads them.
+ *
+ * Until the first two bytes have been fed the encoding may still be open: without one the bytes
+ * are sniffed for a gzip or zlib header and passed on as they are if they have neither, and with
+ * deflate they are sniffed for a zlib header and taken as raw deflate without one.
+ */
+final class DecodingPushParser<T> implements CditPushParser<T> {
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+  private static final int GZIP_FIXED_HEADER_SIZE = 10;
+  private static final int GZIP_TRAILER_SIZE = 8;
+  private static final int GZIP_FLAG_HEADER_CRC = 2;
+  private static final int GZIP_FLAG_EXTRA = 4;
+  private static final int GZIP_FLAG_NAME = 8;
+  private static final int GZIP_FLAG_COMMENT = 16;
+  private static final int COMPRESSION_METHOD_DEFLATE = 8;
+
+  private enum Stage {
+    SNIFFING, GZIP_HEADER, GZIP_EXTRA_LENGTH, GZIP_EXTRA, GZIP_NAME, GZIP_COMMENT,
+    GZIP_HEADER_CRC, INFLATING, GZIP_TRAILER, IDENTITY
+  }
+
+  private final CditPushParser<T> _parser;
+  private final long _maxDecompressedBytes;
+  private final UploadEncoding _encoding;
+  private final byte[] _output = new byte[OUTPUT_BUFFER_SIZE];
+  /** The header or trailer bytes of the stage, kept until it has all of them. */
+  private final byte[] _stageBytes = new byte[GZIP_FIXED_HEADER_SIZE];
+  private final CRC32 _crc = new CRC32();
+  private Stage _stage;
+  private int _stageLength;
+  private int _stageRemaining;
+  private int _gzipFlags;
+  private boolean _isGzip;
+  private Inflater _inflater;
+  private boolean _isMemberComplete;
+  private long _decompressedBytes;
+
+  /**
+   * With {@code encoding} {@code null} the bytes are sniffed, and passed on as they are unless they
+   * start with a gzip or zlib header.
+   */
+  DecodingPushParser(UploadEncoding encoding, CditPushParser<T> parser,
+      long maxDecompressedBytes) {
+    _encoding = encoding;
+    _parser = parser;
+    _maxDecompressedBytes = maxDecompressedBytes;
+    if (encoding == UploadEncoding.GZIP) {
+      startGzipMember();
+    } else if (encoding == UploadEncoding.IDENTITY) {
+      _stage = Stage.IDENTITY;
+    } else {
+      _stage = Stage.SNIFFING;
+    }
+  }
+
+  @Override
+  public void feed(byte[] bytes, int offset, int length) throws CditException {
+    try {
+      int end = offset + length;
+      while (offset < end) {
+        offset = consume(bytes, offset, end);
+      }
+    } catch (CditException | RuntimeException e) {
+      endInflater();
+      throw e;
+    }
+  }
+
+  @Override
+  public void finish() throws CditException {
+    try {
+      if (_stage == Stage.SNIFFING) {
+        // fewer bytes than any header, so they can only be the file itself
+        if (_encoding != null) {
+          throw new InvalidCompressedUploadException();
+        }
+        _parser.feed(_stageBytes, 0, _stageLength);
+      } else if (_stage != Stage.IDENTITY && !_isMemberComplete) {
+        throw new InvalidCompressedUploadException();
+      }
+      _parser.finish();
+    } finally {
+      endInflater();
+    }
+  }
+
+  /**
+   * Consumes the bytes from {@code offset} that belong to the current stage and returns where the
+   * next stage starts.
+   */
+  private int consume(byte[] bytes, int offset, int end) throws CditException {
+    switch (_stage) {
+      case IDENTITY:
+        passOn(bytes, offset, end - offset);
+        return end;
+      case SNIFFING:
+        _stageBytes[_stageLength++] = bytes[offset];
+        if (_stageLength == UploadEncoding.MAGIC_LENGTH) {
+          sniff();
+        }
+        return offset + 1;
+      case INFLATING:
+        return inflate(bytes, offset, end);
+      case GZIP_NAME:
+      case GZIP_COMMENT:
+        while (offset < end) {
+          if (bytes[offset++] == 0) {
+            startNextHeaderField();
+            break;
+          }
+        }
+        return offset;
+      case GZIP_EXTRA:
+        int skipped = Math.min(_stageRemaining, end - offset);
+        _stageRemaining -= skipped;
+        if (_stageRemaining == 0) {
+          startNextHeaderField();
+        }
+        return offset + skipped;
+      default:
+        if (_stage == Stage.GZIP_HEADER && _stageLength == 0) {
+          _isMemberComplete = false;
+        }
+        int count = Math.min(_stageRemaining, end - offset);
+        System.arraycopy(bytes, offset, _stageBytes, _stageLength, count);
+        _stageLength += count;
+        _stageRemaining -= count;
+        if (_stageRemaining == 0) {
+          completeStage();
+        }
+        return offset + count;
+    }
+  }
+
+  /**
+   * Settles the encoding from the first two bytes and consumes them again under it.
+   */
+  private void sniff() throws CditException {
+    UploadEncoding encoding = UploadEncoding.sniff(_stageBytes, _stageLength);
+    byte[] firstBytes = new byte[_stageLength];
+    System.arraycopy(_stageBytes, 0, firstBytes, 0, _stageLength);
+    _stageLength = 0;
+    if (encoding == UploadEncoding.GZIP && _encoding == null) {
+      startGzipMember();
+    } else if (encoding == UploadEncoding.DEFLATE) {
+      startInflating(false);
+    } else if (_encoding == UploadEncoding.DEFLATE) {
+      startInflating(true);
+    } else {
+      _stage = Stage.IDENTITY;
+    }
+    for (int offset = 0; offset < firstBytes.length;) {
+      offset = consume(firstBytes, offset, firstBytes.length);
+    }
+  }
+
+  private void completeStage() throws CditException {
+    switch (_stage) {
+      case GZIP_HEADER:
+        if ((_stageBytes[0] & 0xff) != UploadEncoding.GZIP_MAGIC_FIRST
+            || (_stageBytes[1] & 0xff) != UploadEncoding.GZIP_MAGIC_SECOND
+            || _stageBytes[2] != COMPRESSION_METHOD_DEFLATE) {
+          throw new InvalidCompressedUploadException();
+        }
+        _gzipFlags = _stageBytes[3] & 0xff;
+        startNextHeaderField();
+        break;
+      case GZIP_EXTRA_LENGTH:
+        _stageRemaining = (_stageBytes[0] & 0xff) | (_stageBytes[1] & 0xff) << 8;
+        _stage = Stage.GZIP_EXTRA;
+        if (_stageRemaining == 0) {
+          startNextHeaderField();
+        }
+        break;
+      case GZIP_HEADER_CRC:
+        startInflating(true);
+        break;
+      case GZIP_TRAILER:
+        if (readIntLittleEndian(0) != (int) _crc.getValue()
+            || readIntLittleEndian(4) != (int) _inflater.getBytesWritten()) {
+          throw new InvalidCompressedUploadException();
+        }
+        _isMemberComplete = true;
+        startGzipMember();
+        break;
+      default:
+        throw new IllegalStateException(_stage.name());
+    }
+  }
+
+  /**
+   * Moves on to the next optional gzip header field that the flags say is there, in the order they
+   * come in, or to the compressed data once there are none left.
+   */
+  private void startNextHeaderField() {
+    _stageLength = 0;
+    _stageRemaining = 2;
+    if ((_gzipFlags & GZIP_FLAG_EXTRA) != 0) {
+      _gzipFlags &= ~GZIP_FLAG_EXTRA;
+      _stage = Stage.GZIP_EXTRA_LENGTH;
+    } else if ((_gzipFlags & GZIP_FLAG_NAME) != 0) {
+      _gzipFlags &= ~GZIP_FLAG_NAME;
+      _stage = Stage.GZIP_NAME;
+    } else if ((_gzipFlags & GZIP_FLAG_COMMENT) != 0) {
+      _gzipFlags &= ~GZIP_FLAG_COMMENT;
+      _stage = Stage.GZIP_COMMENT;
+    } else if ((_gzipFlags & GZIP_FLAG_HEADER_CRC) != 0) {
+      _gzipFlags &= ~GZIP_FLAG_HEADER_CRC;
+      _stage = Stage.GZIP_HEADER_CRC;
+    } else {
+      startInflating(true);
+    }
+  }
+
+  private void startGzipMember() {
+    _isGzip = true;
+    _stage = Stage.GZIP_HEADER;
+    _stageLength = 0;
+    _stageRemaining = GZIP_FIXED_HEADER_SIZE;
+  }
+
+  private void startInflating(boolean isRaw) {
+    endInflater();
+    _inflater = new Inflater(isRaw);
+    _crc.reset();
+    _isMemberComplete = false;
+    _stage = Stage.INFLATING;
+  }
+
+  /**
+   * Inflates the bytes from {@code offset} and passes on what comes out until the inflater needs
+   * more input or the compressed data has ended, and returns where the bytes it left start.
+   */
+  private int inflate(byte[] bytes, int offset, int end) throws CditException {
+    _inflater.setInput(bytes, offset, end - offset);
+    try {
+      while (!_inflater.finished()) {
+        int count = _inflater.inflate(_output);
+        if (count > 0) {
+          if (_isGzip) {
+            _crc.update(_output, 0, count);
+          }
+          passOn(_output, 0, count);
+        } else if (_inflater.needsInput() && !_inflater.finished()) {
+          return end;
+        } else if (_inflater.needsDictionary()) {
+          throw new InvalidCompressedUploadException();
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new InvalidCompressedUploadException();
+    }
+    int next = end - _inflater.getRemaining();
+    if (_isGzip) {
+      _stage = Stage.GZIP_TRAILER;
+      _stageLength = 0;
+      _stageRemaining = GZIP_TRAILER_SIZE;
+    } else {
+      _isMemberComplete = true;
+      if (next < end) {
+        // nothing may follow a zlib or raw deflate stream
+        throw new InvalidCompressedUploadException();
+      }
+    }
+    return next;
+  }
+
+  private void passOn(byte[] bytes, int offset, int length) throws CditException {
+    _decompressedBytes += length;
+    if (_stage != Stage.IDENTITY && _decompressedBytes > _maxDecompressedBytes) {
+      throw new DecompressedSizeExceededException();
+    }
+    _parser.feed(bytes, offset, length);
+  }
+
+  private int readIntLittleEndian(int offset) {
+    return (_stageBytes[offset] & 0xff) | (_stageBytes[offset + 1] & 0xff) << 8
+        | (_stageBytes[offset + 2] & 0xff) << 16 | (_stageBytes[offset + 3] & 0xff) << 24;
+  }
+
+  private void endInflater() {
+    if (_inflater != null) {
+      _inflater.end();
+      _inflater = null;
+    }
+  }
+}
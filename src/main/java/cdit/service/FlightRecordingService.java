@@ -0,0 +1,27 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.text.ParseException;
+import org.springframework.core.io.Resource;
+
+public interface FlightRecordingService {
+  /**
+   * Starts a recording that stops by itself after {@code durationSeconds} and keeps no more than
+   * {@code maxSizeMegabytes}, both capped by the configured limits, and returns its status.
+   * Returns {@code null} if a recording has been started and not fetched yet.
+   */
+  public FlightRecordingStatus start(long durationSeconds, long maxSizeMegabytes)
+      throws IOException, ParseException;
+
+  /**
+   * The status of the recording started last, or {@code null} if there is none.
+   */
+  public FlightRecordingStatus getStatus();
+
+  /**
+   * Stops the recording if it still runs and returns what it recorded as a {@code .jfr} file,
+   * which is deleted once the returned stream is closed. The recording is discarded, so the next
+   * one may start. Returns {@code null} if there is no recording.
+   */
+  public Resource stop() throws IOException;
+}
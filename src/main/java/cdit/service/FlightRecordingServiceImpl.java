@@ -0,0 +1,128 @@
+package cdit.service;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Keeps one JDK Flight Recorder recording at a time, with the JDK's {@code profile} settings and
+ * every {@link UserPhaseEvent}, but without the events that hold the environment variables, system
+ * properties and command line, which may carry credentials. Recordings are bounded twice, by a
+ * duration after which they stop by themselves and by a size beyond which the oldest data is
+ * dropped, and both bounds are capped by {@code cdit.jfr.max-duration-seconds} and
+ * {@code cdit.jfr.max-size-megabytes}.
+ */
+@Service()
+public class FlightRecordingServiceImpl implements FlightRecordingService {
+  private static final String CONFIGURATION_NAME = "profile";
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final String[] DISABLED_EVENT_NAMES = {"jdk.InitialEnvironmentVariable",
+      "jdk.InitialSystemProperty", "jdk.JVMInformation"};
+
+  private final long _maxDurationSeconds;
+  private final long _maxSizeMegabytes;
+  /** The recording started last, until it is fetched. Guarded by this. */
+  private Recording _recording;
+
+  public FlightRecordingServiceImpl(
+      @Value("${cdit.jfr.max-duration-seconds:600}") long maxDurationSeconds,
+      @Value("${cdit.jfr.max-size-megabytes:100}") long maxSizeMegabytes) {
+    if (maxDurationSeconds < 1 || maxSizeMegabytes < 1) {
+      throw new IllegalArgumentException("Recordings need a duration and size of at least one.");
+    }
+    _maxDurationSeconds = maxDurationSeconds;
+    _maxSizeMegabytes = maxSizeMegabytes;
+  }
+
+  @Override
+  public synchronized FlightRecordingStatus start(long durationSeconds, long maxSizeMegabytes)
+      throws IOException, ParseException {
+    if (_recording != null) {
+      return null;
+    }
+    Recording recording = new Recording(Configuration.getConfiguration(CONFIGURATION_NAME));
+    recording.setName("cdit");
+    for (String eventName : DISABLED_EVENT_NAMES) {
+      recording.disable(eventName);
+    }
+    recording.enable(UserParseEvent.class);
+    recording.enable(UserValidateEvent.class);
+    recording.enable(UserPersistEvent.class);
+    recording.enable(UserSerializeEvent.class);
+    recording.setDuration(Duration.ofSeconds(clamp(durationSeconds, _maxDurationSeconds)));
+    recording.setMaxSize(clamp(maxSizeMegabytes, _maxSizeMegabytes) * BYTES_PER_MEGABYTE);
+    recording.setToDisk(true);
+    recording.start();
+    _recording = recording;
+    return getStatus();
+  }
+
+  @Override
+  public synchronized FlightRecordingStatus getStatus() {
+    if (_recording == null) {
+      return null;
+    }
+    Instant end = _recording.getState() == RecordingState.RUNNING ? Instant.now()
+        : _recording.getStopTime();
+    return new FlightRecordingStatus(_recording.getState().name(),
+        _recording.getDuration().getSeconds(), _recording.getMaxSize() / BYTES_PER_MEGABYTE,
+        Duration.between(_recording.getStartTime(), end).toMillis(), _recording.getSize());
+  }
+
+  @Override
+  public synchronized Resource stop() throws IOException {
+    if (_recording == null) {
+      return null;
+    }
+    Recording recording = _recording;
+    _recording = null;
+    try {
+      if (recording.getState() == RecordingState.RUNNING) {
+        recording.stop();
+      }
+      Path file = Files.createTempFile("cdit-", ".jfr");
+      try {
+        recording.dump(file);
+        return new InputStreamResource(new FileInputStream(file.toFile()) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              Files.deleteIfExists(file);
+            }
+          }
+        });
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(file);
+        throw e;
+      }
+    } finally {
+      recording.close();
+    }
+  }
+
+  @PreDestroy
+  public synchronized void closeRecording() {
+    if (_recording != null) {
+      _recording.close();
+      _recording = null;
+    }
+  }
+
+  private static long clamp(long value, long max) {
+    return Math.max(1, Math.min(value, max));
+  }
+}
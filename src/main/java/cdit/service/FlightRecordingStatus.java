@@ -0,0 +1,43 @@
+package cdit.service;
+
+/**
+ * What {@code /actuator/jfr} reports about the recording. {@code state} is that of
+ * {@link jdk.jfr.RecordingState}; a recording that has reached its duration is {@code STOPPED}
+ * but still kept until it is fetched.
+ */
+public final class FlightRecordingStatus {
+  private final String _state;
+  private final long _durationSeconds;
+  private final long _maxSizeMegabytes;
+  private final long _elapsedMillis;
+  private final long _sizeBytes;
+
+  FlightRecordingStatus(String state, long durationSeconds, long maxSizeMegabytes,
+      long elapsedMillis, long sizeBytes) {
+    _state = state;
+    _durationSeconds = durationSeconds;
+    _maxSizeMegabytes = maxSizeMegabytes;
+    _elapsedMillis = elapsedMillis;
+    _sizeBytes = sizeBytes;
+  }
+
+  public String getState() {
+    return _state;
+  }
+
+  public long getDurationSeconds() {
+    return _durationSeconds;
+  }
+
+  public long getMaxSizeMegabytes() {
+    return _maxSizeMegabytes;
+  }
+
+  public long getElapsedMillis() {
+    return _elapsedMillis;
+  }
+
+  public long getSizeBytes() {
+    return _sizeBytes;
+  }
+}
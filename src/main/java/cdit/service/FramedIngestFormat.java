@@ -0,0 +1,52 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import cdit.exception.CditException;
+
+/**
+ * A format parsed by {@link RecordPushParser} alone, which needs nothing but a
+ * {@link RecordFraming} to find and read its records. Input streams are read into the push parser
+ * a buffer at a time.
+ */
+abstract class FramedIngestFormat implements CditIngestFormat {
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final UserMetrics _userMetrics;
+  private final int _maxReportedErrors;
+
+  FramedIngestFormat(UserMetrics userMetrics, int maxReportedErrors) {
+    if (maxReportedErrors < 1) {
+      throw new IllegalArgumentException("At least one error must be reported.");
+    }
+    _userMetrics = userMetrics;
+    _maxReportedErrors = maxReportedErrors;
+  }
+
+  /**
+   * A framing for a single upload.
+   */
+  abstract RecordFraming createFraming();
+
+  @Override
+  public <T> void parseInputStream(InputStream inputStream, CditRecordMapper<T> cditRecordMapper,
+      int batchSize, CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported)
+      throws CditException, IOException {
+    CditPushParser<T> parser =
+        createPushParser(cditRecordMapper, batchSize, batchConsumer, isEveryErrorReported);
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    for (int count = inputStream.read(buffer); count != -1; count = inputStream.read(buffer)) {
+      parser.feed(buffer, 0, count);
+    }
+    parser.finish();
+  }
+
+  @Override
+  public <T> CditPushParser<T> createPushParser(CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, boolean isEveryErrorReported) {
+    assert (batchSize > 0);
+    return new RecordPushParser<T>(createFraming(), cditRecordMapper, batchSize, batchConsumer,
+        new ParseRecorder(_userMetrics),
+        isEveryErrorReported ? new RowErrors(_maxReportedErrors, _userMetrics) : null);
+  }
+}
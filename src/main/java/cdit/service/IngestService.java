@@ -0,0 +1,9 @@
+package cdit.service;
+
+public interface IngestService {
+  /**
+   * The format registered for the media type of {@code contentType}, parameters aside, or CSV if
+   * there is none or no format is registered for it, since browsers label CSV files in many ways.
+   */
+  public CditIngestFormat getFormat(String contentType);
+}
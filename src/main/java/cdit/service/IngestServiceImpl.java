@@ -0,0 +1,36 @@
+package cdit.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.springframework.stereotype.Service;
+
+@Service()
+public class IngestServiceImpl implements IngestService {
+  private final Map<String, CditIngestFormat> _formatsByMediaType =
+      new HashMap<String, CditIngestFormat>();
+  private final CditIngestFormat _defaultFormat;
+
+  public IngestServiceImpl(List<CditIngestFormat> formats, CsvIngestFormat csvIngestFormat) {
+    for (CditIngestFormat format : formats) {
+      for (String mediaType : format.getMediaTypes()) {
+        if (_formatsByMediaType.put(mediaType, format) != null) {
+          throw new IllegalArgumentException("Two formats are registered for " + mediaType + ".");
+        }
+      }
+    }
+    _defaultFormat = csvIngestFormat;
+  }
+
+  @Override
+  public CditIngestFormat getFormat(String contentType) {
+    if (contentType == null) {
+      return _defaultFormat;
+    }
+    int parametersStart = contentType.indexOf(';');
+    String mediaType = (parametersStart < 0 ? contentType
+        : contentType.substring(0, parametersStart)).trim().toLowerCase(Locale.ROOT);
+    return _formatsByMediaType.getOrDefault(mediaType, _defaultFormat);
+  }
+}
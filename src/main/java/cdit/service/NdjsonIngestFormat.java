@@ -0,0 +1,32 @@
+package cdit.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Newline-delimited JSON as {@link NdjsonRecordReader} reads it, one flat object per line whose
+ * keys are the columns.
+ */
+@Service()
+public class NdjsonIngestFormat extends FramedIngestFormat {
+  private static final List<String> MEDIA_TYPES =
+      Collections.unmodifiableList(Arrays.asList("application/x-ndjson", "application/ndjson"));
+
+  public NdjsonIngestFormat(UserMetrics userMetrics,
+      @Value("${cdit.users.upload.max-reported-errors:100}") int maxReportedErrors) {
+    super(userMetrics, maxReportedErrors);
+  }
+
+  @Override
+  public List<String> getMediaTypes() {
+    return MEDIA_TYPES;
+  }
+
+  @Override
+  RecordFraming createFraming() {
+    return new NdjsonRecordReader.Framing();
+  }
+}
@@ -0,0 +1,636 @@
+package cdit.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import cdit.exception.InvalidRecordException;
+
+/**
+ * Reads newline-delimited JSON, one flat object per line, from UTF-8 bytes in place. The values may
+ * be strings, numbers, booleans or null, which reads as an empty field; nested objects and arrays
+ * make the record malformed. Blank lines are skipped but counted, so that errors name the line.
+ *
+ * Until {@link #setHeaders(String[])} is called the reader presents the keys of the first object
+ * as the header, without consuming the object, so the mapper binds to them as it would to the
+ * header of a CSV file. After that every object is read against those keys: a key missing from an
+ * object reads as an empty field, and a key that is not in the header makes the record malformed.
+ *
+ * Like {@link CsvTokenizer}, the reader only records where each value starts and ends, and is its
+ * own {@link CditRecord}, valid until the next call to {@link #hasNext()} or {@link #next()}.
+ */
+final class NdjsonRecordReader implements CditRecordReader, CditRecord {
+  private static final byte LINE_FEED = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+  private static final byte QUOTE = '"';
+  private static final byte BACKSLASH = '\\';
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+  private static final int INITIAL_KEY_CAPACITY = 8;
+
+  /** A field whose key the object lacks, or whose value is null. */
+  private static final int KIND_EMPTY = 0;
+  /** A field whose bytes are its text, a string without escapes or a literal. */
+  private static final int KIND_PLAIN = 1;
+  /** A string with escapes, whose bytes still have to be unescaped. */
+  private static final int KIND_ESCAPED = 2;
+
+  private final byte[] _bytes;
+  private final int _limit;
+  private int _position;
+  private boolean _isAtStartOfInput;
+
+  /** The keys of the header as UTF-8, or {@code null} while the header is being presented. */
+  private byte[][] _headerKeys;
+  private String[] _presentedHeaders;
+  private int[] _fieldKinds = new int[0];
+  private int[] _fieldStarts = new int[0];
+  private int[] _fieldEnds = new int[0];
+  private boolean[] _isFieldRead = new boolean[0];
+  /** The keys of the object being read, while it is read as the header. */
+  private int[] _keyStarts = new int[INITIAL_KEY_CAPACITY];
+  private int[] _keyEnds = new int[INITIAL_KEY_CAPACITY];
+  private boolean[] _isKeyEscaped = new boolean[INITIAL_KEY_CAPACITY];
+  private int _keyCount;
+
+  private boolean _hasPendingRecord;
+  private long _lineNumber = 1;
+  private long _nextLineNumber = 1;
+  /** Where the line after the record returned last starts. */
+  private int _recordEnd;
+
+  NdjsonRecordReader(byte[] bytes, int from, int to, boolean isAtStartOfInput) {
+    _bytes = bytes;
+    _position = from;
+    _limit = to;
+    _isAtStartOfInput = isAtStartOfInput;
+  }
+
+  @Override
+  public void setHeaders(String[] headers) {
+    _headerKeys = new byte[headers.length][];
+    for (int i = 0; i < headers.length; i++) {
+      _headerKeys[i] = headers[i].getBytes(StandardCharsets.UTF_8);
+    }
+    _fieldKinds = new int[headers.length];
+    _fieldStarts = new int[headers.length];
+    _fieldEnds = new int[headers.length];
+    _isFieldRead = new boolean[headers.length];
+    _presentedHeaders = null;
+  }
+
+  @Override
+  public void setFirstLineNumber(long firstLineNumber) {
+    _lineNumber = firstLineNumber;
+    _nextLineNumber = firstLineNumber;
+  }
+
+  @Override
+  public long getLineNumber() {
+    return _lineNumber;
+  }
+
+  @Override
+  public long getNextLineNumber() {
+    return _nextLineNumber;
+  }
+
+  @Override
+  public long getOffset() {
+    return _position;
+  }
+
+  @Override
+  public int getErrorColumn() {
+    return 0;
+  }
+
+  @Override
+  public void skipRecord() {
+    _hasPendingRecord = false;
+    _position = indexOfLineEnd(_position);
+    if (_position < _limit) {
+      _position++;
+    }
+    _nextLineNumber = _lineNumber + 1;
+  }
+
+  @Override
+  public boolean hasNext() throws InvalidRecordException {
+    if (_hasPendingRecord) {
+      return true;
+    }
+    skipByteOrderMark();
+    while (_position < _limit) {
+      int lineEnd = indexOfLineEnd(_position);
+      int end = lineEnd;
+      if (end > _position && _bytes[end - 1] == CARRIAGE_RETURN) {
+        end--;
+      }
+      _lineNumber = _nextLineNumber;
+      int start = skipWhitespace(_position, end);
+      if (start == end) {
+        _position = lineEnd < _limit ? lineEnd + 1 : lineEnd;
+        _nextLineNumber++;
+        continue;
+      }
+      readObject(start, end);
+      _recordEnd = lineEnd < _limit ? lineEnd + 1 : lineEnd;
+      _hasPendingRecord = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the next record. The header presented is not consumed, so the object it came from is
+   * read again as the first record once the header has been set.
+   */
+  @Override
+  public CditRecord next() throws InvalidRecordException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    _hasPendingRecord = false;
+    if (_presentedHeaders == null) {
+      _position = _recordEnd;
+      _nextLineNumber = _lineNumber + 1;
+    }
+    return this;
+  }
+
+  @Override
+  public int getFieldCount() {
+    return _presentedHeaders != null ? _presentedHeaders.length : _fieldKinds.length;
+  }
+
+  @Override
+  public String getField(int index) {
+    checkFieldIndex(index);
+    if (_presentedHeaders != null) {
+      return _presentedHeaders[index];
+    }
+    switch (_fieldKinds[index]) {
+      case KIND_PLAIN:
+        return decode(_fieldStarts[index], _fieldEnds[index]);
+      case KIND_ESCAPED:
+        return unescape(_fieldStarts[index], _fieldEnds[index]);
+      default:
+        return "";
+    }
+  }
+
+  @Override
+  public String getTrimmedField(int index) {
+    checkFieldIndex(index);
+    if (_presentedHeaders == null && _fieldKinds[index] == KIND_PLAIN) {
+      int start = trimStart(_fieldStarts[index], _fieldEnds[index]);
+      return decode(start, trimEnd(start, _fieldEnds[index]));
+    }
+    return getField(index).trim();
+  }
+
+  @Override
+  public double parseTrimmedFieldAsDouble(int index) throws NumberFormatException {
+    checkFieldIndex(index);
+    if (_presentedHeaders == null && _fieldKinds[index] == KIND_PLAIN) {
+      int start = trimStart(_fieldStarts[index], _fieldEnds[index]);
+      int end = trimEnd(start, _fieldEnds[index]);
+      double value = CsvTokenizer.parsePlainDecimal(_bytes, start, end);
+      if (!Double.isNaN(value)) {
+        return value;
+      }
+      return Double.parseDouble(decode(start, end));
+    }
+    return Double.parseDouble(getTrimmedField(index));
+  }
+
+  @Override
+  public String[] toStringArray() {
+    String[] fields = new String[getFieldCount()];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = getField(i);
+    }
+    return fields;
+  }
+
+  /**
+   * Reads the object in {@code _bytes[start, end)} into the fields of the header, or, before there
+   * is one, into the header presented.
+   */
+  private void readObject(int start, int end) throws InvalidRecordException {
+    if (_headerKeys != null) {
+      Arrays.fill(_fieldKinds, KIND_EMPTY);
+      Arrays.fill(_isFieldRead, false);
+    }
+    _keyCount = 0;
+    int i = expect(start, end, (byte) '{');
+    i = skipWhitespace(i, end);
+    if (i < end && _bytes[i] == '}') {
+      i++;
+    } else {
+      while (true) {
+        int keyStart = i + 1;
+        i = readString(i, end);
+        boolean isKeyEscaped = i < 0;
+        i = Math.abs(i);
+        int keyEnd = i - 1;
+        i = expect(skipWhitespace(i, end), end, (byte) ':');
+        int valueStart = skipWhitespace(i, end);
+        i = readValue(valueStart, end, keyStart, keyEnd, isKeyEscaped);
+        i = skipWhitespace(i, end);
+        if (i < end && _bytes[i] == ',') {
+          i = skipWhitespace(i + 1, end);
+        } else {
+          i = expect(i, end, (byte) '}');
+          break;
+        }
+      }
+    }
+    if (skipWhitespace(i, end) != end) {
+      throw new InvalidRecordException();
+    }
+    if (_headerKeys == null) {
+      presentHeaders();
+    }
+  }
+
+  /**
+   * Reads the value at {@code start} and keeps it as the field of its key. Returns where the value
+   * ends.
+   */
+  private int readValue(int start, int end, int keyStart, int keyEnd, boolean isKeyEscaped)
+      throws InvalidRecordException {
+    int kind;
+    int valueStart;
+    int valueEnd;
+    int next;
+    if (start < end && _bytes[start] == QUOTE) {
+      next = readString(start, end);
+      kind = next < 0 ? KIND_ESCAPED : KIND_PLAIN;
+      next = Math.abs(next);
+      valueStart = start + 1;
+      valueEnd = next - 1;
+    } else {
+      valueStart = start;
+      next = indexOfLiteralEnd(start, end);
+      valueEnd = next;
+      kind = readLiteral(valueStart, valueEnd);
+    }
+    if (_headerKeys == null) {
+      addKey(keyStart, keyEnd, isKeyEscaped);
+    } else {
+      int index = indexOfHeader(keyStart, keyEnd, isKeyEscaped);
+      if (index < 0 || _isFieldRead[index]) {
+        throw new InvalidRecordException();
+      }
+      _isFieldRead[index] = true;
+      _fieldKinds[index] = kind;
+      _fieldStarts[index] = valueStart;
+      _fieldEnds[index] = valueEnd;
+    }
+    return next;
+  }
+
+  /**
+   * Checks the string starting with the quote at {@code start} and returns where it ends, past its
+   * closing quote, negated if it has escapes.
+   */
+  private int readString(int start, int end) throws InvalidRecordException {
+    if (start >= end || _bytes[start] != QUOTE) {
+      throw new InvalidRecordException();
+    }
+    boolean isEscaped = false;
+    for (int i = start + 1; i < end; i++) {
+      byte b = _bytes[i];
+      if (b == QUOTE) {
+        return isEscaped ? -(i + 1) : i + 1;
+      } else if (b == BACKSLASH) {
+        isEscaped = true;
+        i = skipEscape(i, end);
+      } else if ((b & 0xFF) < ' ') {
+        throw new InvalidRecordException();
+      }
+    }
+    throw new InvalidRecordException();
+  }
+
+  /**
+   * Checks the escape at {@code start} and returns the index of its last byte.
+   */
+  private int skipEscape(int start, int end) throws InvalidRecordException {
+    if (start + 1 >= end) {
+      throw new InvalidRecordException();
+    }
+    switch (_bytes[start + 1]) {
+      case '"':
+      case '\\':
+      case '/':
+      case 'b':
+      case 'f':
+      case 'n':
+      case 'r':
+      case 't':
+        return start + 1;
+      case 'u':
+        if (start + 5 >= end) {
+          throw new InvalidRecordException();
+        }
+        for (int i = start + 2; i < start + 6; i++) {
+          if (Character.digit(_bytes[i], 16) < 0) {
+            throw new InvalidRecordException();
+          }
+        }
+        return start + 5;
+      default:
+        throw new InvalidRecordException();
+    }
+  }
+
+  /**
+   * The kind of field the literal in {@code _bytes[start, end)} reads as. Numbers are kept as they
+   * are written, for the mapper to parse like any other text, so they are checked against the JSON
+   * grammar here; the mapper would take Java's forms too, such as {@code 0x1p3} or {@code 1f}.
+   */
+  private int readLiteral(int start, int end) throws InvalidRecordException {
+    if (start == end) {
+      throw new InvalidRecordException();
+    }
+    byte first = _bytes[start];
+    if (first == '-' || (first >= '0' && first <= '9')) {
+      if (!isNumber(start, end)) {
+        throw new InvalidRecordException();
+      }
+      return KIND_PLAIN;
+    } else if (isLiteral(start, end, TRUE) || isLiteral(start, end, FALSE)) {
+      return KIND_PLAIN;
+    } else if (isLiteral(start, end, NULL)) {
+      return KIND_EMPTY;
+    }
+    throw new InvalidRecordException();
+  }
+
+  /**
+   * Whether {@code _bytes[start, end)} is {@code -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?}.
+   */
+  private boolean isNumber(int start, int end) {
+    int i = start;
+    if (_bytes[i] == '-') {
+      i++;
+    }
+    if (i < end && _bytes[i] == '0') {
+      i++;
+    } else {
+      int digitsStart = i;
+      i = indexOfDigitsEnd(i, end);
+      if (i == digitsStart) {
+        return false;
+      }
+    }
+    if (i < end && _bytes[i] == '.') {
+      int digitsStart = ++i;
+      i = indexOfDigitsEnd(i, end);
+      if (i == digitsStart) {
+        return false;
+      }
+    }
+    if (i < end && (_bytes[i] == 'e' || _bytes[i] == 'E')) {
+      i++;
+      if (i < end && (_bytes[i] == '+' || _bytes[i] == '-')) {
+        i++;
+      }
+      int digitsStart = i;
+      i = indexOfDigitsEnd(i, end);
+      if (i == digitsStart) {
+        return false;
+      }
+    }
+    return i == end;
+  }
+
+  private int indexOfDigitsEnd(int start, int end) {
+    int i = start;
+    while (i < end && _bytes[i] >= '0' && _bytes[i] <= '9') {
+      i++;
+    }
+    return i;
+  }
+
+  private int indexOfLiteralEnd(int start, int end) {
+    int i = start;
+    while (i < end && _bytes[i] != ',' && _bytes[i] != '}' && (_bytes[i] & 0xFF) > ' ') {
+      i++;
+    }
+    return i;
+  }
+
+  private boolean isLiteral(int start, int end, byte[] literal) {
+    if (end - start != literal.length) {
+      return false;
+    }
+    for (int i = 0; i < literal.length; i++) {
+      if (_bytes[start + i] != literal[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The index of the header whose key is in {@code _bytes[start, end)}, or -1. The bytes are
+   * compared as they are unless the key has escapes, and the header at the key's position is tried
+   * first since objects mostly keep the order of the first.
+   */
+  private int indexOfHeader(int start, int end, boolean isEscaped) {
+    int keyIndex = _keyCount++;
+    if (isEscaped) {
+      byte[] key = unescape(start, end).getBytes(StandardCharsets.UTF_8);
+      for (int i = 0; i < _headerKeys.length; i++) {
+        if (Arrays.equals(_headerKeys[i], key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    if (keyIndex < _headerKeys.length && isKey(start, end, _headerKeys[keyIndex])) {
+      return keyIndex;
+    }
+    for (int i = 0; i < _headerKeys.length; i++) {
+      if (isKey(start, end, _headerKeys[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isKey(int start, int end, byte[] key) {
+    if (end - start != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (_bytes[start + i] != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addKey(int start, int end, boolean isEscaped) {
+    if (_keyCount == _keyStarts.length) {
+      _keyStarts = Arrays.copyOf(_keyStarts, _keyCount * 2);
+      _keyEnds = Arrays.copyOf(_keyEnds, _keyCount * 2);
+      _isKeyEscaped = Arrays.copyOf(_isKeyEscaped, _keyCount * 2);
+    }
+    _keyStarts[_keyCount] = start;
+    _keyEnds[_keyCount] = end;
+    _isKeyEscaped[_keyCount] = isEscaped;
+    _keyCount++;
+  }
+
+  /**
+   * Presents the keys read as the header. A key given twice makes the object malformed.
+   */
+  private void presentHeaders() throws InvalidRecordException {
+    String[] headers = new String[_keyCount];
+    for (int i = 0; i < _keyCount; i++) {
+      headers[i] = _isKeyEscaped[i] ? unescape(_keyStarts[i], _keyEnds[i])
+          : decode(_keyStarts[i], _keyEnds[i]);
+      for (int j = 0; j < i; j++) {
+        if (headers[j].equals(headers[i])) {
+          throw new InvalidRecordException();
+        }
+      }
+    }
+    _presentedHeaders = headers;
+  }
+
+  private int expect(int i, int end, byte expected) throws InvalidRecordException {
+    if (i >= end || _bytes[i] != expected) {
+      throw new InvalidRecordException();
+    }
+    return i + 1;
+  }
+
+  private void checkFieldIndex(int index) {
+    if (index < 0 || index >= getFieldCount()) {
+      throw new IndexOutOfBoundsException("Field " + index + " of " + getFieldCount());
+    }
+  }
+
+  private String decode(int start, int end) {
+    return new String(_bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decodes the string in {@code _bytes[start, end)}, whose escapes were checked when it was read.
+   */
+  private String unescape(int start, int end) {
+    StringBuilder builder = new StringBuilder(end - start);
+    int segmentStart = start;
+    for (int i = start; i < end; i++) {
+      if (_bytes[i] != BACKSLASH) {
+        continue;
+      }
+      builder.append(decode(segmentStart, i));
+      byte escaped = _bytes[++i];
+      switch (escaped) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'u':
+          builder.append((char) Integer.parseInt(decode(i + 1, i + 5), 16));
+          i += 4;
+          break;
+        default:
+          builder.append((char) escaped);
+          break;
+      }
+      segmentStart = i + 1;
+    }
+    return builder.append(decode(segmentStart, end)).toString();
+  }
+
+  private int skipWhitespace(int start, int end) {
+    while (start < end && isWhitespace(_bytes[start])) {
+      start++;
+    }
+    return start;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == CARRIAGE_RETURN || b == LINE_FEED;
+  }
+
+  /**
+   * Skips the same characters as {@link String#trim()}, like {@link CsvTokenizer} does.
+   */
+  private int trimStart(int start, int end) {
+    while (start < end && (_bytes[start] & 0xFF) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  private int trimEnd(int start, int end) {
+    while (end > start && (_bytes[end - 1] & 0xFF) <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  private int indexOfLineEnd(int from) {
+    for (int i = from; i < _limit; i++) {
+      if (_bytes[i] == LINE_FEED) {
+        return i;
+      }
+    }
+    return _limit;
+  }
+
+  private void skipByteOrderMark() {
+    if (!_isAtStartOfInput) {
+      return;
+    }
+    _isAtStartOfInput = false;
+    byte[] byteOrderMark = CsvTokenizer.BYTE_ORDER_MARK;
+    if (_limit - _position >= byteOrderMark.length
+        && _bytes[_position] == byteOrderMark[0] && _bytes[_position + 1] == byteOrderMark[1]
+        && _bytes[_position + 2] == byteOrderMark[2]) {
+      _position += byteOrderMark.length;
+    }
+  }
+
+  /**
+   * Finds records by their line feeds, which JSON only allows between values, so no state is
+   * carried from one piece to the next.
+   */
+  static final class Framing implements RecordFraming {
+    @Override
+    public int findRecordsEnd(byte[] bytes, int scanned, int length) {
+      for (int i = length - 1; i >= scanned; i--) {
+        if (bytes[i] == LINE_FEED) {
+          return i + 1;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public CditRecordReader createReader(byte[] bytes, int from, int to,
+        boolean isAtStartOfInput) {
+      return new NdjsonRecordReader(bytes, from, to, isAtStartOfInput);
+    }
+  }
+}
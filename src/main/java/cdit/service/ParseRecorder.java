@@ -0,0 +1,85 @@
+package cdit.service;
+
+import java.util.List;
+import cdit.exception.CditException;
+import cdit.exception.InvalidRowsException;
+
+/**
+ * Accounts for the time of one parse in the phases of {@link UserMetrics} and records them once
+ * the parse is over. The parse runs between {@link #resume()} and {@link #pause()}, minus the time
+ * the batch consumer takes.
+ *
+ * Not thread-safe: rows parsed on other threads report their validation time to the parsing
+ * thread, which adds it here.
+ */
+final class ParseRecorder {
+  private final UserMetrics _userMetrics;
+  private long _parseNanos;
+  private long _consumerNanos;
+  private long _rowValidationNanos;
+  private long _duplicateCheckNanos;
+  private long _resumedAtNanos;
+  private boolean _isConsumerFailed;
+
+  ParseRecorder(UserMetrics userMetrics) {
+    _userMetrics = userMetrics;
+  }
+
+  void resume() {
+    _resumedAtNanos = System.nanoTime();
+  }
+
+  void pause() {
+    _parseNanos += System.nanoTime() - _resumedAtNanos;
+  }
+
+  /**
+   * Wraps {@code batchConsumer} so that the time it takes is left out of the parse, and so that
+   * the exceptions it throws are not counted as rejected rows.
+   */
+  <T> CditBatchConsumer<T> timeConsumer(CditBatchConsumer<T> batchConsumer) {
+    return (List<T> batch) -> {
+      long start = System.nanoTime();
+      try {
+        batchConsumer.accept(batch);
+      } catch (CditException | RuntimeException e) {
+        _isConsumerFailed = true;
+        throw e;
+      } finally {
+        _consumerNanos += System.nanoTime() - start;
+      }
+    };
+  }
+
+  void addRowValidation(long nanos) {
+    _rowValidationNanos += nanos;
+  }
+
+  void addDuplicateCheck(long nanos) {
+    _duplicateCheckNanos += nanos;
+  }
+
+  /**
+   * The version to tag this parse's events with.
+   */
+  long getDatasetVersion() {
+    return _userMetrics.getDatasetVersion();
+  }
+
+  void record() {
+    _userMetrics.recordParse(_parseNanos - _consumerNanos);
+    _userMetrics.recordRowValidation(_rowValidationNanos);
+    _userMetrics.recordDuplicateCheck(_duplicateCheckNanos);
+  }
+
+  /**
+   * Records the parse of an upload that failed, counting the row it failed on unless the batch
+   * consumer failed it. The rows of {@link InvalidRowsException} were counted as they failed.
+   */
+  void record(CditException failure) {
+    if (!_isConsumerFailed && !(failure instanceof InvalidRowsException)) {
+      _userMetrics.countRejectedRow(failure);
+    }
+    record();
+  }
+}
@@ -0,0 +1,240 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import cdit.exception.CditException;
+import cdit.exception.InvalidRecordException;
+
+/**
+ * Collects the objects of one parse into batches and validates each batch as a whole before
+ * handing it on, so that parsing and validating are phases of their own with a
+ * {@link UserParseEvent} and a {@link UserValidateEvent} each.
+ *
+ * The error is still the one of the first bad row in the file. A row that fails to parse fails the
+ * parse only once the rows before it have been validated, and a row that fails its own checks only
+ * once the rows before it have been checked for duplicates.
+ *
+ * With {@link RowErrors} the parse goes on past bad rows instead, skipping them, and fails with
+ * all of them in {@link #finish()}. Once a row has failed no more batches are handed on, since the
+ * upload is bound to fail, but the rest of the file is still checked.
+ */
+final class RecordBatcher<T> {
+  private final CditRecordMapper<T> _cditRecordMapper;
+  private final CditRecordBinding<T> _binding;
+  private final CditObjectsValidator<T> _objectsValidator;
+  private final boolean _isRowValidated;
+  private final int _batchSize;
+  private final CditBatchConsumer<T> _batchConsumer;
+  private final ParseRecorder _parseRecorder;
+  /** Where bad rows go when the parse goes on past them, or {@code null}. */
+  private final RowErrors _rowErrors;
+  private final List<T> _batch;
+  /** The line of each object in {@link #_batch}, only kept along with {@link #_rowErrors}. */
+  private final long[] _batchLines;
+  /** The bytes of input the objects in {@link #_batch} were parsed from. */
+  private long _batchByteCount;
+
+  /**
+   * With {@code isRowValidated} false only the duplicate check is left to the batcher, for rows
+   * that were checked on their own while they were parsed. Without {@code rowErrors} the first bad
+   * row fails the parse.
+   */
+  RecordBatcher(CditRecordMapper<T> cditRecordMapper, CditRecordBinding<T> binding,
+      boolean isRowValidated, int batchSize, CditBatchConsumer<T> batchConsumer,
+      ParseRecorder parseRecorder, RowErrors rowErrors) {
+    assert (batchSize > 0);
+    _cditRecordMapper = cditRecordMapper;
+    _binding = binding;
+    _objectsValidator = cditRecordMapper.createObjectsValidator();
+    _isRowValidated = isRowValidated;
+    _batchSize = batchSize;
+    _batchConsumer = parseRecorder.timeConsumer(batchConsumer);
+    _parseRecorder = parseRecorder;
+    _rowErrors = rowErrors;
+    _batch = new ArrayList<T>(batchSize);
+    _batchLines = rowErrors == null ? null : new long[batchSize];
+  }
+
+  /**
+   * Parses the records left in {@code reader}, handing on every batch that fills up. The rows of a
+   * batch that is not full yet stay for the next call.
+   */
+  void parse(CditRecordReader reader) throws CditException, IOException {
+    UserParseEvent parseEvent = new UserParseEvent();
+    parseEvent.begin();
+    long stretchStart = reader.getOffset();
+    int stretchRowCount = 0;
+    while (true) {
+      T object;
+      try {
+        if (!reader.hasNext()) {
+          break;
+        }
+      } catch (InvalidRecordException e) {
+        if (_rowErrors == null) {
+          endStretch(parseEvent, stretchRowCount, reader.getOffset() - stretchStart);
+          throw fail(e);
+        }
+        _rowErrors.add(reader.getLineNumber(), reader.getErrorColumn(), e);
+        reader.skipRecord();
+        continue;
+      }
+      try {
+        object = _binding.createObject(reader.next());
+      } catch (CditException e) {
+        if (_rowErrors == null) {
+          endStretch(parseEvent, stretchRowCount, reader.getOffset() - stretchStart);
+          throw fail(e);
+        }
+        _rowErrors.add(reader.getLineNumber(), _binding.getColumn(e), e);
+        continue;
+      }
+      if (_batchLines != null) {
+        _batchLines[_batch.size()] = reader.getLineNumber();
+      }
+      _batch.add(object);
+      stretchRowCount++;
+      if (_batch.size() == _batchSize) {
+        long offset = reader.getOffset();
+        endStretch(parseEvent, stretchRowCount, offset - stretchStart);
+        flush();
+        parseEvent = new UserParseEvent();
+        parseEvent.begin();
+        stretchStart = offset;
+        stretchRowCount = 0;
+      }
+    }
+    endStretch(parseEvent, stretchRowCount, reader.getOffset() - stretchStart);
+  }
+
+  /**
+   * Adds rows parsed elsewhere from {@code byteCount} bytes, handing on every batch that fills up.
+   * The bytes are shared out evenly among the rows. Along with {@link RowErrors} the rows come
+   * with their {@code lines}, numbered from 1 at {@code firstLineNumber}.
+   */
+  void add(List<T> objects, long[] lines, long firstLineNumber, long byteCount)
+      throws CditException {
+    long previousShare = 0;
+    for (int i = 0; i < objects.size(); i++) {
+      long share = byteCount * (i + 1) / objects.size();
+      if (_batchLines != null) {
+        _batchLines[_batch.size()] = lines[i] + firstLineNumber - 1;
+      }
+      _batch.add(objects.get(i));
+      _batchByteCount += share - previousShare;
+      previousShare = share;
+      if (_batch.size() == _batchSize) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Validates and hands on the rows that are left, then fails with the bad rows if there were any.
+   */
+  void finish() throws CditException {
+    if (!_batch.isEmpty()) {
+      flush();
+    }
+    if (_rowErrors != null && !_rowErrors.isEmpty()) {
+      throw _rowErrors.toException();
+    }
+  }
+
+  /**
+   * Validates the rows collected so far, which come before the row that failed with
+   * {@code failure}, and returns {@code failure} to be thrown unless one of them fails first.
+   */
+  CditException fail(CditException failure) throws CditException {
+    validate();
+    return failure;
+  }
+
+  /**
+   * Checks each of {@code objects} on its own, in order, and returns the error of the first that
+   * fails. That object and those after it are removed, so that only the rows before it go on to
+   * the duplicate check.
+   */
+  static <T> CditException validateRows(CditRecordMapper<T> cditRecordMapper, List<T> objects) {
+    for (int i = 0; i < objects.size(); i++) {
+      try {
+        cditRecordMapper.validateObject(objects.get(i));
+      } catch (CditException e) {
+        objects.subList(i, objects.size()).clear();
+        return e;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks each of {@code objects} with {@code check}, in order, adding the errors to
+   * {@code rowErrors} at the line of their object. The objects that pass are moved to the front,
+   * along with their {@code lines}, and the others removed.
+   */
+  static <T> void retainValidRows(List<T> objects, long[] lines, CditObjectsValidator<T> check,
+      CditRecordBinding<T> binding, RowErrors rowErrors) {
+    int keptCount = 0;
+    for (int i = 0; i < objects.size(); i++) {
+      T object = objects.get(i);
+      try {
+        check.validateNextObject(object);
+      } catch (CditException e) {
+        rowErrors.add(lines[i], binding.getColumn(e), e);
+        continue;
+      }
+      objects.set(keptCount, object);
+      lines[keptCount] = lines[i];
+      keptCount++;
+    }
+    objects.subList(keptCount, objects.size()).clear();
+  }
+
+  private void endStretch(UserParseEvent parseEvent, int rowCount, long byteCount) {
+    _batchByteCount += byteCount;
+    if (rowCount > 0 || byteCount > 0) {
+      parseEvent.commit(rowCount, byteCount, _parseRecorder.getDatasetVersion());
+    }
+  }
+
+  private void flush() throws CditException {
+    validate();
+    if (_rowErrors == null || _rowErrors.isEmpty()) {
+      _batchConsumer.accept(_batch);
+    }
+    _batch.clear();
+    _batchByteCount = 0;
+  }
+
+  private void validate() throws CditException {
+    UserValidateEvent validateEvent = new UserValidateEvent();
+    validateEvent.begin();
+    int rowCount = _batch.size();
+    long start = System.nanoTime();
+    CditException rowFailure = null;
+    if (_isRowValidated && _rowErrors != null) {
+      retainValidRows(_batch, _batchLines, _cditRecordMapper::validateObject, _binding, _rowErrors);
+    } else if (_isRowValidated) {
+      rowFailure = validateRows(_cditRecordMapper, _batch);
+    }
+    long rowsValidated = System.nanoTime();
+    try {
+      if (_rowErrors != null) {
+        retainValidRows(_batch, _batchLines, _objectsValidator, _binding, _rowErrors);
+      } else {
+        for (T object : _batch) {
+          _objectsValidator.validateNextObject(object);
+        }
+      }
+    } finally {
+      long end = System.nanoTime();
+      _parseRecorder.addRowValidation(rowsValidated - start);
+      _parseRecorder.addDuplicateCheck(end - rowsValidated);
+      validateEvent.commit(rowCount, _batchByteCount, _parseRecorder.getDatasetVersion());
+    }
+    if (rowFailure != null) {
+      throw rowFailure;
+    }
+  }
+}
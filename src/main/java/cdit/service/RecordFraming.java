@@ -0,0 +1,21 @@
+package cdit.service;
+
+/**
+ * Finds where the records of one ingest format end in bytes that arrive piece by piece, for
+ * {@link RecordPushParser}, and reads the complete ones. An instance serves a single upload, as it
+ * may carry state from one piece to the next.
+ */
+interface RecordFraming {
+  /**
+   * Returns the end of the last complete record in {@code bytes[0, length)}, which start with a
+   * record, or 0 if there is none. The bytes before {@code scanned} were looked at by the call
+   * before, which found no record ending after them.
+   */
+  public int findRecordsEnd(byte[] bytes, int scanned, int length);
+
+  /**
+   * Reads {@code bytes[from, to)} in place, skipping a byte order mark only if
+   * {@code isAtStartOfInput}.
+   */
+  public CditRecordReader createReader(byte[] bytes, int from, int to, boolean isAtStartOfInput);
+}
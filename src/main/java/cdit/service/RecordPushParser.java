@@ -0,0 +1,122 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import cdit.exception.CditException;
+
+/**
+ * Buffers the bytes fed until they hold complete records, as found by the {@link RecordFraming}
+ * of the format, then reads those records in place and keeps only the incomplete rest. The
+ * framing scans every byte once, however the bytes are split among the feeds.
+ *
+ * The header, validation and batches are exactly those of
+ * {@link CsvParserService#parseInputStream(java.io.InputStream, CditRecordMapper, int,
+ * CditBatchConsumer)}, whatever the format. Only the time spent in {@link #feed(byte[], int, int)}
+ * and {@link #finish()} counts as parsing, not the time spent waiting for the next bytes.
+ */
+final class RecordPushParser<T> implements CditPushParser<T> {
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private final RecordFraming _framing;
+  private final CditRecordMapper<T> _cditRecordMapper;
+  private final int _batchSize;
+  private final CditBatchConsumer<T> _batchConsumer;
+  private final ParseRecorder _parseRecorder;
+  private final RowErrors _rowErrors;
+
+  /** The bytes fed and not parsed yet, which always start with a record. */
+  private byte[] _buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int _length;
+  private int _scanned;
+  private boolean _isAtStartOfInput = true;
+  /** The line the bytes fed and not parsed yet start on. */
+  private long _nextLineNumber = 1;
+  /** Created once the header has been read. */
+  private RecordBatcher<T> _batcher;
+  private String[] _headers;
+
+  RecordPushParser(RecordFraming framing, CditRecordMapper<T> cditRecordMapper, int batchSize,
+      CditBatchConsumer<T> batchConsumer, ParseRecorder parseRecorder, RowErrors rowErrors) {
+    _framing = framing;
+    _cditRecordMapper = cditRecordMapper;
+    _batchSize = batchSize;
+    _batchConsumer = batchConsumer;
+    _parseRecorder = parseRecorder;
+    _rowErrors = rowErrors;
+  }
+
+  @Override
+  public void feed(byte[] bytes, int offset, int length) throws CditException {
+    _parseRecorder.resume();
+    try {
+      feedRecords(bytes, offset, length);
+    } catch (CditException e) {
+      _parseRecorder.pause();
+      _parseRecorder.record(e);
+      throw e;
+    }
+    _parseRecorder.pause();
+  }
+
+  @Override
+  public void finish() throws CditException {
+    _parseRecorder.resume();
+    try {
+      parse(_length, true);
+      _length = 0;
+      _scanned = 0;
+      _batcher.finish();
+    } catch (CditException e) {
+      _parseRecorder.pause();
+      _parseRecorder.record(e);
+      throw e;
+    }
+    _parseRecorder.pause();
+    _parseRecorder.record();
+  }
+
+  private void feedRecords(byte[] bytes, int offset, int length) throws CditException {
+    if (_length + length > _buffer.length) {
+      _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _length + length));
+    }
+    System.arraycopy(bytes, offset, _buffer, _length, length);
+    _length += length;
+
+    int recordsEnd = _framing.findRecordsEnd(_buffer, _scanned, _length);
+    _scanned = _length;
+    if (recordsEnd > 0) {
+      parse(recordsEnd, false);
+      System.arraycopy(_buffer, recordsEnd, _buffer, 0, _length - recordsEnd);
+      _length -= recordsEnd;
+      _scanned -= recordsEnd;
+    }
+  }
+
+  /**
+   * Parses the records in {@code _buffer[0, end)}. Until the header has been read, bytes without a
+   * record, such as the blank lines some formats skip, are dropped unless they are the last.
+   */
+  private void parse(int end, boolean isLast) throws CditException {
+    CditRecordReader reader = _framing.createReader(_buffer, 0, end, _isAtStartOfInput);
+    reader.setFirstLineNumber(_nextLineNumber);
+    _isAtStartOfInput = false;
+    try {
+      if (_batcher == null) {
+        if (!isLast && !reader.hasNext()) {
+          _nextLineNumber = reader.getNextLineNumber();
+          return;
+        }
+        _headers = _cditRecordMapper.getHeaders(reader);
+        _batcher = new RecordBatcher<T>(_cditRecordMapper, _cditRecordMapper.bind(_headers), true,
+            _batchSize, _batchConsumer, _parseRecorder, _rowErrors);
+      }
+      reader.setHeaders(_headers);
+      _batcher.parse(reader);
+      _nextLineNumber = reader.getNextLineNumber();
+    } catch (IOException e) {
+      // the reader never reads from a stream when parsing a byte range
+      throw new UncheckedIOException(e);
+    }
+  }
+}
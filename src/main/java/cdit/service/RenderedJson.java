@@ -0,0 +1,41 @@
+package cdit.service;
+
+/**
+ * A JSON body rendered once, with a gzip variant and the strong ETags of both. The byte arrays are
+ * shared by every response and must not be modified.
+ */
+public final class RenderedJson {
+  private final long _version;
+  private final byte[] _bytes;
+  private final String _etag;
+  private final byte[] _gzipBytes;
+  private final String _gzipEtag;
+
+  RenderedJson(long version, byte[] bytes, String etag, byte[] gzipBytes, String gzipEtag) {
+    _version = version;
+    _bytes = bytes;
+    _etag = etag;
+    _gzipBytes = gzipBytes;
+    _gzipEtag = gzipEtag;
+  }
+
+  public long getVersion() {
+    return _version;
+  }
+
+  public byte[] getBytes() {
+    return _bytes;
+  }
+
+  public String getEtag() {
+    return _etag;
+  }
+
+  public byte[] getGzipBytes() {
+    return _gzipBytes;
+  }
+
+  public String getGzipEtag() {
+    return _gzipEtag;
+  }
+}
@@ -0,0 +1,106 @@
+package cdit.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import cdit.exception.CditException;
+import cdit.exception.InvalidRowsException;
+import cdit.exception.RowError;
+
+/**
+ * The bad rows of a parse that goes on past them. The errors of the first {@code capacity} lines
+ * are kept in arrays allocated up front, so a file full of bad rows allocates nothing per row
+ * beyond the exception its check threw; the errors after those are only counted. Errors do not
+ * arrive in line order, since those found by parsing are added at once and those of the checks
+ * on a batch once it is full, so the arrays are kept as a heap with the last line kept on top,
+ * which an error on an earlier line replaces.
+ */
+final class RowErrors {
+  private final long[] _lines;
+  private final int[] _columns;
+  private final CditException[] _causes;
+  private final UserMetrics _userMetrics;
+  private int _size;
+  private long _count;
+
+  RowErrors(int capacity, UserMetrics userMetrics) {
+    assert (capacity >= 0);
+    _lines = new long[capacity];
+    _columns = new int[capacity];
+    _causes = new CditException[capacity];
+    _userMetrics = userMetrics;
+  }
+
+  /**
+   * Adds the error of the row on {@code line}, at {@code column} or 0 for the row as a whole, and
+   * counts it as a rejected row.
+   */
+  void add(long line, int column, CditException cause) {
+    _userMetrics.countRejectedRow(cause);
+    _count++;
+    keep(line, column, cause);
+  }
+
+  /**
+   * Adds the errors of a part of the file parsed on its own, whose lines were numbered from 1, and
+   * which have been counted as rejected rows already.
+   */
+  void addAll(RowErrors rowErrors, long firstLineNumber) {
+    _count += rowErrors._count;
+    for (int i = 0; i < rowErrors._size; i++) {
+      keep(rowErrors._lines[i] + firstLineNumber - 1, rowErrors._columns[i],
+          rowErrors._causes[i]);
+    }
+  }
+
+  boolean isEmpty() {
+    return _count == 0;
+  }
+
+  /**
+   * The errors kept, in line order, along with how many there were in all.
+   */
+  InvalidRowsException toException() {
+    List<RowError> rowErrors = new ArrayList<RowError>(_size);
+    for (int i = 0; i < _size; i++) {
+      rowErrors.add(new RowError(_lines[i], _columns[i], _causes[i]));
+    }
+    rowErrors.sort(Comparator.comparingLong(RowError::getLine));
+    return new InvalidRowsException(rowErrors, _count);
+  }
+
+  private void keep(long line, int column, CditException cause) {
+    int index;
+    if (_size < _lines.length) {
+      index = _size++;
+      while (index > 0 && _lines[(index - 1) / 2] < line) {
+        move((index - 1) / 2, index);
+        index = (index - 1) / 2;
+      }
+    } else if (_size > 0 && line < _lines[0]) {
+      index = 0;
+      while (2 * index + 1 < _size) {
+        int child = 2 * index + 1;
+        if (child + 1 < _size && _lines[child + 1] > _lines[child]) {
+          child++;
+        }
+        if (_lines[child] <= line) {
+          break;
+        }
+        move(child, index);
+        index = child;
+      }
+    } else {
+      return;
+    }
+    _lines[index] = line;
+    _columns[index] = column;
+    _causes[index] = cause;
+  }
+
+  private void move(int from, int to) {
+    _lines[to] = _lines[from];
+    _columns[to] = _columns[from];
+    _causes[to] = _causes[from];
+  }
+}
@@ -0,0 +1,24 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import cdit.exception.CditException;
+
+public interface UploadDecoderService {
+  /**
+   * Wraps {@code parser} so that the bytes fed are decompressed on the way as {@code encoding}
+   * says or, if it is {@code null}, as their first bytes say. The decompressed bytes are passed on
+   * as they come out and never held as a whole; once more than
+   * {@code cdit.users.upload.max-decompressed-megabytes} of them have come out, the parse fails
+   * with {@link cdit.exception.DecompressedSizeExceededException}.
+   */
+  public <T> CditPushParser<T> createDecodingParser(UploadEncoding encoding,
+      CditPushParser<T> parser);
+
+  /**
+   * Reads {@code inputStream} to its end into a parser created by
+   * {@link #createDecodingParser(UploadEncoding, CditPushParser)} and finishes it.
+   */
+  public <T> void parseInputStream(InputStream inputStream, UploadEncoding encoding,
+      CditPushParser<T> parser) throws CditException, IOException;
+}
@@ -0,0 +1,40 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import cdit.exception.CditException;
+
+@Service()
+public class UploadDecoderServiceImpl implements UploadDecoderService {
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+  private final long _maxDecompressedBytes;
+
+  public UploadDecoderServiceImpl(
+      @Value("${cdit.users.upload.max-decompressed-megabytes:64}") long maxDecompressedMegabytes) {
+    if (maxDecompressedMegabytes < 1) {
+      throw new IllegalArgumentException("Decompressed uploads need a size of at least one.");
+    }
+    _maxDecompressedBytes = maxDecompressedMegabytes * BYTES_PER_MEGABYTE;
+  }
+
+  @Override
+  public <T> CditPushParser<T> createDecodingParser(UploadEncoding encoding,
+      CditPushParser<T> parser) {
+    return new DecodingPushParser<T>(encoding, parser, _maxDecompressedBytes);
+  }
+
+  @Override
+  public <T> void parseInputStream(InputStream inputStream, UploadEncoding encoding,
+      CditPushParser<T> parser) throws CditException, IOException {
+    CditPushParser<T> decodingParser = createDecodingParser(encoding, parser);
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    for (int count = inputStream.read(buffer); count != -1; count = inputStream.read(buffer)) {
+      decodingParser.feed(buffer, 0, count);
+    }
+    decodingParser.finish();
+  }
+}
@@ -0,0 +1,62 @@
+package cdit.service;
+
+import java.util.Locale;
+import cdit.exception.UnsupportedContentEncodingException;
+
+/**
+ * The ways an upload may be compressed, as named by {@code Content-Encoding}. Deflate is a zlib
+ * stream, as HTTP defines it, though raw deflate is taken too since some clients send that.
+ */
+public enum UploadEncoding {
+  IDENTITY, GZIP, DEFLATE;
+
+  /** How many bytes {@link #sniff(byte[], int)} needs. */
+  public static final int MAGIC_LENGTH = 2;
+  static final int GZIP_MAGIC_FIRST = 0x1f;
+  static final int GZIP_MAGIC_SECOND = 0x8b;
+  private static final int ZLIB_METHOD_DEFLATE = 8;
+  private static final int ZLIB_MAX_WINDOW_BITS = 7;
+  private static final int ZLIB_HEADER_CHECK = 31;
+
+  /**
+   * The encoding {@code contentEncoding} names, or {@code null} if there is none, in which case the
+   * upload's first bytes tell.
+   */
+  public static UploadEncoding fromContentEncoding(String contentEncoding)
+      throws UnsupportedContentEncodingException {
+    if (contentEncoding == null || contentEncoding.trim().isEmpty()) {
+      return null;
+    }
+    switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+      case "identity":
+        return IDENTITY;
+      case "gzip":
+      case "x-gzip":
+        return GZIP;
+      case "deflate":
+        return DEFLATE;
+      default:
+        throw new UnsupportedContentEncodingException();
+    }
+  }
+
+  /**
+   * The encoding an upload starting with {@code bytes} is in, going by the gzip magic number and
+   * the zlib header. Only zlib headers whose second byte is not printable are taken, since the
+   * check bits of a zlib header leave one in 31 pairs of letters passing it.
+   */
+  public static UploadEncoding sniff(byte[] bytes, int length) {
+    if (length < MAGIC_LENGTH) {
+      return IDENTITY;
+    }
+    int first = bytes[0] & 0xff;
+    int second = bytes[1] & 0xff;
+    if (first == GZIP_MAGIC_FIRST && second == GZIP_MAGIC_SECOND) {
+      return GZIP;
+    } else if ((first & 0x0f) == ZLIB_METHOD_DEFLATE && first >> 4 <= ZLIB_MAX_WINDOW_BITS
+        && (first << 8 | second) % ZLIB_HEADER_CHECK == 0 && (second < ' ' || second > '~')) {
+      return DEFLATE;
+    }
+    return IDENTITY;
+  }
+}
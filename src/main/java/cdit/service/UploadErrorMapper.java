@@ -0,0 +1,9 @@
+package cdit.service;
+
+/**
+ * Describes the failure of an upload that ran outside its request as the status code and body the
+ * request would have been answered with, so that it is worked out, and logged, once.
+ */
+public interface UploadErrorMapper {
+  public UserUploadJobError toError(Exception failure);
+}
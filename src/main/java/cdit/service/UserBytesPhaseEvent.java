@@ -0,0 +1,29 @@
+package cdit.service;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+
+/**
+ * A {@link UserPhaseEvent} of a phase that goes through the bytes of a CSV upload or of a JSON
+ * body.
+ */
+public abstract class UserBytesPhaseEvent extends UserPhaseEvent {
+  @Label("Bytes")
+  @Description("Bytes of CSV read or of JSON written in the phase")
+  @DataAmount
+  long bytes;
+
+  /**
+   * Ends the event and commits it if a recording asked for it.
+   */
+  public void commit(long rows, long bytes, long version) {
+    end();
+    if (shouldCommit()) {
+      this.rows = rows;
+      this.bytes = bytes;
+      this.version = version;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package cdit.service;
+
+/**
+ * How many users a delta upload inserted, updated and deleted. Users left as they were are not
+ * written at all.
+ */
+public final class UserDelta {
+  private final int _insertedCount;
+  private final int _updatedCount;
+  private final int _deletedCount;
+
+  UserDelta(int insertedCount, int updatedCount, int deletedCount) {
+    _insertedCount = insertedCount;
+    _updatedCount = updatedCount;
+    _deletedCount = deletedCount;
+  }
+
+  public int getInsertedCount() {
+    return _insertedCount;
+  }
+
+  public int getUpdatedCount() {
+    return _updatedCount;
+  }
+
+  public int getDeletedCount() {
+    return _deletedCount;
+  }
+}
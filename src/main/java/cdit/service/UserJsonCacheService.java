@@ -0,0 +1,19 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import cdit.model.User;
+
+public interface UserJsonCacheService {
+  public RenderedJson getRenderedUsers(UserSnapshot snapshot) throws IOException;
+
+  public void writeUsers(List<User> users, OutputStream outputStream) throws IOException;
+
+  /**
+   * Starts the JSON array {@link #writeUsers(List, OutputStream)} writes, for callers that write
+   * the users themselves a few at a time. Closing the writer ends the array.
+   */
+  public SequenceWriter openUserArray(OutputStream outputStream) throws IOException;
+}
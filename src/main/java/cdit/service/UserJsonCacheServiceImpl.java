@@ -0,0 +1,175 @@
+package cdit.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import cdit.model.User;
+
+@Service()
+public class UserJsonCacheServiceImpl implements UserJsonCacheService {
+  private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+  private final ObjectWriter _userWriter;
+  /** The rendering of the newest snapshot seen, complete or still in progress. */
+  private final AtomicReference<CacheEntry> _latestEntry = new AtomicReference<CacheEntry>();
+  private final UserMetrics _userMetrics;
+
+  public UserJsonCacheServiceImpl(ObjectProvider<ObjectMapper> objectMapperProvider,
+      UserMetrics userMetrics) {
+    _userWriter = objectMapperProvider.getIfAvailable(ObjectMapper::new).writerFor(User.class)
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    _userMetrics = userMetrics;
+  }
+
+  /**
+   * Returns the rendering of {@code snapshot}, or of a newer snapshot if one has been rendered
+   * since. The first caller for a version renders it while concurrent callers for the same version
+   * wait for that rendering instead of starting their own.
+   */
+  @Override
+  public RenderedJson getRenderedUsers(UserSnapshot snapshot) throws IOException {
+    while (true) {
+      CacheEntry entry = _latestEntry.get();
+      if (entry != null && entry.version >= snapshot.getVersion()) {
+        return await(entry.future);
+      }
+      CacheEntry newEntry = new CacheEntry(snapshot.getVersion());
+      if (_latestEntry.compareAndSet(entry, newEntry)) {
+        try {
+          newEntry.future.complete(render(snapshot));
+        } catch (IOException | RuntimeException | Error e) {
+          newEntry.future.completeExceptionally(e);
+          _latestEntry.compareAndSet(newEntry, entry);
+          throw e;
+        }
+        return await(newEntry.future);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code users} as a JSON array one user at a time through the generator's own buffer,
+   * so no more than that buffer is held however many users there are. The stream is left open.
+   */
+  @Override
+  public void writeUsers(List<User> users, OutputStream outputStream) throws IOException {
+    UserSerializeEvent serializeEvent = new UserSerializeEvent();
+    serializeEvent.begin();
+    long start = System.nanoTime();
+    CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+    writeUserArray(users, countingStream);
+    _userMetrics.recordSerialization(UserMetrics.MODE_STREAMED, System.nanoTime() - start);
+    serializeEvent.commit(users.size(), countingStream.count, _userMetrics.getDatasetVersion());
+  }
+
+  @Override
+  public SequenceWriter openUserArray(OutputStream outputStream) throws IOException {
+    return _userWriter.writeValuesAsArray(outputStream);
+  }
+
+  private RenderedJson render(UserSnapshot snapshot) throws IOException {
+    UserSerializeEvent serializeEvent = new UserSerializeEvent();
+    serializeEvent.begin();
+    long start = System.nanoTime();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeUserArray(snapshot.getUsers(), out);
+    byte[] bytes = out.toByteArray();
+    byte[] gzipBytes = gzip(bytes);
+    String etag = "\"" + DigestUtils.md5DigestAsHex(bytes);
+    _userMetrics.recordSerialization(UserMetrics.MODE_RENDERED, System.nanoTime() - start);
+    serializeEvent.commit(snapshot.getUsers().size(), bytes.length, snapshot.getVersion());
+    return new RenderedJson(snapshot.getVersion(), bytes, etag + "\"", gzipBytes,
+        etag + GZIP_ETAG_SUFFIX + "\"");
+  }
+
+  private void writeUserArray(List<User> users, OutputStream outputStream) throws IOException {
+    try (SequenceWriter sequenceWriter = openUserArray(outputStream)) {
+      for (User user : users) {
+        sequenceWriter.write(user);
+      }
+    }
+  }
+
+  /**
+   * Compresses at the highest level, since each version is compressed once and served many times.
+   */
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      gzipOut.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  private static RenderedJson await(CompletableFuture<RenderedJson> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      // only the exceptions render throws are ever stored
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Counts the bytes written through it, without closing the stream it writes to.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    private CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  private static class CacheEntry {
+    private final long version;
+    private final CompletableFuture<RenderedJson> future = new CompletableFuture<RenderedJson>();
+
+    private CacheEntry(long version) {
+      this.version = version;
+    }
+  }
+}
@@ -2,5 +2,5 @@ package cdit.service;
 
 import cdit.model.User;
 
-public interface UserMapperService extends CditCsvMapper<User> {
+public interface UserMapperService extends CditRecordMapper<User> {
 }
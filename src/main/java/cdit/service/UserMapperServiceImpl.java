@@ -1,17 +1,18 @@
 package cdit.service;
 
-import java.util.HashSet;
+import java.io.IOException;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.MappingIterator;
+import cdit.exception.CditException;
 import cdit.exception.UserMissingCsvHeaderException;
 import cdit.exception.UserNameIsEmptyException;
 import cdit.exception.UserSalaryInvalidTypeException;
 import cdit.exception.UserDuplicateException;
 import cdit.exception.UserSalaryOutOfRangeException;
 import cdit.model.User;
+import cdit.util.CaseInsensitiveNameSet;
 
 @Service()
 public class UserMapperServiceImpl implements UserMapperService {
@@ -19,11 +20,11 @@ public class UserMapperServiceImpl implements UserMapperService {
   private static final String COLUMN_LOWERCASE_SALARY = "salary";
 
   @Override
-  public String[] getHeaders(MappingIterator<String[]> it) throws UserMissingCsvHeaderException {
+  public String[] getHeaders(CditRecordIterator it) throws CditException, IOException {
     if (!hasHeader(it)) {
       throw new UserMissingCsvHeaderException();
     }
-    return it.next();
+    return it.next().toStringArray();
   }
 
   @Override
@@ -54,6 +55,40 @@ public class UserMapperServiceImpl implements UserMapperService {
     return new User(name, salary);
   }
 
+  /**
+   * Resolves the header once; every row then reads its two columns by index and parses the salary
+   * straight from the record, so the only per-row allocations are the name and the user itself.
+   * Errors about the name, duplicates included, are placed in its column and errors about the
+   * salary in the salary's.
+   */
+  @Override
+  public CditRecordBinding<User> bind(String[] headers) throws UserMissingCsvHeaderException {
+    Map<String, Integer> headerIndices = getHeaderIndices(headers);
+    validateHeaderIndices(headerIndices);
+    int nameIndex = headerIndices.get(COLUMN_LOWERCASE_NAME).intValue();
+    int salaryIndex = headerIndices.get(COLUMN_LOWERCASE_SALARY).intValue();
+    return new CditRecordBinding<User>() {
+      @Override
+      public User createObject(CditRecord record) throws UserSalaryInvalidTypeException {
+        String name = record.getTrimmedField(nameIndex);
+        double salary = parseSalary(record, salaryIndex);
+        return new User(name, salary);
+      }
+
+      @Override
+      public int getColumn(CditException rowError) {
+        if (rowError instanceof UserNameIsEmptyException
+            || rowError instanceof UserDuplicateException) {
+          return nameIndex + 1;
+        } else if (rowError instanceof UserSalaryInvalidTypeException
+            || rowError instanceof UserSalaryOutOfRangeException) {
+          return salaryIndex + 1;
+        }
+        return 0;
+      }
+    };
+  }
+
   @Override
   public void validateObject(User object)
       throws UserNameIsEmptyException, UserSalaryOutOfRangeException {
@@ -61,18 +96,29 @@ public class UserMapperServiceImpl implements UserMapperService {
     validateSalary(object.getSalary());
   }
 
-  public void validateObjects(List<User> objects) throws UserDuplicateException {
-    HashSet<String> userNameSet = new HashSet<String>();
+  @Override
+  public void validateObjects(List<User> objects) throws CditException {
+    CditObjectsValidator<User> objectsValidator = createObjectsValidator();
     for (User user : objects) {
-      String nameInLowerCase = user.getName().toLowerCase();
-      if (hasNameAppearedInSet(nameInLowerCase, userNameSet)) {
+      objectsValidator.validateNextObject(user);
+    }
+  }
+
+  /**
+   * Checks each user against the names seen so far as the rows stream in, so the first duplicate
+   * fails the upload straight away.
+   */
+  @Override
+  public CditObjectsValidator<User> createObjectsValidator() {
+    CaseInsensitiveNameSet userNameSet = new CaseInsensitiveNameSet();
+    return (User user) -> {
+      if (!userNameSet.add(user.getName())) {
         throw new UserDuplicateException();
       }
-      userNameSet.add(nameInLowerCase);
-    }
+    };
   }
 
-  private boolean hasHeader(MappingIterator<String[]> it) {
+  private boolean hasHeader(CditRecordIterator it) throws CditException, IOException {
     return it.hasNext();
   }
 
@@ -87,6 +133,15 @@ public class UserMapperServiceImpl implements UserMapperService {
     return d;
   }
 
+  private double parseSalary(CditRecord record, int salaryIndex)
+      throws UserSalaryInvalidTypeException {
+    try {
+      return record.parseTrimmedFieldAsDouble(salaryIndex);
+    } catch (NumberFormatException ex) {
+      throw new UserSalaryInvalidTypeException();
+    }
+  }
+
   private void validateName(String name) throws UserNameIsEmptyException {
     if (name.isEmpty()) {
       throw new UserNameIsEmptyException();
@@ -102,8 +157,4 @@ public class UserMapperServiceImpl implements UserMapperService {
   private boolean isSalaryWithinRange(double salary) {
     return User.SALARY_MIN <= salary && salary <= User.SALARY_MAX;
   }
-
-  private boolean hasNameAppearedInSet(String nameInLowerCase, HashSet<String> userNameSet) {
-    return userNameSet.contains(nameInLowerCase);
-  }
 }
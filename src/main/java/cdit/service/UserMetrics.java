@@ -0,0 +1,175 @@
+package cdit.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import cdit.exception.CditException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The meters of uploads and reads, served by {@code /actuator/metrics} and
+ * {@code /actuator/prometheus}. Without a registry in the context, as in slice tests, they are
+ * kept in a registry of their own.
+ *
+ * The parse and validation phases get one sample per upload, the database phases one per
+ * statement batch. Parsing counts everything but handing the batches on, validation included;
+ * rows are validated a batch at a time, so that the validation phases are timed exactly.
+ *
+ * The {@link UserPhaseEvent flight recorder events} of the same phases are tagged with the
+ * {@link #getDatasetVersion() dataset version} kept here.
+ */
+@Component
+public class UserMetrics {
+  public static final String UPLOAD_PHASE = "cdit.upload.phase";
+  public static final String UPLOAD_ROWS_INGESTED = "cdit.upload.rows.ingested";
+  public static final String UPLOAD_ROWS_REJECTED = "cdit.upload.rows.rejected";
+  public static final String UPLOAD_BYTES = "cdit.upload.bytes";
+  public static final String UPLOAD_LOCK_WAIT = "cdit.upload.lock.wait";
+  public static final String UPLOAD_LOCK_WAITING = "cdit.upload.lock.waiting";
+  public static final String UPLOAD_STREAM_BUFFERED = "cdit.upload.stream.buffered";
+  public static final String USERS_COUNT = "cdit.users.count";
+  public static final String USERS_SERIALIZATION = "cdit.users.serialization";
+
+  public static final String TAG_PHASE = "phase";
+  public static final String TAG_EXCEPTION = "exception";
+  public static final String TAG_MODE = "mode";
+
+  public static final String PHASE_PARSE = "parse";
+  public static final String PHASE_ROW_VALIDATION = "row-validation";
+  public static final String PHASE_DUPLICATE_CHECK = "duplicate-check";
+  public static final String PHASE_DB_DELETE = "db-delete";
+  public static final String PHASE_DB_INSERT = "db-insert";
+  public static final String PHASE_DB_UPDATE = "db-update";
+
+  /** The cached body of a snapshot, rendered and gzipped once. */
+  public static final String MODE_RENDERED = "rendered";
+  /** Written straight to the response, so the time includes waiting for the client. */
+  public static final String MODE_STREAMED = "streamed";
+  /** Encoded a chunk at a time by {@code /users/stream}, not counting the writes. */
+  public static final String MODE_CHUNKED = "chunked";
+
+  private final MeterRegistry _meterRegistry;
+  private final Timer _parseTimer;
+  private final Timer _rowValidationTimer;
+  private final Timer _duplicateCheckTimer;
+  private final Timer _dbDeleteTimer;
+  private final Timer _dbInsertTimer;
+  private final Timer _dbUpdateTimer;
+  private final Timer _lockWaitTimer;
+  private final Counter _rowsIngestedCounter;
+  private final Counter _bytesCounter;
+  private volatile LongSupplier _datasetVersion = () -> 0;
+
+  public UserMetrics(ObjectProvider<MeterRegistry> meterRegistryProvider) {
+    _meterRegistry = meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new);
+    _parseTimer = createPhaseTimer(PHASE_PARSE);
+    _rowValidationTimer = createPhaseTimer(PHASE_ROW_VALIDATION);
+    _duplicateCheckTimer = createPhaseTimer(PHASE_DUPLICATE_CHECK);
+    _dbDeleteTimer = createPhaseTimer(PHASE_DB_DELETE);
+    _dbInsertTimer = createPhaseTimer(PHASE_DB_INSERT);
+    _dbUpdateTimer = createPhaseTimer(PHASE_DB_UPDATE);
+    _lockWaitTimer = Timer.builder(UPLOAD_LOCK_WAIT)
+        .description("Time uploads waited for the uploads before them").register(_meterRegistry);
+    _rowsIngestedCounter = Counter.builder(UPLOAD_ROWS_INGESTED)
+        .description("Rows of the uploads that were stored").register(_meterRegistry);
+    _bytesCounter = Counter.builder(UPLOAD_BYTES).baseUnit("bytes")
+        .description("Bytes of CSV uploaded").register(_meterRegistry);
+  }
+
+  public MeterRegistry getMeterRegistry() {
+    return _meterRegistry;
+  }
+
+  /**
+   * The version of the users snapshot last published, or 0 before the first one.
+   */
+  public long getDatasetVersion() {
+    return _datasetVersion.getAsLong();
+  }
+
+  public void recordParse(long nanos) {
+    _parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordRowValidation(long nanos) {
+    _rowValidationTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordDuplicateCheck(long nanos) {
+    _duplicateCheckTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordLockWait(long nanos) {
+    _lockWaitTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void timeDbDelete(Runnable delete) {
+    _dbDeleteTimer.record(delete);
+  }
+
+  public void timeDbInsert(Runnable insert) {
+    _dbInsertTimer.record(insert);
+  }
+
+  public void timeDbUpdate(Runnable update) {
+    _dbUpdateTimer.record(update);
+  }
+
+  public void recordSerialization(String mode, long nanos) {
+    Timer.builder(USERS_SERIALIZATION).tag(TAG_MODE, mode)
+        .description("Time spent writing users as JSON").register(_meterRegistry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void countIngestedRows(long count) {
+    _rowsIngestedCounter.increment(count);
+  }
+
+  /**
+   * Counts the row that failed an upload, by the exception it failed with. A file without a
+   * header counts as a rejected row too.
+   */
+  public void countRejectedRow(CditException exception) {
+    Counter.builder(UPLOAD_ROWS_REJECTED).tag(TAG_EXCEPTION, exception.getClass().getSimpleName())
+        .description("Rows that failed an upload").register(_meterRegistry).increment();
+  }
+
+  public void countUploadedBytes(long count) {
+    _bytesCounter.increment(count);
+  }
+
+  /**
+   * Registers the gauges of {@code userService}, which are read without blocking at every scrape.
+   * Only the first service registered per registry is measured, while the dataset version is
+   * read from the service registered last.
+   */
+  public <T> void registerUserService(T userService, ToDoubleFunction<T> userCount,
+      ToDoubleFunction<T> waitingUploadCount, ToLongFunction<T> datasetVersion) {
+    _datasetVersion = () -> datasetVersion.applyAsLong(userService);
+    Gauge.builder(USERS_COUNT, userService, userCount)
+        .description("Users in the current snapshot").register(_meterRegistry);
+    Gauge.builder(UPLOAD_LOCK_WAITING, userService, waitingUploadCount)
+        .description("Uploads waiting for the uploads before them").register(_meterRegistry);
+  }
+
+  /**
+   * Registers the gauge of the users that uploads to {@code /users/stream} keep in memory.
+   */
+  public <T> void registerStreamBuffer(T budget, ToDoubleFunction<T> bufferedUserCount) {
+    Gauge.builder(UPLOAD_STREAM_BUFFERED, budget, bufferedUserCount)
+        .description("Users kept by streamed uploads until their jobs take them")
+        .register(_meterRegistry);
+  }
+
+  private Timer createPhaseTimer(String phase) {
+    return Timer.builder(UPLOAD_PHASE).tag(TAG_PHASE, phase)
+        .description("Time spent in each phase of uploads").register(_meterRegistry);
+  }
+}
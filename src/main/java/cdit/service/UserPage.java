@@ -0,0 +1,25 @@
+package cdit.service;
+
+import java.util.List;
+import cdit.model.User;
+
+/**
+ * One page of users ordered by name. {@code nextCursor} is {@code null} on the last page.
+ */
+public final class UserPage {
+  private final List<User> _users;
+  private final String _nextCursor;
+
+  UserPage(List<User> users, String nextCursor) {
+    _users = users;
+    _nextCursor = nextCursor;
+  }
+
+  public List<User> getUsers() {
+    return _users;
+  }
+
+  public String getNextCursor() {
+    return _nextCursor;
+  }
+}
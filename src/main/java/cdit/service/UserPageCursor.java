@@ -0,0 +1,64 @@
+package cdit.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import cdit.exception.InvalidCursorException;
+
+/**
+ * The position after the last user of a page: the snapshot it was read from and the name of that
+ * user. It is sent to clients as URL-safe Base64 and is opaque to them.
+ *
+ * The epoch identifies the running service, because snapshot versions start again from the first
+ * version after a restart.
+ */
+final class UserPageCursor {
+  private static final int HEADER_LENGTH = 2 * Long.BYTES;
+
+  private final long _epoch;
+  private final long _version;
+  private final String _lastName;
+
+  UserPageCursor(long epoch, long version, String lastName) {
+    _epoch = epoch;
+    _version = version;
+    _lastName = lastName;
+  }
+
+  long getEpoch() {
+    return _epoch;
+  }
+
+  long getVersion() {
+    return _version;
+  }
+
+  String getLastName() {
+    return _lastName;
+  }
+
+  String encode() {
+    byte[] lastName = _lastName.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + lastName.length);
+    buffer.putLong(_epoch).putLong(_version).put(lastName);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  static UserPageCursor decode(String cursor) throws InvalidCursorException {
+    byte[] bytes;
+    try {
+      bytes = Base64.getUrlDecoder().decode(cursor);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidCursorException();
+    }
+    if (bytes.length < HEADER_LENGTH) {
+      throw new InvalidCursorException();
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    long epoch = buffer.getLong();
+    long version = buffer.getLong();
+    String lastName =
+        new String(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, StandardCharsets.UTF_8);
+    return new UserPageCursor(epoch, version, lastName);
+  }
+}
@@ -0,0 +1,11 @@
+package cdit.service;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cdit.users.Parse")
+@Label("Parse Users")
+@Description("Reading, tokenizing and binding a stretch of uploaded rows")
+public final class UserParseEvent extends UserBytesPhaseEvent {
+}
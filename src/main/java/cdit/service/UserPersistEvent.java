@@ -0,0 +1,14 @@
+package cdit.service;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Batches reach the store as users, so this event counts rows only.
+ */
+@Name("cdit.users.Persist")
+@Label("Persist Users")
+@Description("Writing uploaded users to the database or to the columnar snapshot")
+public final class UserPersistEvent extends UserPhaseEvent {
+}
@@ -0,0 +1,36 @@
+package cdit.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event around one phase of an upload or a read, committed by the thread
+ * doing the work so that recordings line it up with that thread's samples. The events cost next
+ * to nothing while no recording has them enabled.
+ */
+@Category({"CDIT", "Users"})
+@StackTrace(false)
+public abstract class UserPhaseEvent extends Event {
+  @Label("Rows")
+  @Description("Users the phase went through")
+  long rows;
+
+  @Label("Dataset Version")
+  @Description("Version of the users snapshot served when the phase ended")
+  long version;
+
+  /**
+   * Ends the event and commits it if a recording asked for it.
+   */
+  public void commit(long rows, long version) {
+    end();
+    if (shouldCommit()) {
+      this.rows = rows;
+      this.version = version;
+      commit();
+    }
+  }
+}
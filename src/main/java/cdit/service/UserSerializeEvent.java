@@ -0,0 +1,11 @@
+package cdit.service;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cdit.users.Serialize")
+@Label("Serialize Users")
+@Description("Writing users as JSON for a response")
+public final class UserSerializeEvent extends UserBytesPhaseEvent {
+}
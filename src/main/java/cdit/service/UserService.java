@@ -1,10 +1,25 @@
 package cdit.service;
 
+import java.io.IOException;
 import java.util.List;
+import cdit.exception.CditException;
 import cdit.model.User;
 
 public interface UserService {
   public void updateUsers(List<User> users);
 
+  public void updateUsers(CditBatchProducer<User> userBatchProducer)
+      throws CditException, IOException;
+
+  public UserDelta updateChangedUsers(CditBatchProducer<User> userBatchProducer)
+      throws CditException, IOException;
+
   public List<User> getAllUsers();
+
+  public UserSnapshot getSnapshot();
+
+  public UserPage getUsersPage(String cursor, int limit) throws CditException;
+
+  public List<User> findUsers(Double minSalary, Double maxSalary, UserSortOrder sortOrder,
+      Integer limit) throws CditException;
 }
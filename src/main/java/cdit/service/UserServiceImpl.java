@@ -1,41 +1,432 @@
 package cdit.service;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 import cdit.dao.UserRepository;
+import cdit.exception.CditException;
+import cdit.exception.CursorExpiredException;
+import cdit.exception.InvalidPageLimitException;
+import cdit.exception.InvalidUserQueryException;
 import cdit.model.User;
 
 @Service()
 public class UserServiceImpl implements UserService {
+  public static final int MAX_PAGE_LIMIT = 10000;
+  private static final long FIRST_SNAPSHOT_VERSION = 1;
+
   private final UserRepository _userRepository;
-  private final ReentrantLock _lock = new ReentrantLock();
+  private final EntityManager _entityManager;
+  private final PlatformTransactionManager _transactionManager;
+  /** Serializes uploads, which share the staging table. Readers never take it. */
+  private final ReentrantLock _updateLock = new ReentrantLock();
+  /** Loaded from the database by the first reader, then replaced after every upload. */
+  private final AtomicReference<UserSnapshot> _snapshot = new AtomicReference<UserSnapshot>();
+  /** The latest snapshots by version, kept so that page cursors outlive a few uploads. */
+  private final ConcurrentHashMap<Long, UserSnapshot> _retainedSnapshots =
+      new ConcurrentHashMap<Long, UserSnapshot>();
+  private final int _retainedSnapshotCount;
+  private final double[] _statisticsPercentiles;
+  private final int _histogramBucketCount;
+  private final UserStoreType _storeType;
+  /** Where every published snapshot is saved, or {@code null} when they are not saved. */
+  private final UserSnapshotFile _snapshotFile;
+  private final UserMetrics _userMetrics;
+  /**
+   * Set when the snapshot was loaded from {@link #_snapshotFile} while the database stayed empty,
+   * so the next delta upload has to write every user. Guarded by {@link #_updateLock}.
+   */
+  private boolean _isDatabaseBehindSnapshot;
+  private final long _cursorEpoch = ThreadLocalRandom.current().nextLong();
+
+  private Logger _logger = LoggerFactory.getLogger(UserServiceImpl.class);
 
-  public UserServiceImpl(UserRepository userRepository) {
+  public UserServiceImpl(UserRepository userRepository, EntityManager entityManager,
+      PlatformTransactionManager transactionManager,
+      @Value("${cdit.users.retained-snapshots:2}") int retainedSnapshotCount,
+      @Value("${cdit.users.stats.percentiles:50,90,95,99}") double[] statisticsPercentiles,
+      @Value("${cdit.users.stats.histogram-buckets:40}") int histogramBucketCount,
+      @Value("${cdit.users.store:jpa}") String storeType,
+      @Value("${cdit.users.snapshot-dir:}") String snapshotDirectory, UserMetrics userMetrics) {
+    for (double percentile : statisticsPercentiles) {
+      if (!(0 <= percentile && percentile <= 100)) {
+        throw new IllegalArgumentException("Percentiles must be between 0 and 100: " + percentile);
+      }
+    }
+    if (histogramBucketCount < 1) {
+      throw new IllegalArgumentException("There must be at least one histogram bucket.");
+    }
     _userRepository = userRepository;
+    _entityManager = entityManager;
+    _transactionManager = transactionManager;
+    _retainedSnapshotCount = Math.max(1, retainedSnapshotCount);
+    _statisticsPercentiles = statisticsPercentiles.clone();
+    _histogramBucketCount = histogramBucketCount;
+    _storeType = UserStoreType.fromProperty(storeType);
+    _snapshotFile = snapshotDirectory.trim().isEmpty() ? null
+        : new UserSnapshotFile(Paths.get(snapshotDirectory.trim()));
+    _userMetrics = userMetrics;
+    _userMetrics.registerUserService(this, UserServiceImpl::getPublishedUserCount,
+        (UserServiceImpl userService) -> userService._updateLock.getQueueLength(),
+        UserServiceImpl::getPublishedVersion);
+  }
+
+  /**
+   * Serves the snapshot saved before the last shutdown, if any, instead of loading users from the
+   * database, which with the in-memory H2 database is empty after a restart. A snapshot that
+   * cannot be read is logged and ignored.
+   */
+  @PostConstruct
+  public void loadSavedSnapshot() {
+    if (_snapshotFile == null) {
+      return;
+    }
+    try {
+      UserSnapshot savedSnapshot =
+          _snapshotFile.load(_histogramBucketCount, _statisticsPercentiles);
+      if (savedSnapshot != null && _snapshot.compareAndSet(null, savedSnapshot)) {
+        retainSnapshot(savedSnapshot);
+        _isDatabaseBehindSnapshot = _storeType == UserStoreType.JPA;
+        _logger.info("Loaded {} users from {}", savedSnapshot.getUsers().size(),
+            _snapshotFile.getPath());
+      }
+    } catch (IOException | RuntimeException e) {
+      _logger.warn("Ignored the saved users in " + _snapshotFile.getPath(), e);
+    }
   }
 
   @Override
   public void updateUsers(List<User> users) {
-    _lock.lock();
     try {
-      _userRepository.deleteAll();
-      _userRepository.saveAll(users);
-      _userRepository.flush();
+      updateUsers((CditBatchConsumer<User> batchConsumer) -> batchConsumer.accept(users));
+    } catch (CditException | IOException e) {
+      // a fixed list neither fails validation nor does I/O
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Replaces every user with the batches pushed by {@code userBatchProducer}.
+   *
+   * The batches are written with batched JDBC inserts into a staging table, in a transaction of
+   * their own that leaves the users table alone. Only once the whole upload is staged does a short
+   * transaction swap the staged rows in, so readers keep seeing the previous users for the whole
+   * upload and never wait for it. A failed upload leaves the users table untouched.
+   *
+   * The uploaded users are packed into columns and their statistics gathered as they are staged,
+   * and both are published as the next snapshot once the swap has committed. With the
+   * {@link UserStoreType#COLUMNAR} store the database is skipped and only the snapshot is built.
+   * When snapshots are saved, the new one is written before the next upload may start; the upload
+   * has committed by then, so a failed write is logged rather than failing it.
+   */
+  @Override
+  public void updateUsers(CditBatchProducer<User> userBatchProducer)
+      throws CditException, IOException {
+    lockForUpdate();
+    try {
+      ColumnarUsers.Builder usersBuilder = new ColumnarUsers.Builder();
+      UserStatisticsAccumulator statisticsAccumulator =
+          new UserStatisticsAccumulator(_histogramBucketCount);
+      if (_storeType == UserStoreType.COLUMNAR) {
+        userBatchProducer.produce((List<User> batch) -> {
+          usersBuilder.add(batch);
+          statisticsAccumulator.add(batch);
+        });
+      } else {
+        runInTransaction(TransactionDefinition.PROPAGATION_REQUIRES_NEW,
+            () -> _userMetrics.timeDbDelete(_userRepository::resetStagedUsers));
+        runInTransaction(TransactionDefinition.PROPAGATION_REQUIRES_NEW,
+            () -> userBatchProducer.produce((List<User> batch) -> {
+              persist(batch.size(),
+                  () -> _userMetrics.timeDbInsert(() -> _userRepository.stageUsers(batch)));
+              usersBuilder.add(batch);
+              statisticsAccumulator.add(batch);
+            }));
+      }
+      ColumnarUsers users = usersBuilder.build();
+      if (_storeType == UserStoreType.JPA) {
+        runInTransaction(TransactionDefinition.PROPAGATION_REQUIRED,
+            () -> persist(users.size(), () -> {
+              flushAndClear();
+              _userMetrics.timeDbDelete(_userRepository::deleteAllUsers);
+              _userMetrics.timeDbInsert(_userRepository::publishStagedUsers);
+            }));
+      }
+      _isDatabaseBehindSnapshot = false;
+      publishSnapshot(users, statisticsAccumulator);
+      if (_storeType == UserStoreType.JPA) {
+        runInTransaction(TransactionDefinition.PROPAGATION_REQUIRES_NEW,
+            () -> _userMetrics.timeDbDelete(_userRepository::resetStagedUsers));
+      }
+    } finally {
+      _updateLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces every user with the batches pushed by {@code userBatchProducer} like
+   * {@link #updateUsers(CditBatchProducer)}, but writes only the users that changed.
+   *
+   * The upload is hash joined by name against the current snapshot through its name index while
+   * it is read: unknown names are inserted, known names with another salary are updated, and the
+   * current users the upload did not mention are deleted. The three sets are then applied as JDBC
+   * batches in one short transaction, so an upload that changes a few hundred of a million users
+   * writes a few hundred rows. The new snapshot is built from the whole upload as usual.
+   */
+  @Override
+  public UserDelta updateChangedUsers(CditBatchProducer<User> userBatchProducer)
+      throws CditException, IOException {
+    lockForUpdate();
+    try {
+      ColumnarUsers currentUsers = getSnapshot().getUsers();
+      boolean[] isCurrentUserKept = new boolean[currentUsers.size()];
+      List<User> insertedUsers = new ArrayList<User>();
+      List<User> updatedUsers = new ArrayList<User>();
+      ColumnarUsers.Builder usersBuilder = new ColumnarUsers.Builder();
+      UserStatisticsAccumulator statisticsAccumulator =
+          new UserStatisticsAccumulator(_histogramBucketCount);
+      userBatchProducer.produce((List<User> batch) -> {
+        usersBuilder.add(batch);
+        statisticsAccumulator.add(batch);
+        for (User user : batch) {
+          int row = currentUsers.getRow(user.getName());
+          if (row < 0) {
+            insertedUsers.add(user);
+          } else {
+            isCurrentUserKept[row] = true;
+            if (Double.compare(currentUsers.getSalary(row), user.getSalary()) != 0) {
+              updatedUsers.add(user);
+            }
+          }
+        }
+      });
+      List<String> deletedNames = new ArrayList<String>();
+      for (int row = 0; row < isCurrentUserKept.length; row++) {
+        if (!isCurrentUserKept[row]) {
+          deletedNames.add(currentUsers.getName(row));
+        }
+      }
+
+      ColumnarUsers users = usersBuilder.build();
+      if (_storeType == UserStoreType.JPA) {
+        int writtenRowCount = _isDatabaseBehindSnapshot ? users.size()
+            : deletedNames.size() + updatedUsers.size() + insertedUsers.size();
+        runInTransaction(TransactionDefinition.PROPAGATION_REQUIRED,
+            () -> persist(writtenRowCount, () -> {
+              flushAndClear();
+              if (_isDatabaseBehindSnapshot) {
+                _userMetrics.timeDbDelete(_userRepository::deleteAllUsers);
+                _userMetrics.timeDbInsert(() -> _userRepository.insertUsers(users));
+              } else {
+                _userMetrics.timeDbDelete(() -> _userRepository.deleteUsers(deletedNames));
+                _userMetrics.timeDbUpdate(
+                    () -> _userRepository.updateUserSalaries(updatedUsers));
+                _userMetrics.timeDbInsert(() -> _userRepository.insertUsers(insertedUsers));
+              }
+            }));
+        _isDatabaseBehindSnapshot = false;
+      }
+      publishSnapshot(users, statisticsAccumulator);
+      return new UserDelta(insertedUsers.size(), updatedUsers.size(), deletedNames.size());
     } finally {
-      _lock.unlock();
+      _updateLock.unlock();
     }
   }
 
   @Override
   public List<User> getAllUsers() {
-    _lock.lock();
-    List<User> users = null;
+    return getSnapshot().getUsers();
+  }
+
+  /**
+   * Lock-free: readers only read {@link #_snapshot}. Until the first upload the snapshot is loaded
+   * from the database, or is empty with the {@link UserStoreType#COLUMNAR} store, and a load that
+   * loses the race to an upload is discarded. Uploads derive their version from the snapshot they
+   * replace, so versions only ever increase.
+   */
+  @Override
+  public UserSnapshot getSnapshot() {
+    UserSnapshot snapshot = _snapshot.get();
+    if (snapshot != null) {
+      return snapshot;
+    }
+    ColumnarUsers.Builder usersBuilder = new ColumnarUsers.Builder();
+    UserStatisticsAccumulator statisticsAccumulator =
+        new UserStatisticsAccumulator(_histogramBucketCount);
+    if (_storeType == UserStoreType.JPA) {
+      _userRepository.scanUsers((User user) -> {
+        usersBuilder.add(user.getName(), user.getSalary());
+        statisticsAccumulator.add(user);
+      });
+    }
+    UserSnapshot loadedSnapshot = new UserSnapshot(FIRST_SNAPSHOT_VERSION, usersBuilder.build(),
+        statisticsAccumulator, _statisticsPercentiles);
+    if (_snapshot.compareAndSet(null, loadedSnapshot)) {
+      retainSnapshot(loadedSnapshot);
+    }
+    return _snapshot.get();
+  }
+
+  /**
+   * Reads the {@code limit} users following {@code cursor} in name order, or the first
+   * {@code limit} users of the current snapshot when there is no cursor. Pages are found by binary
+   * search on the name in the cursor rather than by offset, and every page of a cursor chain comes
+   * from the snapshot the chain started on, even if uploads land in between.
+   */
+  @Override
+  public UserPage getUsersPage(String cursor, int limit) throws CditException {
+    if (limit < 1 || limit > MAX_PAGE_LIMIT) {
+      throw new InvalidPageLimitException();
+    }
+    UserSnapshot snapshot;
+    int start;
+    if (cursor == null) {
+      snapshot = getSnapshot();
+      start = 0;
+    } else {
+      UserPageCursor pageCursor = UserPageCursor.decode(cursor);
+      snapshot = pageCursor.getEpoch() == _cursorEpoch
+          ? _retainedSnapshots.get(pageCursor.getVersion())
+          : null;
+      if (snapshot == null) {
+        throw new CursorExpiredException();
+      }
+      start = snapshot.indexOfFirstNameAfter(pageCursor.getLastName());
+    }
+
+    List<User> usersSortedByName = snapshot.getUsersSortedByName();
+    int end = (int) Math.min((long) start + limit, usersSortedByName.size());
+    List<User> users = usersSortedByName.subList(start, end);
+    String nextCursor = end < usersSortedByName.size()
+        ? new UserPageCursor(_cursorEpoch, snapshot.getVersion(),
+            usersSortedByName.get(end - 1).getName()).encode()
+        : null;
+    return new UserPage(users, nextCursor);
+  }
+
+  /**
+   * Missing bounds leave the salary range open and a missing limit returns every match.
+   */
+  @Override
+  public List<User> findUsers(Double minSalary, Double maxSalary, UserSortOrder sortOrder,
+      Integer limit) throws CditException {
+    if (limit != null && (limit < 1 || limit > MAX_PAGE_LIMIT)) {
+      throw new InvalidPageLimitException();
+    }
+    if ((minSalary != null && minSalary.isNaN()) || (maxSalary != null && maxSalary.isNaN())) {
+      throw new InvalidUserQueryException();
+    }
+    return getSnapshot().findUsers(
+        minSalary == null ? Double.NEGATIVE_INFINITY : minSalary.doubleValue(),
+        maxSalary == null ? Double.POSITIVE_INFINITY : maxSalary.doubleValue(), sortOrder,
+        limit == null ? Integer.MAX_VALUE : limit.intValue());
+  }
+
+  /**
+   * Publishes the next snapshot, deriving its version from the one it replaces, and saves it.
+   */
+  private void publishSnapshot(ColumnarUsers users,
+      UserStatisticsAccumulator statisticsAccumulator) {
+    UserSnapshot snapshot = _snapshot.updateAndGet((UserSnapshot current) -> new UserSnapshot(
+        current == null ? FIRST_SNAPSHOT_VERSION : current.getVersion() + 1, users,
+        statisticsAccumulator, _statisticsPercentiles));
+    retainSnapshot(snapshot);
+    _userMetrics.countIngestedRows(users.size());
+    saveSnapshot(snapshot);
+  }
+
+  private void lockForUpdate() {
+    long start = System.nanoTime();
+    _updateLock.lock();
+    _userMetrics.recordLockWait(System.nanoTime() - start);
+  }
+
+  /**
+   * The size of the published snapshot, without loading one from the database for a scrape.
+   */
+  private double getPublishedUserCount() {
+    UserSnapshot snapshot = _snapshot.get();
+    return snapshot == null ? 0 : snapshot.getUsers().size();
+  }
+
+  /**
+   * The version of the published snapshot, or 0 before there is one.
+   */
+  private long getPublishedVersion() {
+    UserSnapshot snapshot = _snapshot.get();
+    return snapshot == null ? 0 : snapshot.getVersion();
+  }
+
+  /**
+   * Runs {@code statements}, which write {@code rowCount} rows to the database, in a
+   * {@link UserPersistEvent}. The commit of their transaction is not part of the event.
+   */
+  private void persist(long rowCount, Runnable statements) {
+    UserPersistEvent persistEvent = new UserPersistEvent();
+    persistEvent.begin();
     try {
-      users = _userRepository.findAll();
+      statements.run();
     } finally {
-      _lock.unlock();
+      persistEvent.commit(rowCount, getPublishedVersion());
     }
-    return users;
+  }
+
+  private void saveSnapshot(UserSnapshot snapshot) {
+    if (_snapshotFile == null) {
+      return;
+    }
+    try {
+      _snapshotFile.save(snapshot);
+    } catch (IOException | RuntimeException e) {
+      _logger.error("Could not save the users to " + _snapshotFile.getPath(), e);
+    }
+  }
+
+  private void retainSnapshot(UserSnapshot snapshot) {
+    _retainedSnapshots.put(snapshot.getVersion(), snapshot);
+    long oldestRetainedVersion = snapshot.getVersion() - _retainedSnapshotCount + 1;
+    _retainedSnapshots.keySet().removeIf((Long version) -> version < oldestRetainedVersion);
+  }
+
+  private void runInTransaction(int propagationBehavior, TransactionWork work)
+      throws CditException, IOException {
+    TransactionStatus status =
+        _transactionManager.getTransaction(new DefaultTransactionDefinition(propagationBehavior));
+    try {
+      work.run();
+    } catch (CditException | IOException | RuntimeException | Error e) {
+      _transactionManager.rollback(status);
+      throw e;
+    }
+    _transactionManager.commit(status);
+  }
+
+  /**
+   * Writes pending entity changes before the JDBC statements run and drops managed entities that
+   * those statements are about to make stale.
+   */
+  private void flushAndClear() {
+    _userRepository.flush();
+    _entityManager.clear();
+  }
+
+  @FunctionalInterface
+  private interface TransactionWork {
+    void run() throws CditException, IOException;
   }
 }
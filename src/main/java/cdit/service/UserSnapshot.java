@@ -0,0 +1,197 @@
+package cdit.service;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import cdit.model.User;
+import cdit.util.IndexSorter;
+
+/**
+ * An immutable view of every user as of one successful upload. A new snapshot with a higher
+ * version replaces the old one after each upload, so holders of a snapshot never see it change.
+ *
+ * The users are held in columns, and the indexes are built once with the snapshot: the salaries in
+ * ascending order with the row of each, and the rows in name order with the rank of each row in
+ * that order. The salary statistics gathered while the users were read are completed and kept
+ * with it.
+ */
+public final class UserSnapshot {
+  private final long _version;
+  private final ColumnarUsers _users;
+  private final double[] _sortedSalaries;
+  private final int[] _salaryOrder;
+  private final int[] _nameOrder;
+  private final int[] _nameRanks;
+  private final UserStatistics _statistics;
+
+  UserSnapshot(long version, ColumnarUsers users, UserStatisticsAccumulator statisticsAccumulator,
+      double[] percentiles) {
+    this(version, users,
+        IndexSorter.sort(users.size(),
+            (int a, int b) -> Double.compare(users.getSalary(a), users.getSalary(b))),
+        IndexSorter.sort(users.size(), users::compareNames), statisticsAccumulator, percentiles);
+  }
+
+  /**
+   * Takes the salary and name orders as they are, as read back by {@link UserSnapshotFile}.
+   */
+  UserSnapshot(long version, ColumnarUsers users, int[] salaryOrder, int[] nameOrder,
+      UserStatisticsAccumulator statisticsAccumulator, double[] percentiles) {
+    assert (salaryOrder.length == users.size() && nameOrder.length == users.size());
+    _version = version;
+    _users = users;
+
+    int size = users.size();
+    _salaryOrder = salaryOrder;
+    _sortedSalaries = new double[size];
+    for (int i = 0; i < size; i++) {
+      _sortedSalaries[i] = users.getSalary(_salaryOrder[i]);
+    }
+
+    _nameOrder = nameOrder;
+    _nameRanks = new int[size];
+    for (int rank = 0; rank < size; rank++) {
+      _nameRanks[_nameOrder[rank]] = rank;
+    }
+
+    _statistics = statisticsAccumulator.toStatistics(version, _sortedSalaries, percentiles);
+  }
+
+  public long getVersion() {
+    return _version;
+  }
+
+  public ColumnarUsers getUsers() {
+    return _users;
+  }
+
+  public UserStatistics getStatistics() {
+    return _statistics;
+  }
+
+  int[] getSalaryOrder() {
+    return _salaryOrder;
+  }
+
+  int[] getNameOrder() {
+    return _nameOrder;
+  }
+
+  public List<User> getUsersSortedByName() {
+    return new RowList(_nameOrder, 0, _nameOrder.length);
+  }
+
+  /**
+   * The position in {@link #getUsersSortedByName()} of the first user whose name sorts after
+   * {@code name}, found by binary search.
+   */
+  public int indexOfFirstNameAfter(String name) {
+    byte[] encodedName = ColumnarUsers.encodeName(name);
+    int low = 0;
+    int high = _nameOrder.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (_users.compareName(_nameOrder[middle], encodedName) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The first {@code limit} users earning between {@code minSalary} and {@code maxSalary}
+   * inclusive, in {@code sortOrder}. The salary range is two binary searches over the sorted
+   * salaries; only when the range is not ordered by salary are its rows sorted again, as primitive
+   * ranks or row numbers.
+   */
+  public List<User> findUsers(double minSalary, double maxSalary, UserSortOrder sortOrder,
+      int limit) {
+    int from = indexOfFirstSalaryNotBelow(minSalary);
+    int to = Math.max(from, indexOfFirstSalaryAbove(maxSalary));
+    boolean isWholeDataset = from == 0 && to == _users.size();
+
+    if (sortOrder == UserSortOrder.SALARY) {
+      return new RowList(_salaryOrder, from, (int) Math.min(to, (long) from + limit));
+    } else if (sortOrder == UserSortOrder.NAME) {
+      if (isWholeDataset) {
+        return new RowList(_nameOrder, 0, Math.min(to, limit));
+      }
+      int[] ranks = new int[to - from];
+      for (int i = from; i < to; i++) {
+        ranks[i - from] = _nameRanks[_salaryOrder[i]];
+      }
+      Arrays.sort(ranks);
+      int size = Math.min(ranks.length, limit);
+      int[] rows = new int[size];
+      for (int i = 0; i < size; i++) {
+        rows[i] = _nameOrder[ranks[i]];
+      }
+      return new RowList(rows, 0, size);
+    }
+    if (isWholeDataset) {
+      return _users.subList(0, Math.min(to, limit));
+    }
+    int[] rows = Arrays.copyOfRange(_salaryOrder, from, to);
+    Arrays.sort(rows);
+    return new RowList(rows, 0, Math.min(rows.length, limit));
+  }
+
+  private int indexOfFirstSalaryNotBelow(double salary) {
+    int low = 0;
+    int high = _sortedSalaries.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (_sortedSalaries[middle] < salary) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int indexOfFirstSalaryAbove(double salary) {
+    int low = 0;
+    int high = _sortedSalaries.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (_sortedSalaries[middle] <= salary) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * An unmodifiable view of the users at {@code rows[from]} to {@code rows[to - 1]}.
+   */
+  private class RowList extends AbstractList<User> implements RandomAccess {
+    private final int[] _rows;
+    private final int _from;
+    private final int _size;
+
+    private RowList(int[] rows, int from, int to) {
+      _rows = rows;
+      _from = from;
+      _size = to - from;
+    }
+
+    @Override
+    public User get(int index) {
+      if (index < 0 || index >= _size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+      }
+      return _users.get(_rows[_from + index]);
+    }
+
+    @Override
+    public int size() {
+      return _size;
+    }
+  }
+}
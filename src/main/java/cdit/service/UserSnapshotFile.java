@@ -0,0 +1,243 @@
+package cdit.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the latest snapshot in one binary file, so that users survive a restart without being
+ * parsed or inserted again.
+ *
+ * The file holds a header and then the columns of {@link ColumnarUsers}, its name index and the
+ * salary and name orders of the {@link UserSnapshot}, all little-endian, so loading only copies
+ * arrays and sorts nothing. It is written to a temporary file in the same directory, forced to
+ * disk and renamed over the previous one, so a crash leaves either the old or the new snapshot.
+ * Loading maps the file read-only and bulk-copies the arrays out of the page cache, then checks
+ * that every offset, row and slot in them is in range, so that a corrupt file fails to load
+ * rather than failing or answering wrongly once it is queried.
+ */
+final class UserSnapshotFile {
+  static final String FILE_NAME = "users.snapshot";
+  /** "CDITUSRS" */
+  private static final long MAGIC = 0x4344495455535253L;
+  private static final int FORMAT_VERSION = 1;
+  /** Magic, format version, snapshot version, user count, name bytes and row slot count. */
+  private static final int HEADER_SIZE = 8 + 4 + 8 + 4 + 4 + 4;
+  private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+  private final Path _file;
+
+  UserSnapshotFile(Path directory) {
+    _file = directory.resolve(FILE_NAME);
+  }
+
+  Path getPath() {
+    return _file;
+  }
+
+  void save(UserSnapshot snapshot) throws IOException {
+    ColumnarUsers users = snapshot.getUsers();
+    Path directory = _file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, FILE_NAME, ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+        ChannelWriter writer = new ChannelWriter(channel);
+        writer.putLong(MAGIC);
+        writer.putInt(FORMAT_VERSION);
+        writer.putLong(snapshot.getVersion());
+        writer.putInt(users.size());
+        writer.putInt(users.getNameColumn().length);
+        writer.putInt(users.getRowSlots().length);
+        writer.putDoubles(users.getSalaryColumn());
+        writer.putInts(users.getNameEndColumn());
+        writer.putInts(users.getRowSlots());
+        writer.putInts(snapshot.getSalaryOrder());
+        writer.putInts(snapshot.getNameOrder());
+        writer.putBytes(users.getNameColumn());
+        writer.flush();
+        channel.force(true);
+      }
+      Files.move(temporaryFile, _file, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Loads the saved snapshot with its statistics gathered again, or returns {@code null} when none
+   * has been saved.
+   */
+  UserSnapshot load(int histogramBucketCount, double[] percentiles) throws IOException {
+    if (!Files.exists(_file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(_file, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+        throw new IOException("Not a user snapshot: " + _file);
+      }
+      ByteBuffer buffer =
+          channel.map(MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getLong() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        throw new IOException("Not a user snapshot: " + _file);
+      }
+      long version = buffer.getLong();
+      int size = buffer.getInt();
+      int namesLength = buffer.getInt();
+      int rowSlotCount = buffer.getInt();
+      if (size < 0 || namesLength < 0 || Integer.bitCount(rowSlotCount) != 1
+          || fileSize != HEADER_SIZE + 20L * size + 4L * rowSlotCount + namesLength) {
+        throw new IOException("Truncated user snapshot: " + _file);
+      }
+
+      double[] salaries = new double[size];
+      buffer.asDoubleBuffer().get(salaries);
+      buffer.position(buffer.position() + 8 * size);
+      int[] nameEnds = getInts(buffer, size);
+      int[] rowSlots = getInts(buffer, rowSlotCount);
+      int[] salaryOrder = getInts(buffer, size);
+      int[] nameOrder = getInts(buffer, size);
+      byte[] names = new byte[namesLength];
+      buffer.get(names);
+      if (!isNameEndColumn(nameEnds, namesLength) || !isRowSlots(rowSlots, size)
+          || !isPermutation(salaryOrder) || !isPermutation(nameOrder)) {
+        throw new IOException("Corrupt user snapshot: " + _file);
+      }
+
+      UserStatisticsAccumulator statisticsAccumulator =
+          new UserStatisticsAccumulator(histogramBucketCount);
+      for (double salary : salaries) {
+        statisticsAccumulator.add(salary);
+      }
+      return new UserSnapshot(version, new ColumnarUsers(salaries, names, nameEnds, rowSlots),
+          salaryOrder, nameOrder, statisticsAccumulator, percentiles);
+    }
+  }
+
+  /**
+   * Whether the names end in order and the last one ends the name bytes.
+   */
+  private static boolean isNameEndColumn(int[] nameEnds, int namesLength) {
+    int previousEnd = 0;
+    for (int nameEnd : nameEnds) {
+      if (nameEnd < previousEnd) {
+        return false;
+      }
+      previousEnd = nameEnd;
+    }
+    return previousEnd == namesLength;
+  }
+
+  /**
+   * Whether the slots hold every row once, as its row plus one, and leave a slot empty for lookups
+   * of missing names to stop at.
+   */
+  private static boolean isRowSlots(int[] rowSlots, int size) {
+    if (rowSlots.length <= size) {
+      return false;
+    }
+    boolean[] isRowSeen = new boolean[size];
+    int rowCount = 0;
+    for (int rowSlot : rowSlots) {
+      if (rowSlot == 0) {
+        continue;
+      } else if (rowSlot < 0 || rowSlot > size || isRowSeen[rowSlot - 1]) {
+        return false;
+      }
+      isRowSeen[rowSlot - 1] = true;
+      rowCount++;
+    }
+    return rowCount == size;
+  }
+
+  private static boolean isPermutation(int[] rows) {
+    boolean[] isRowSeen = new boolean[rows.length];
+    for (int row : rows) {
+      if (row < 0 || row >= rows.length || isRowSeen[row]) {
+        return false;
+      }
+      isRowSeen[row] = true;
+    }
+    return true;
+  }
+
+  private static int[] getInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + 4 * count);
+    return values;
+  }
+
+  /**
+   * Writes through one direct buffer, filling it with bulk puts of the arrays.
+   */
+  private static class ChannelWriter {
+    private final FileChannel _channel;
+    private final ByteBuffer _buffer =
+        ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private ChannelWriter(FileChannel channel) {
+      _channel = channel;
+    }
+
+    private void putLong(long value) throws IOException {
+      ensureRemaining(8);
+      _buffer.putLong(value);
+    }
+
+    private void putInt(int value) throws IOException {
+      ensureRemaining(4);
+      _buffer.putInt(value);
+    }
+
+    private void putDoubles(double[] values) throws IOException {
+      for (int from = 0; from < values.length;) {
+        ensureRemaining(8);
+        int count = Math.min(values.length - from, _buffer.remaining() / 8);
+        _buffer.asDoubleBuffer().put(values, from, count);
+        _buffer.position(_buffer.position() + 8 * count);
+        from += count;
+      }
+    }
+
+    private void putInts(int[] values) throws IOException {
+      for (int from = 0; from < values.length;) {
+        ensureRemaining(4);
+        int count = Math.min(values.length - from, _buffer.remaining() / 4);
+        _buffer.asIntBuffer().put(values, from, count);
+        _buffer.position(_buffer.position() + 4 * count);
+        from += count;
+      }
+    }
+
+    private void putBytes(byte[] values) throws IOException {
+      for (int from = 0; from < values.length;) {
+        ensureRemaining(1);
+        int count = Math.min(values.length - from, _buffer.remaining());
+        _buffer.put(values, from, count);
+        from += count;
+      }
+    }
+
+    private void ensureRemaining(int byteCount) throws IOException {
+      if (_buffer.remaining() < byteCount) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      _buffer.flip();
+      while (_buffer.hasRemaining()) {
+        _channel.write(_buffer);
+      }
+      _buffer.clear();
+    }
+  }
+}
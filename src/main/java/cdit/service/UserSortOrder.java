@@ -0,0 +1,22 @@
+package cdit.service;
+
+import java.util.Locale;
+import cdit.exception.InvalidUserQueryException;
+
+public enum UserSortOrder {
+  UPLOAD, NAME, SALARY;
+
+  /**
+   * Parses the {@code sort} request parameter, ignoring case. No parameter means upload order.
+   */
+  public static UserSortOrder fromParameter(String parameter) throws InvalidUserQueryException {
+    if (parameter == null) {
+      return UPLOAD;
+    }
+    try {
+      return valueOf(parameter.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidUserQueryException();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package cdit.service;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Salary statistics of one snapshot, computed while the snapshot is ingested. {@code mean},
+ * {@code min}, {@code max} and the percentiles are {@code null} when there are no users.
+ */
+public final class UserStatistics {
+  private final long _version;
+  private final long _count;
+  private final double _sum;
+  private final Double _min;
+  private final Double _max;
+  private final Map<String, Double> _percentiles;
+  private final double _histogramBucketWidth;
+  private final long[] _histogramCounts;
+
+  UserStatistics(long version, long count, double sum, Double min, Double max,
+      Map<String, Double> percentiles, double histogramBucketWidth, long[] histogramCounts) {
+    _version = version;
+    _count = count;
+    _sum = sum;
+    _min = min;
+    _max = max;
+    _percentiles = Collections.unmodifiableMap(percentiles);
+    _histogramBucketWidth = histogramBucketWidth;
+    _histogramCounts = histogramCounts;
+  }
+
+  public long getVersion() {
+    return _version;
+  }
+
+  public long getCount() {
+    return _count;
+  }
+
+  public double getSum() {
+    return _sum;
+  }
+
+  public Double getMean() {
+    return _count == 0 ? null : _sum / _count;
+  }
+
+  public Double getMin() {
+    return _min;
+  }
+
+  public Double getMax() {
+    return _max;
+  }
+
+  /**
+   * Nearest-rank percentiles keyed by percentage, such as {@code "50"} or {@code "99.9"}.
+   */
+  public Map<String, Double> getPercentiles() {
+    return _percentiles;
+  }
+
+  public double getHistogramBucketWidth() {
+    return _histogramBucketWidth;
+  }
+
+  /**
+   * The number of users per salary bucket, where bucket {@code i} starts at
+   * {@code i * histogramBucketWidth} and the last bucket also holds the maximum salary.
+   */
+  public long[] getHistogramCounts() {
+    return _histogramCounts.clone();
+  }
+}
@@ -0,0 +1,69 @@
+package cdit.service;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import cdit.model.User;
+
+/**
+ * Collects salary statistics one user at a time, so they come out of the same pass that parses an
+ * upload. The sum is compensated (Kahan) so that a million salaries add up without drift.
+ */
+final class UserStatisticsAccumulator {
+  private final double _bucketWidth;
+  private final long[] _bucketCounts;
+  private long _count;
+  private double _sum;
+  private double _sumCompensation;
+  private double _min = Double.POSITIVE_INFINITY;
+  private double _max = Double.NEGATIVE_INFINITY;
+
+  UserStatisticsAccumulator(int bucketCount) {
+    assert (bucketCount > 0);
+    _bucketWidth = (User.SALARY_MAX - User.SALARY_MIN) / bucketCount;
+    _bucketCounts = new long[bucketCount];
+  }
+
+  void add(List<User> users) {
+    for (User user : users) {
+      add(user);
+    }
+  }
+
+  void add(User user) {
+    add(user.getSalary());
+  }
+
+  void add(double salary) {
+    _count++;
+    double compensatedSalary = salary - _sumCompensation;
+    double sum = _sum + compensatedSalary;
+    _sumCompensation = (sum - _sum) - compensatedSalary;
+    _sum = sum;
+    _min = Math.min(_min, salary);
+    _max = Math.max(_max, salary);
+    int bucket = (int) ((salary - User.SALARY_MIN) / _bucketWidth);
+    _bucketCounts[Math.max(0, Math.min(bucket, _bucketCounts.length - 1))]++;
+  }
+
+  /**
+   * Completes the statistics with the {@code percentiles} read off the salaries of the snapshot
+   * sorted in ascending order.
+   */
+  UserStatistics toStatistics(long version, double[] sortedSalaries, double[] percentiles) {
+    assert (sortedSalaries.length == _count);
+    Map<String, Double> percentileValues = new LinkedHashMap<String, Double>();
+    for (double percentile : percentiles) {
+      String key = BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+      percentileValues.put(key, _count == 0 ? null : getPercentile(sortedSalaries, percentile));
+    }
+    return new UserStatistics(version, _count, _sum, _count == 0 ? null : _min,
+        _count == 0 ? null : _max, percentileValues, _bucketWidth, _bucketCounts.clone());
+  }
+
+  private static double getPercentile(double[] sortedSalaries, double percentile) {
+    int rank = (int) Math.ceil(percentile / 100 * sortedSalaries.length);
+    return sortedSalaries[Math.max(0, rank - 1)];
+  }
+}
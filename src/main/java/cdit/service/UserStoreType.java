@@ -0,0 +1,22 @@
+package cdit.service;
+
+import java.util.Locale;
+
+/**
+ * Where uploaded users are kept. {@link #JPA} writes them through to the database and loads them
+ * back after a restart, {@link #COLUMNAR} keeps them only in the columnar snapshot in memory.
+ */
+public enum UserStoreType {
+  JPA, COLUMNAR;
+
+  /**
+   * Parses the {@code cdit.users.store} property, ignoring case.
+   */
+  public static UserStoreType fromProperty(String property) {
+    try {
+      return valueOf(property.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown user store: " + property, e);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package cdit.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks one upload running in the background. The executor thread advances it and any thread may
+ * read it, so every field is either final or volatile.
+ */
+public final class UserUploadJob {
+  private final String _id;
+  private final boolean _isDelta;
+  private final AtomicLong _rowsProcessed = new AtomicLong();
+  private final CompletableFuture<Void> _finished = new CompletableFuture<Void>();
+  private volatile UserUploadJobPhase _phase = UserUploadJobPhase.QUEUED;
+  private volatile long _startNanos;
+  private volatile long _finishNanos;
+  private volatile UserDelta _delta;
+  private volatile Exception _failure;
+  private volatile UserUploadJobError _error;
+
+  UserUploadJob(String id, boolean isDelta) {
+    _id = id;
+    _isDelta = isDelta;
+  }
+
+  public String getId() {
+    return _id;
+  }
+
+  public UserUploadJobPhase getPhase() {
+    return _phase;
+  }
+
+  /**
+   * Why the job failed, or {@code null} unless it is {@link UserUploadJobPhase#FAILED}.
+   */
+  public Exception getFailure() {
+    return _failure;
+  }
+
+  /**
+   * A consistent view of the job for the status endpoint, describing {@link #getFailure()} as the
+   * response to a synchronous upload would have.
+   */
+  public UserUploadJobStatus toStatus() {
+    UserUploadJobPhase phase = _phase;
+    long startNanos = _startNanos;
+    long finishNanos = _finishNanos;
+    long rowsProcessed = _rowsProcessed.get();
+    long elapsedNanos = phase == UserUploadJobPhase.QUEUED ? 0
+        : (finishNanos != 0 ? finishNanos : System.nanoTime()) - startNanos;
+    double rowsPerSecond = elapsedNanos > 0 ? rowsProcessed * 1e9 / elapsedNanos : 0;
+    return new UserUploadJobStatus(_id, phase, rowsProcessed, rowsPerSecond,
+        elapsedNanos / 1000000, _delta, phase == UserUploadJobPhase.FAILED ? _error : null);
+  }
+
+  /**
+   * Runs {@code action} once the job has succeeded or failed, on the thread that finished it, or
+   * at once on this thread if it already has.
+   */
+  public void whenFinished(Runnable action) {
+    _finished.thenRun(action);
+  }
+
+  boolean isDelta() {
+    return _isDelta;
+  }
+
+  void start() {
+    _startNanos = System.nanoTime();
+    _phase = UserUploadJobPhase.INGESTING;
+  }
+
+  void addRowsProcessed(int rowCount) {
+    _rowsProcessed.addAndGet(rowCount);
+  }
+
+  void startPublishing() {
+    _phase = UserUploadJobPhase.PUBLISHING;
+  }
+
+  void succeed(UserDelta delta) {
+    _delta = delta;
+    _finishNanos = System.nanoTime();
+    _phase = UserUploadJobPhase.SUCCEEDED;
+    _finished.complete(null);
+  }
+
+  void fail(Exception failure, UserUploadJobError error) {
+    _failure = failure;
+    _error = error;
+    _finishNanos = System.nanoTime();
+    _phase = UserUploadJobPhase.FAILED;
+    _finished.complete(null);
+  }
+}
@@ -0,0 +1,22 @@
+package cdit.service;
+
+/**
+ * The status code and body a failed upload job would have answered with had it run in the request.
+ */
+public final class UserUploadJobError {
+  private final int _status;
+  private final Object _message;
+
+  public UserUploadJobError(int status, Object message) {
+    _status = status;
+    _message = message;
+  }
+
+  public int getStatus() {
+    return _status;
+  }
+
+  public Object getMessage() {
+    return _message;
+  }
+}
@@ -0,0 +1,12 @@
+package cdit.service;
+
+public enum UserUploadJobPhase {
+  /** Waiting for a thread of the upload executor. */
+  QUEUED,
+  /** Parsing, validating and writing rows. */
+  INGESTING,
+  /** Every row is in; the users are being swapped in and the snapshot built. */
+  PUBLISHING,
+  SUCCEEDED,
+  FAILED
+}
@@ -0,0 +1,18 @@
+package cdit.service;
+
+import cdit.exception.UploadJobRejectedException;
+import cdit.model.User;
+
+public interface UserUploadJobService {
+  /**
+   * Queues an upload of the users pushed by {@code userBatchProducer}, a delta upload if
+   * {@code isDelta}, and returns its job at once.
+   */
+  public UserUploadJob submit(CditBatchProducer<User> userBatchProducer, boolean isDelta)
+      throws UploadJobRejectedException;
+
+  /**
+   * The job with {@code id}, or {@code null} if there never was one or it has been forgotten.
+   */
+  public UserUploadJob getJob(String id);
+}
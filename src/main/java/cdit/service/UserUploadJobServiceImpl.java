@@ -0,0 +1,131 @@
+package cdit.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import cdit.exception.UploadJobRejectedException;
+import cdit.model.User;
+
+/**
+ * Runs uploads on a small executor of its own, so that large files hold neither a request thread
+ * nor the client waiting for it. The executor has a fixed number of threads and a bounded queue
+ * and rejects jobs beyond that rather than piling them up; uploads are serialized by
+ * {@link UserService} anyway, so more threads would only wait.
+ *
+ * Finished jobs are kept for polling until {@code cdit.users.jobs.retained} newer ones have
+ * finished.
+ */
+@Service()
+public class UserUploadJobServiceImpl implements UserUploadJobService {
+  private final UserService _userService;
+  private final UploadErrorMapper _uploadErrorMapper;
+  private final ThreadPoolExecutor _executor;
+  private final Map<String, UserUploadJob> _jobs = new ConcurrentHashMap<String, UserUploadJob>();
+  private final Queue<String> _finishedJobIds = new ConcurrentLinkedQueue<String>();
+  private final int _retainedJobCount;
+
+  public UserUploadJobServiceImpl(UserService userService, UploadErrorMapper uploadErrorMapper,
+      @Value("${cdit.users.jobs.threads:1}") int threadCount,
+      @Value("${cdit.users.jobs.queue-capacity:4}") int queueCapacity,
+      @Value("${cdit.users.jobs.retained:100}") int retainedJobCount) {
+    if (threadCount < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("Upload jobs need at least one thread and queue slot.");
+    }
+    _userService = userService;
+    _uploadErrorMapper = uploadErrorMapper;
+    _executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity), new UploadThreadFactory());
+    _retainedJobCount = Math.max(1, retainedJobCount);
+  }
+
+  @Override
+  public UserUploadJob submit(CditBatchProducer<User> userBatchProducer, boolean isDelta)
+      throws UploadJobRejectedException {
+    UserUploadJob job = new UserUploadJob(UUID.randomUUID().toString(), isDelta);
+    _jobs.put(job.getId(), job);
+    try {
+      _executor.execute(() -> run(job, userBatchProducer));
+    } catch (RejectedExecutionException e) {
+      _jobs.remove(job.getId());
+      throw new UploadJobRejectedException();
+    }
+    return job;
+  }
+
+  @Override
+  public UserUploadJob getJob(String id) {
+    return _jobs.get(id);
+  }
+
+  @PreDestroy
+  public void shutdownExecutor() {
+    _executor.shutdownNow();
+  }
+
+  private void run(UserUploadJob job, CditBatchProducer<User> userBatchProducer) {
+    job.start();
+    CditBatchProducer<User> countingProducer =
+        (CditBatchConsumer<User> batchConsumer) -> {
+          userBatchProducer.produce((List<User> batch) -> {
+            batchConsumer.accept(batch);
+            job.addRowsProcessed(batch.size());
+          });
+          job.startPublishing();
+        };
+    UserDelta delta = null;
+    Exception failure = null;
+    try {
+      if (job.isDelta()) {
+        delta = _userService.updateChangedUsers(countingProducer);
+      } else {
+        _userService.updateUsers(countingProducer);
+      }
+    } catch (Exception e) {
+      failure = e;
+    } catch (Error e) {
+      failure = new IllegalStateException(e);
+      throw e;
+    } finally {
+      // older jobs go first, so that they are gone by the time this one is seen to have finished
+      forgetOldJobs(job);
+      if (failure == null) {
+        job.succeed(delta);
+      } else {
+        job.fail(failure, _uploadErrorMapper.toError(failure));
+      }
+    }
+  }
+
+  private void forgetOldJobs(UserUploadJob finishedJob) {
+    _finishedJobIds.add(finishedJob.getId());
+    while (_finishedJobIds.size() > _retainedJobCount) {
+      String id = _finishedJobIds.poll();
+      if (id != null) {
+        _jobs.remove(id);
+      }
+    }
+  }
+
+  private static class UploadThreadFactory implements ThreadFactory {
+    private final AtomicInteger _threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "user-upload-" + _threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
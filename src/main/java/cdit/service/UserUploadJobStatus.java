@@ -0,0 +1,54 @@
+package cdit.service;
+
+/**
+ * What {@code GET /users/jobs/{id}} reports about an upload job. {@code delta} is only set for a
+ * successful delta upload and {@code error} only for a failed job.
+ */
+public final class UserUploadJobStatus {
+  private final String _id;
+  private final UserUploadJobPhase _phase;
+  private final long _rowsProcessed;
+  private final double _rowsPerSecond;
+  private final long _elapsedMillis;
+  private final UserDelta _delta;
+  private final UserUploadJobError _error;
+
+  UserUploadJobStatus(String id, UserUploadJobPhase phase, long rowsProcessed,
+      double rowsPerSecond, long elapsedMillis, UserDelta delta, UserUploadJobError error) {
+    _id = id;
+    _phase = phase;
+    _rowsProcessed = rowsProcessed;
+    _rowsPerSecond = rowsPerSecond;
+    _elapsedMillis = elapsedMillis;
+    _delta = delta;
+    _error = error;
+  }
+
+  public String getId() {
+    return _id;
+  }
+
+  public UserUploadJobPhase getPhase() {
+    return _phase;
+  }
+
+  public long getRowsProcessed() {
+    return _rowsProcessed;
+  }
+
+  public double getRowsPerSecond() {
+    return _rowsPerSecond;
+  }
+
+  public long getElapsedMillis() {
+    return _elapsedMillis;
+  }
+
+  public UserDelta getDelta() {
+    return _delta;
+  }
+
+  public UserUploadJobError getError() {
+    return _error;
+  }
+}
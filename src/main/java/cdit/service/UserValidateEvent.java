@@ -0,0 +1,11 @@
+package cdit.service;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cdit.users.Validate")
+@Label("Validate Users")
+@Description("Checking the rows of a batch and looking for duplicate names")
+public final class UserValidateEvent extends UserBytesPhaseEvent {
+}
@@ -0,0 +1,150 @@
+package cdit.util;
+
+import java.util.Arrays;
+
+/**
+ * An insert-only set of names compared without regard to case, built for duplicate detection over
+ * millions of rows.
+ *
+ * Names are case folded code point by code point with {@link Character}, which unlike
+ * {@link String#toLowerCase()} does not depend on the default locale. The folded name is encoded
+ * as UTF-8 and appended to one shared byte array, and an open-addressing table keeps a 64-bit
+ * fingerprint and the ordinal of every name. Lookups compare fingerprints first and only compare
+ * the bytes when two fingerprints are equal. A name costs about 22 bytes plus its UTF-8 length,
+ * against roughly 90 bytes plus its length for a lowercase copy in a {@link java.util.HashSet}.
+ */
+public final class CaseInsensitiveNameSet {
+  private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+  private static final int MAX_LOAD_PERCENTAGE = 70;
+  private static final int EMPTY_SLOT = 0;
+
+  private long[] _fingerprints;
+  private int[] _slots;
+  private int _mask;
+
+  private byte[] _names = new byte[DEFAULT_INITIAL_CAPACITY * 8];
+  private int _namesLength;
+  private int[] _nameEnds = new int[DEFAULT_INITIAL_CAPACITY];
+  private int _size;
+
+  private byte[] _folded = new byte[64];
+  private int _foldedLength;
+
+  public CaseInsensitiveNameSet() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public CaseInsensitiveNameSet(int expectedSize) {
+    int minCapacity = Math.max(16, (int) (expectedSize * 100L / MAX_LOAD_PERCENTAGE) + 1);
+    int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+    _fingerprints = new long[capacity];
+    _slots = new int[capacity];
+    _mask = capacity - 1;
+  }
+
+  /**
+   * Adds {@code name} and returns {@code true}, or returns {@code false} when a name equal to it
+   * ignoring case has been added before.
+   */
+  public boolean add(String name) {
+    fold(name);
+    long fingerprint = Fingerprints.of(_folded, 0, _foldedLength);
+    int slot = (int) fingerprint & _mask;
+    while (_slots[slot] != EMPTY_SLOT) {
+      if (_fingerprints[slot] == fingerprint && isFoldedNameAt(_slots[slot] - 1)) {
+        return false;
+      }
+      slot = (slot + 1) & _mask;
+    }
+    int ordinal = appendFoldedName();
+    _fingerprints[slot] = fingerprint;
+    _slots[slot] = ordinal + 1;
+    if (_size * 100L > _slots.length * (long) MAX_LOAD_PERCENTAGE) {
+      resize();
+    }
+    return true;
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Folds {@code name} into {@link #_folded} as UTF-8, growing the scratch buffer if needed so
+   * that no garbage is created per name.
+   */
+  private void fold(String name) {
+    _foldedLength = 0;
+    for (int i = 0; i < name.length();) {
+      int codePoint = name.codePointAt(i);
+      i += Character.charCount(codePoint);
+      appendUtf8(Character.toLowerCase(Character.toUpperCase(codePoint)));
+    }
+  }
+
+  private void appendUtf8(int codePoint) {
+    if (_foldedLength + 4 > _folded.length) {
+      _folded = Arrays.copyOf(_folded, _folded.length * 2);
+    }
+    if (codePoint < 0x80) {
+      _folded[_foldedLength++] = (byte) codePoint;
+    } else if (codePoint < 0x800) {
+      _folded[_foldedLength++] = (byte) (0xC0 | (codePoint >> 6));
+      _folded[_foldedLength++] = (byte) (0x80 | (codePoint & 0x3F));
+    } else if (codePoint < 0x10000) {
+      _folded[_foldedLength++] = (byte) (0xE0 | (codePoint >> 12));
+      _folded[_foldedLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+      _folded[_foldedLength++] = (byte) (0x80 | (codePoint & 0x3F));
+    } else {
+      _folded[_foldedLength++] = (byte) (0xF0 | (codePoint >> 18));
+      _folded[_foldedLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+      _folded[_foldedLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+      _folded[_foldedLength++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+  }
+
+  private boolean isFoldedNameAt(int ordinal) {
+    int start = ordinal == 0 ? 0 : _nameEnds[ordinal - 1];
+    int end = _nameEnds[ordinal];
+    if (end - start != _foldedLength) {
+      return false;
+    }
+    for (int i = 0; i < _foldedLength; i++) {
+      if (_names[start + i] != _folded[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int appendFoldedName() {
+    if (_namesLength + _foldedLength > _names.length) {
+      _names = Arrays.copyOf(_names, Math.max(_names.length * 2, _namesLength + _foldedLength));
+    }
+    System.arraycopy(_folded, 0, _names, _namesLength, _foldedLength);
+    _namesLength += _foldedLength;
+    if (_size == _nameEnds.length) {
+      _nameEnds = Arrays.copyOf(_nameEnds, _size * 2);
+    }
+    _nameEnds[_size] = _namesLength;
+    return _size++;
+  }
+
+  private void resize() {
+    long[] fingerprints = _fingerprints;
+    int[] slots = _slots;
+    _fingerprints = new long[fingerprints.length * 2];
+    _slots = new int[slots.length * 2];
+    _mask = _slots.length - 1;
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] != EMPTY_SLOT) {
+        int slot = (int) fingerprints[i] & _mask;
+        while (_slots[slot] != EMPTY_SLOT) {
+          slot = (slot + 1) & _mask;
+        }
+        _fingerprints[slot] = fingerprints[i];
+        _slots[slot] = slots[i];
+      }
+    }
+  }
+}
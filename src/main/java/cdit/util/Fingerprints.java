@@ -0,0 +1,27 @@
+package cdit.util;
+
+/**
+ * 64-bit fingerprints of byte ranges for open-addressing hash indexes: FNV-1a followed by the
+ * MurmurHash3 finalizer, so that the low bits used to pick a slot are as well mixed as the high
+ * ones.
+ */
+public final class Fingerprints {
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private Fingerprints() {}
+
+  public static long of(byte[] bytes, int from, int to) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = from; i < to; i++) {
+      hash ^= bytes[i] & 0xFF;
+      hash *= FNV_PRIME;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,67 @@
+package cdit.util;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Sorts positions rather than elements, for building permutation indexes over columns without
+ * boxing every position.
+ */
+public final class IndexSorter {
+  private static final int INSERTION_SORT_RUN = 32;
+
+  private IndexSorter() {}
+
+  /**
+   * Returns the positions {@code 0} to {@code size - 1} ordered by {@code comparator}, which
+   * compares the elements at two positions. The sort is a stable bottom-up merge sort, so equal
+   * elements keep their original order.
+   */
+  public static int[] sort(int size, IntBinaryOperator comparator) {
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    for (int start = 0; start < size; start += INSERTION_SORT_RUN) {
+      insertionSort(order, start, Math.min(start + INSERTION_SORT_RUN, size), comparator);
+    }
+
+    int[] source = order;
+    int[] target = new int[size];
+    for (long width = INSERTION_SORT_RUN; width < size; width *= 2) {
+      for (long left = 0; left < size; left += 2 * width) {
+        int middle = (int) Math.min(left + width, size);
+        int right = (int) Math.min(left + 2 * width, size);
+        merge(source, target, (int) left, middle, right, comparator);
+      }
+      int[] merged = target;
+      target = source;
+      source = merged;
+    }
+    return source;
+  }
+
+  private static void insertionSort(int[] order, int from, int to, IntBinaryOperator comparator) {
+    for (int i = from + 1; i < to; i++) {
+      int position = order[i];
+      int j = i - 1;
+      while (j >= from && comparator.applyAsInt(order[j], position) > 0) {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = position;
+    }
+  }
+
+  private static void merge(int[] source, int[] target, int left, int middle, int right,
+      IntBinaryOperator comparator) {
+    int i = left;
+    int j = middle;
+    for (int k = left; k < right; k++) {
+      if (i < middle && (j >= right || comparator.applyAsInt(source[i], source[j]) <= 0)) {
+        target[k] = source[i++];
+      } else {
+        target[k] = source[j++];
+      }
+    }
+  }
+}
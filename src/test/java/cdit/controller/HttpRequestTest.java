@@ -1,9 +1,34 @@
 package cdit.controller;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -33,15 +58,25 @@ import cdit.RestExceptionHandler;
 import cdit.SwaggerConfig;
 import cdit.model.User;
 import cdit.util.TestHelper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 @RunWith(SpringRunner.class)
 @DirtiesContext(classMode = ClassMode.BEFORE_EACH_TEST_METHOD)
 @ComponentScan(basePackages = "cdit",
     excludeFilters = @Filter(type = FilterType.ASSIGNABLE_TYPE, classes = SwaggerConfig.class))
 @org.springframework.transaction.annotation.Transactional()
-@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {"cdit.users.stream.max-buffered-users=" + HttpRequestTest.MAX_STREAMED_USERS,
+        "cdit.users.stream.max-buffered-users-total=" + HttpRequestTest.MAX_STREAMED_USERS_TOTAL,
+        "cdit.users.stream.max-body-megabytes=1",
+        "management.endpoints.web.exposure.include=health,info,metrics,prometheus,jfr"})
 public class HttpRequestTest {
+  static final int MAX_STREAMED_USERS = 20000;
+  static final int MAX_STREAMED_USERS_TOTAL = 30000;
   private static final double EPSILON = 0.001;
+  private static final long TIMEOUT_SECONDS = 30;
 
   @LocalServerPort
   private int _port;
@@ -123,6 +158,119 @@ public class HttpRequestTest {
     assertEquals(RestExceptionHandler.MSG_UPLOAD_SIZE_EXCEEDED, response.getBody());
   }
   
+  @Test
+  public void testUpdateUsersWithCompressedCsvBeyondUploadLimit() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 200000; i++) {
+      expectedStringArrays.add(new String[] { i + "", "1.00"});
+    }
+    byte[] bytes = String.join("\n", TestHelper.getCsvFileLinesFromStringArrays(
+        expectedStringArrays)).getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+    try (OutputStream out = new GZIPOutputStream(gzipBytes)) {
+      out.write(bytes);
+    }
+    File file = _folder.newFile("users.csv.gz");
+    Files.write(file.toPath(), gzipBytes.toByteArray());
+
+    MultiValueMap<String, Object> parameters = new LinkedMultiValueMap<String, Object>();
+    parameters.add("file", new FileSystemResource(file));
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    ResponseEntity<String> response = _restTemplate.postForEntity(getUserUrl(),
+        new HttpEntity<MultiValueMap<String, Object>>(parameters, headers), String.class);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(expectedStringArrays.size() - 1, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testUpdateUsersStreamWithContentEncoding() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    byte[] bytes = String.join("\n", TestHelper.getCsvFileLinesFromStringArrays(
+        expectedStringArrays)).getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream deflateBytes = new ByteArrayOutputStream();
+    try (OutputStream out = new DeflaterOutputStream(deflateBytes)) {
+      out.write(bytes);
+    }
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.valueOf("text/csv"));
+    headers.set(HttpHeaders.CONTENT_ENCODING, "deflate");
+    ResponseEntity<String> response = _restTemplate.postForEntity(getUserUrl() + "/stream",
+        new HttpEntity<byte[]>(deflateBytes.toByteArray(), headers), String.class);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(expectedStringArrays.size() - 1, getUsersFromUserController().size());
+
+    headers.set(HttpHeaders.CONTENT_ENCODING, "br");
+    response = _restTemplate.postForEntity(getUserUrl() + "/stream",
+        new HttpEntity<byte[]>(deflateBytes.toByteArray(), headers), String.class);
+    assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_CONTENT_ENCODING_UNSUPPORTED, response.getBody());
+
+    headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+    response = _restTemplate.postForEntity(getUserUrl() + "/stream",
+        new HttpEntity<byte[]>(deflateBytes.toByteArray(), headers), String.class);
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_COMPRESSED_UPLOAD_INVALID, response.getBody());
+    assertEquals(expectedStringArrays.size() - 1, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testUpdateUsersInOtherFormats() throws Exception {
+    File file = _folder.newFile("users.ndjson");
+    Files.write(file.toPath(), ("{\"name\":\"John Doe\",\"salary\":2500.05}\n"
+        + "{\"name\":\"Mary Posa\",\"salary\":\"4000.00\"}\n").getBytes(StandardCharsets.UTF_8));
+    HttpHeaders partHeaders = new HttpHeaders();
+    partHeaders.setContentType(MediaType.valueOf("application/x-ndjson"));
+    MultiValueMap<String, Object> parameters = new LinkedMultiValueMap<String, Object>();
+    parameters.add("file", new HttpEntity<Object>(new FileSystemResource(file), partHeaders));
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    ResponseEntity<String> response = _restTemplate.postForEntity(getUserUrl(),
+        new HttpEntity<MultiValueMap<String, Object>>(parameters, headers), String.class);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    List<User> users = getUsersFromUserController();
+    assertEquals(2, users.size());
+    assertEquals("John Doe", users.get(0).getName());
+    assertEquals(4000.00, users.get(1).getSalary(), EPSILON);
+
+    ByteArrayOutputStream binaryBytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(binaryBytes)) {
+      for (String name : new String[] {"Alex", "Jane", "Zoe"}) {
+        out.writeShort(name.length());
+        out.write(name.getBytes(StandardCharsets.UTF_8));
+        out.writeDouble(1000.5);
+      }
+    }
+    headers = new HttpHeaders();
+    headers.setContentType(MediaType.valueOf("application/vnd.cdit.users"));
+    response = _restTemplate.postForEntity(getUserUrl() + "/stream",
+        new HttpEntity<byte[]>(binaryBytes.toByteArray(), headers), String.class);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    users = getUsersFromUserController();
+    assertEquals(3, users.size());
+    assertEquals("Zoe", users.get(2).getName());
+    assertEquals(1000.5, users.get(2).getSalary(), EPSILON);
+
+    headers.setContentType(MediaType.valueOf("application/x-ndjson"));
+    response = _restTemplate.postForEntity(getUserUrl() + "/stream",
+        new HttpEntity<byte[]>("{\"name\":\"a\",\"salary\":1}\n{\"name\":\"A\",\"salary\":2}\n"
+            .getBytes(StandardCharsets.UTF_8), headers), String.class);
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_USER_NAME_DUPLICATE, response.getBody());
+
+    response = _restTemplate.postForEntity(getUserUrl() + "/stream",
+        new HttpEntity<byte[]>("{\"name\":\"a\",\"salary\":[1]}\n"
+            .getBytes(StandardCharsets.UTF_8), headers), String.class);
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_INVALID_RECORD, response.getBody());
+    assertEquals(3, getUsersFromUserController().size());
+  }
+
   @Test
   public void testInvalidCsv() throws Exception {
     List<String[]> expectedStringArrays = new ArrayList<String[]>();
@@ -135,6 +283,40 @@ public class HttpRequestTest {
     assertEquals(RestExceptionHandler.MSG_INVALID_CSV, response.getBody());
   }
 
+  @Test
+  public void testInvalidCsvWithEveryBadRowReported() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"", "2500.05"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "true"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.15"});
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    for (ResponseEntity<String> response : Arrays.asList(
+        uploadCsvToUserController(fileLines, "?allErrors=true"),
+        uploadCsvToUserStream(fileLines, "?allErrors=true"))) {
+      assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+      Map<?, ?> report = new ObjectMapper().readValue(response.getBody(), Map.class);
+      assertEquals(RestExceptionHandler.MSG_USER_ROWS_INVALID, report.get("message"));
+      assertEquals(3, report.get("errorCount"));
+      List<?> errors = (List<?>) report.get("errors");
+      assertEquals(3, errors.size());
+      assertEquals(3, ((Map<?, ?>) errors.get(0)).get("line"));
+      assertEquals(1, ((Map<?, ?>) errors.get(0)).get("column"));
+      assertEquals(RestExceptionHandler.MSG_USER_NAME_EMPTY,
+          ((Map<?, ?>) errors.get(0)).get("reason"));
+      assertEquals(4, ((Map<?, ?>) errors.get(1)).get("line"));
+      assertEquals(2, ((Map<?, ?>) errors.get(1)).get("column"));
+      assertEquals(RestExceptionHandler.MSG_USER_SALARY_INVALID,
+          ((Map<?, ?>) errors.get(1)).get("reason"));
+      assertEquals(5, ((Map<?, ?>) errors.get(2)).get("line"));
+      assertEquals(RestExceptionHandler.MSG_USER_NAME_DUPLICATE,
+          ((Map<?, ?>) errors.get(2)).get("reason"));
+    }
+    assertEquals(0, getUsersFromUserController().size());
+  }
+
   @Test
   public void testInvalidUpdateUsersWithoutHeader() throws Exception {
     List<String[]> expectedStringArrays = new ArrayList<String[]>();
@@ -195,8 +377,436 @@ public class HttpRequestTest {
     assertEquals(RestExceptionHandler.MSG_USER_SALARY_INVALID, response.getBody());
   }
 
+  @Test
+  public void testGetUsersWithMatchingEtagIsNotModified() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    ResponseEntity<byte[]> response = getUsersFromUserController(new HttpHeaders());
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    String etag = response.getHeaders().getETag();
+    assertNotNull(etag);
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(etag);
+    assertEquals(HttpStatus.NOT_MODIFIED, getUsersFromUserController(headers).getStatusCode());
+
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+    response = getUsersFromUserController(headers);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNotEquals(etag, response.getHeaders().getETag());
+  }
+
+  @Test
+  public void testGetUsersWithGzip() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    ResponseEntity<byte[]> response = getUsersFromUserController(new HttpHeaders());
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+    ResponseEntity<byte[]> gzipResponse = getUsersFromUserController(headers);
+
+    assertEquals(HttpStatus.OK, gzipResponse.getStatusCode());
+    assertEquals("gzip", gzipResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertNotEquals(response.getHeaders().getETag(), gzipResponse.getHeaders().getETag());
+    assertArrayEquals(response.getBody(), gunzip(gzipResponse.getBody()));
+  }
+
+  @Test
+  public void testGetUsersStreamed() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 10000; i++) {
+      expectedStringArrays.add(new String[] {"user " + i, "1.00"});
+    }
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    ResponseEntity<List<User>> response = _restTemplate.exchange(getUserUrl() + "?stream=true",
+        HttpMethod.GET, null, new ParameterizedTypeReference<List<User>>() {});
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    List<User> users = response.getBody();
+    assertEquals(expectedStringArrays.size() - 1, users.size());
+    for (int i = 0; i < users.size(); i++) {
+      assertEquals(expectedStringArrays.get(i + 1)[0], users.get(i).getName());
+    }
+    assertArrayEquals(getUsersFromUserController(new HttpHeaders()).getBody(),
+        _restTemplate.getForEntity(getUserUrl() + "?stream=true", byte[].class).getBody());
+  }
+
+  @Test
+  public void testUpdateAndGetUsersThroughStream() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 10000; i++) {
+      expectedStringArrays.add(new String[] {i % 7 == 0 ? "\"user\n" + i + "\"" : "user " + i,
+          "1.00"});
+    }
+    ResponseEntity<String> response = uploadCsvToUserStream(
+        TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays), "");
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(expectedStringArrays.size() - 1, getUsersFromUserController().size());
+
+    ResponseEntity<byte[]> streamResponse =
+        _restTemplate.getForEntity(getUserUrl() + "/stream", byte[].class);
+    assertEquals(HttpStatus.OK, streamResponse.getStatusCode());
+    assertArrayEquals(getUsersFromUserController(new HttpHeaders()).getBody(),
+        streamResponse.getBody());
+  }
+
+  @Test
+  public void testUpdateChangedUsersThroughStream() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    expectedStringArrays.set(2, new String[] {"John Doe", "2600.00"});
+    ResponseEntity<Map<String, Object>> response = _restTemplate.exchange(
+        getUserUrl() + "/stream?delta=true", HttpMethod.POST,
+        createCsvEntity(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays)),
+        new ParameterizedTypeReference<Map<String, Object>>() {});
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(0, ((Number) response.getBody().get("insertedCount")).intValue());
+    assertEquals(1, ((Number) response.getBody().get("updatedCount")).intValue());
+    assertEquals(0, ((Number) response.getBody().get("deletedCount")).intValue());
+  }
+
+  @Test
+  public void testUpdateUsersThroughStreamReportsError() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.15"});
+    ResponseEntity<String> response = uploadCsvToUserStream(
+        TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays), "");
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_USER_NAME_DUPLICATE, response.getBody());
+    assertEquals(0, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testStalledStreamUploadDoesNotBlockOtherUploads() throws Exception {
+    byte[] body = "name,salary\nJohn Doe,2500.05\nMary Posa,4000.00\n"
+        .getBytes(StandardCharsets.UTF_8);
+    int stalledAt = body.length / 2;
+    try (Socket socket = new Socket("localhost", _port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write(("POST /users/stream HTTP/1.1\r\nHost: localhost\r\n"
+          + "Content-Type: text/csv\r\nContent-Length: " + body.length + "\r\n"
+          + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.write(body, 0, stalledAt);
+      out.flush();
+
+      List<String[]> stringArrays = new ArrayList<String[]>();
+      stringArrays.add(new String[] {"name", "salary"});
+      stringArrays.add(new String[] {"Alice", "1.00"});
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        Future<ResponseEntity<String>> response = executor.submit(() -> uploadCsvToUserController(
+            TestHelper.getCsvFileLinesFromStringArrays(stringArrays)));
+        assertEquals(HttpStatus.OK,
+            response.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getStatusCode());
+      } finally {
+        executor.shutdownNow();
+      }
+      assertEquals("Alice", getUsersFromUserController().get(0).getName());
+
+      out.write(body, stalledAt, body.length - stalledAt);
+      out.flush();
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      assertTrue(in.readLine().startsWith("HTTP/1.1 200"));
+    }
+    assertEquals(2, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testUpdateUsersThroughStreamFailedDueToTooManyUsers() throws Exception {
+    List<String[]> stringArrays = new ArrayList<String[]>();
+    stringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i <= MAX_STREAMED_USERS; i++) {
+      stringArrays.add(new String[] {"user " + i, "1.00"});
+    }
+    ResponseEntity<String> response =
+        uploadCsvToUserStream(TestHelper.getCsvFileLinesFromStringArrays(stringArrays), "");
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_STREAMED_USERS_EXCEEDED, response.getBody());
+    assertEquals(0, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testStreamUploadsTogetherFailBeyondBufferBudget() throws Exception {
+    StringBuilder builder = new StringBuilder("name,salary\n");
+    for (int i = 0; i < 15000; i++) {
+      builder.append("first ").append(i).append(",1.00\n");
+    }
+    byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+    int stalledAt = body.length - "first 14999,1.00\n".length();
+    try (Socket socket = new Socket("localhost", _port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write(("POST /users/stream HTTP/1.1\r\nHost: localhost\r\n"
+          + "Content-Type: text/csv\r\nContent-Length: " + body.length + "\r\n"
+          + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.write(body, 0, stalledAt);
+      out.flush();
+      awaitStreamBufferedUsers(14000);
+
+      List<String[]> stringArrays = new ArrayList<String[]>();
+      stringArrays.add(new String[] {"name", "salary"});
+      for (int i = 0; i < MAX_STREAMED_USERS; i++) {
+        stringArrays.add(new String[] {"second " + i, "1.00"});
+      }
+      ResponseEntity<String> response =
+          uploadCsvToUserStream(TestHelper.getCsvFileLinesFromStringArrays(stringArrays), "");
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+      assertEquals(RestExceptionHandler.MSG_STREAM_BUFFER_FULL, response.getBody());
+      awaitStreamBufferedUsers(14000);
+
+      out.write(body, stalledAt, body.length - stalledAt);
+      out.flush();
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      assertTrue(in.readLine().startsWith("HTTP/1.1 200"));
+    }
+    assertEquals(15000, getUsersFromUserController().size());
+    awaitStreamBufferedUsers(0);
+  }
+
+  @Test
+  public void testUpdateUsersThroughStreamFailedDueToBodySize() throws Exception {
+    char[] name = new char[1000];
+    Arrays.fill(name, 'a');
+    List<String[]> stringArrays = new ArrayList<String[]>();
+    stringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 1100; i++) {
+      stringArrays.add(new String[] {new String(name) + i, "1.00"});
+    }
+    ResponseEntity<String> response =
+        uploadCsvToUserStream(TestHelper.getCsvFileLinesFromStringArrays(stringArrays), "");
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_UPLOAD_SIZE_EXCEEDED, response.getBody());
+    assertEquals(0, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testGetUsersPage() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    ResponseEntity<Map<String, Object>> response =
+        _restTemplate.exchange(getUserUrl() + "?limit=1", HttpMethod.GET, null,
+            new ParameterizedTypeReference<Map<String, Object>>() {});
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    List<?> users = (List<?>) response.getBody().get("users");
+    assertEquals(1, users.size());
+    assertEquals("John Doe", ((Map<?, ?>) users.get(0)).get("name"));
+    assertNotNull(response.getBody().get("nextCursor"));
+  }
+
+  @Test
+  public void testGetUsersBySalaryRange() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"Jane Doe", "1500.00"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    ResponseEntity<List<User>> response = _restTemplate.exchange(
+        getUserUrl() + "?minSalary=1500&maxSalary=3000&sort=name&limit=1", HttpMethod.GET, null,
+        new ParameterizedTypeReference<List<User>>() {});
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(1, response.getBody().size());
+    assertEquals("Jane Doe", response.getBody().get(0).getName());
+  }
+
+  @Test
+  public void testGetUserStatistics() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    expectedStringArrays.add(new String[] {"John Doe", "2000.00"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays));
+
+    ResponseEntity<Map<String, Object>> response = _restTemplate.exchange(
+        String.format("http://localhost:%d/users/stats", _port), HttpMethod.GET, null,
+        new ParameterizedTypeReference<Map<String, Object>>() {});
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(2, ((Number) response.getBody().get("count")).intValue());
+    assertEquals(3000, ((Number) response.getBody().get("mean")).doubleValue(), EPSILON);
+  }
+
+  @Test
+  public void testUpdateChangedUsers() throws Exception {
+    List<String[]> stringArrays = new ArrayList<String[]>();
+    stringArrays.add(new String[] {"name", "salary"});
+    stringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    stringArrays.add(new String[] {"John Doe", "2000.00"});
+    uploadCsvToUserController(TestHelper.getCsvFileLinesFromStringArrays(stringArrays));
+
+    stringArrays.remove(1);
+    stringArrays.add(new String[] {"Jane Doe", "1500.00"});
+    ResponseEntity<String> response = uploadCsvToUserController(
+        TestHelper.getCsvFileLinesFromStringArrays(stringArrays), "?delta=true");
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertTrue(response.getBody().contains("\"insertedCount\":1"));
+    assertTrue(response.getBody().contains("\"updatedCount\":0"));
+    assertTrue(response.getBody().contains("\"deletedCount\":1"));
+
+    List<User> users = getUsersFromUserController();
+    assertEquals(2, users.size());
+    assertEquals("John Doe", users.get(0).getName());
+    assertEquals("Jane Doe", users.get(1).getName());
+  }
+
+  @Test
+  public void testUpdateUsersAsynchronously() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    expectedStringArrays.add(new String[] {"John Doe", "2000.00"});
+    ResponseEntity<String> response = uploadCsvToUserController(
+        TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays), "?async=true");
+    assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+    assertNotNull(response.getHeaders().getLocation());
+
+    Map<String, Object> status = awaitUploadJob(response.getHeaders().getLocation().getPath());
+    assertEquals("SUCCEEDED", status.get("phase"));
+    assertEquals(2, ((Number) status.get("rowsProcessed")).intValue());
+    assertEquals(2, getUsersFromUserController().size());
+  }
+
+  @Test
+  public void testUpdateUsersAsynchronouslyReportsError() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.15"});
+    ResponseEntity<String> response = uploadCsvToUserController(
+        TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays), "?async=true");
+    assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+
+    Map<String, Object> status = awaitUploadJob(response.getHeaders().getLocation().getPath());
+    assertEquals("FAILED", status.get("phase"));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> error = (Map<String, Object>) status.get("error");
+    assertEquals(HttpStatus.BAD_REQUEST.value(), ((Number) error.get("status")).intValue());
+    assertEquals(RestExceptionHandler.MSG_USER_NAME_DUPLICATE, error.get("message"));
+  }
+
+  @Test
+  public void testGetUnknownUploadJob() throws Exception {
+    ResponseEntity<String> response = _restTemplate
+        .getForEntity(String.format("http://localhost:%d/users/jobs/unknown", _port), String.class);
+    assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_UPLOAD_JOB_NOT_FOUND, response.getBody());
+  }
+
+  @Test
+  public void testGetUsersPageWithInvalidCursor() throws Exception {
+    ResponseEntity<String> response =
+        _restTemplate.getForEntity(getUserUrl() + "?cursor=AAAA", String.class);
+    assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    assertEquals(RestExceptionHandler.MSG_CURSOR_INVALID, response.getBody());
+  }
+
+  @Test
+  public void testMetricsAreExposed() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    assertEquals(HttpStatus.OK, uploadCsvToUserController(fileLines).getStatusCode());
+    expectedStringArrays.add(new String[] {"John Doe", "1.00"});
+    assertEquals(HttpStatus.BAD_REQUEST, uploadCsvToUserController(
+        TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays)).getStatusCode());
+    assertEquals(2, getUsersFromUserController().size());
+
+    ResponseEntity<Map<String, Object>> metricResponse = _restTemplate.exchange(
+        String.format("http://localhost:%d/actuator/metrics/cdit.upload.bytes", _port),
+        HttpMethod.GET, null, new ParameterizedTypeReference<Map<String, Object>>() {});
+    assertEquals(HttpStatus.OK, metricResponse.getStatusCode());
+    assertNotNull(metricResponse.getBody().get("measurements"));
+
+    ResponseEntity<String> response = _restTemplate.getForEntity(
+        String.format("http://localhost:%d/actuator/prometheus", _port), String.class);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    String body = response.getBody();
+    assertTrue(body.contains("cdit_users_count 2.0"));
+    assertTrue(body.contains("cdit_upload_rows_ingested_total 2.0"));
+    assertTrue(
+        body.contains("cdit_upload_rows_rejected_total{exception=\"UserDuplicateException\""));
+    assertTrue(body.contains("cdit_upload_phase_seconds_count{phase=\"parse\""));
+    assertTrue(body.contains("cdit_upload_lock_wait_seconds_count 2.0"));
+    assertTrue(body.contains("cdit_users_serialization_seconds_count{mode=\"rendered\""));
+  }
+
+  @Test
+  public void testFlightRecordingHasPhaseEvents() throws Exception {
+    String jfrUrl = String.format("http://localhost:%d/actuator/jfr", _port);
+    assertEquals(HttpStatus.NOT_FOUND,
+        _restTemplate.exchange(jfrUrl, HttpMethod.DELETE, null, byte[].class).getStatusCode());
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    HttpEntity<String> startRequest =
+        new HttpEntity<String>("{\"durationSeconds\": 60}", headers);
+    assertEquals(HttpStatus.OK,
+        _restTemplate.postForEntity(jfrUrl, startRequest, String.class).getStatusCode());
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS,
+        _restTemplate.postForEntity(jfrUrl, startRequest, String.class).getStatusCode());
+    assertEquals(HttpStatus.OK, _restTemplate.getForEntity(jfrUrl, String.class).getStatusCode());
+
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"John Doe", "2500.05"});
+    expectedStringArrays.add(new String[] {"Mary Posa", "4000.00"});
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    assertEquals(HttpStatus.OK, uploadCsvToUserController(fileLines).getStatusCode());
+    assertEquals(2, getUsersFromUserController().size());
+
+    ResponseEntity<byte[]> response =
+        _restTemplate.exchange(jfrUrl, HttpMethod.DELETE, null, byte[].class);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    File recording = _folder.newFile("users.jfr");
+    Files.write(recording.toPath(), response.getBody());
+    Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(recording.toPath())) {
+      events.put(event.getEventType().getName(), event);
+    }
+    RecordedEvent parseEvent = events.get("cdit.users.Parse");
+    assertEquals(2, parseEvent.getLong("rows"));
+    assertTrue(parseEvent.getLong("bytes") > 0);
+    assertEquals(2, events.get("cdit.users.Validate").getLong("rows"));
+    assertEquals(2, events.get("cdit.users.Persist").getLong("rows"));
+    RecordedEvent serializeEvent = events.get("cdit.users.Serialize");
+    assertEquals(2, serializeEvent.getLong("rows"));
+    assertTrue(serializeEvent.getLong("version") > 0);
+    assertFalse(events.containsKey("jdk.InitialEnvironmentVariable"));
+    assertFalse(events.containsKey("jdk.InitialSystemProperty"));
+    assertFalse(events.containsKey("jdk.JVMInformation"));
+    assertTrue(events.containsKey("jdk.OSInformation"));
+    assertEquals(HttpStatus.NOT_FOUND,
+        _restTemplate.getForEntity(jfrUrl, String.class).getStatusCode());
+  }
+
   private ResponseEntity<String> uploadCsvToUserController(List<String> fileLines)
       throws Exception {
+    return uploadCsvToUserController(fileLines, "");
+  }
+
+  private ResponseEntity<String> uploadCsvToUserController(List<String> fileLines, String query)
+      throws Exception {
     return TestHelper.getObjectUsingFile(_folder, fileLines, (File file) -> {
       MultiValueMap<String, Object> parameters = new LinkedMultiValueMap<String, Object>();
       parameters.add("file", new FileSystemResource(file));
@@ -208,13 +818,57 @@ public class HttpRequestTest {
           new HttpEntity<MultiValueMap<String, Object>>(parameters, headers);
 
       ResponseEntity<String> response =
-          _restTemplate.postForEntity(getUserUrl(), entity, String.class);
+          _restTemplate.postForEntity(getUserUrl() + query, entity, String.class);
 
       return response;
     });
 
   }
 
+  private ResponseEntity<String> uploadCsvToUserStream(List<String> fileLines, String query) {
+    return _restTemplate.postForEntity(getUserUrl() + "/stream" + query,
+        createCsvEntity(fileLines), String.class);
+  }
+
+  private HttpEntity<byte[]> createCsvEntity(List<String> fileLines) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.valueOf("text/csv"));
+    return new HttpEntity<byte[]>(
+        String.join("\n", fileLines).getBytes(StandardCharsets.UTF_8), headers);
+  }
+
+  private Map<String, Object> awaitUploadJob(String path) throws Exception {
+    for (int attempt = 0; attempt < 1000; attempt++) {
+      ResponseEntity<Map<String, Object>> response = _restTemplate.exchange(
+          String.format("http://localhost:%d%s", _port, path), HttpMethod.GET, null,
+          new ParameterizedTypeReference<Map<String, Object>>() {});
+      assertEquals(HttpStatus.OK, response.getStatusCode());
+      Object phase = response.getBody().get("phase");
+      if ("SUCCEEDED".equals(phase) || "FAILED".equals(phase)) {
+        return response.getBody();
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("The upload job did not finish in time.");
+  }
+
+  private void awaitStreamBufferedUsers(long expected) throws Exception {
+    double value = -1;
+    for (int attempt = 0; attempt < 1000; attempt++) {
+      ResponseEntity<Map<String, Object>> response = _restTemplate.exchange(
+          String.format("http://localhost:%d/actuator/metrics/cdit.upload.stream.buffered", _port),
+          HttpMethod.GET, null, new ParameterizedTypeReference<Map<String, Object>>() {});
+      assertEquals(HttpStatus.OK, response.getStatusCode());
+      List<?> measurements = (List<?>) response.getBody().get("measurements");
+      value = ((Number) ((Map<?, ?>) measurements.get(0)).get("value")).doubleValue();
+      if (value == expected) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("The streams kept " + value + " users, not " + expected + ".");
+  }
+
   private List<User> getUsersFromUserController() {
     ResponseEntity<List<User>> response = _restTemplate.exchange(getUserUrl(), HttpMethod.GET, null,
         new ParameterizedTypeReference<List<User>>() {});
@@ -223,6 +877,22 @@ public class HttpRequestTest {
     return users;
   }
 
+  private ResponseEntity<byte[]> getUsersFromUserController(HttpHeaders headers) {
+    return _restTemplate.exchange(getUserUrl(), HttpMethod.GET, new HttpEntity<Void>(headers),
+        byte[].class);
+  }
+
+  private byte[] gunzip(byte[] bytes) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+    }
+    return out.toByteArray();
+  }
+
   private String getUserUrl() {
     return String.format("http://localhost:%d/users", _port);
   }
@@ -4,6 +4,9 @@ import static org.junit.Assert.*;
 import javax.persistence.EntityManager;
 import javax.sql.DataSource;
 import javax.validation.ConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -114,4 +117,56 @@ public class UserRepositoryTest {
     assertEquals(expectedUser.getName(), user.getName());
     assertEquals(expectedUser.getSalary(), user.getSalary(), EPSILON);
   }
+
+  @Test
+  public void testInsertUsersInSeveralJdbcBatches() {
+    List<User> expectedUsers = new ArrayList<User>();
+    for (int i = 0; i < UserRepositoryCustomImpl.INSERT_BATCH_SIZE * 2 + 1; i++) {
+      expectedUsers.add(new User("user " + i, i % 4000));
+    }
+    _userRepository.insertUsers(expectedUsers);
+    assertEquals(expectedUsers.size(), _userRepository.count());
+    for (User expectedUser : expectedUsers) {
+      Optional<User> userOptional = _userRepository.findById(expectedUser.getName());
+      assertTrue(userOptional.isPresent());
+      assertEquals(expectedUser.getSalary(), userOptional.get().getSalary(), EPSILON);
+    }
+  }
+
+  @Test
+  public void testDeleteAllUsers() {
+    _userRepository.saveAndFlush(new User("alice", 1));
+    _userRepository.saveAndFlush(new User("bob", 2));
+    _entityManager.clear();
+    _userRepository.deleteAllUsers();
+    assertEquals(0, _userRepository.count());
+  }
+
+  @Test
+  public void testUpdateUserSalariesAndDeleteUsers() {
+    _userRepository.saveAndFlush(new User("alice", 1));
+    _userRepository.saveAndFlush(new User("bob", 2));
+    _userRepository.saveAndFlush(new User("carol", 3));
+    _entityManager.clear();
+    _userRepository.updateUserSalaries(Arrays.asList(new User("alice", 10), new User("dan", 4)));
+    _userRepository.deleteUsers(Arrays.asList("bob", "erin"));
+
+    assertEquals(2, _userRepository.count());
+    assertEquals(10, _userRepository.findById("alice").get().getSalary(), EPSILON);
+    assertEquals(3, _userRepository.findById("carol").get().getSalary(), EPSILON);
+    assertFalse(_userRepository.findById("dan").isPresent());
+  }
+
+  @Test
+  public void testScanUsers() {
+    _userRepository.saveAndFlush(new User("alice", 1));
+    _userRepository.saveAndFlush(new User("bob", 2));
+    List<User> users = new ArrayList<User>();
+    _userRepository.scanUsers(users::add);
+    assertEquals(2, users.size());
+    assertEquals("alice", users.get(0).getName());
+    assertEquals(1, users.get(0).getSalary(), EPSILON);
+    assertEquals("bob", users.get(1).getName());
+    assertEquals(2, users.get(1).getSalary(), EPSILON);
+  }
 }
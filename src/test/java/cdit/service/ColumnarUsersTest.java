@@ -0,0 +1,75 @@
+package cdit.service;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import cdit.model.User;
+
+public class ColumnarUsersTest {
+  private static final String[] NAME_PARTS =
+      {"a", "B", "\u00e9", "\u0100", "\u4e2d", "\ud83d\ude00", "\ue000", "\uffe0", "\uffff"};
+
+  @Test
+  public void testRowsKeepUploadOrder() {
+    List<User> users = createUsers(5000);
+    ColumnarUsers columnarUsers = new ColumnarUsers.Builder().add(users).build();
+
+    assertEquals(users.size(), columnarUsers.size());
+    for (int row = 0; row < users.size(); row++) {
+      assertEquals(users.get(row).getName(), columnarUsers.getName(row));
+      assertEquals(users.get(row).getSalary(), columnarUsers.getSalary(row), 0);
+      assertEquals(users.get(row).getName(), columnarUsers.get(row).getName());
+    }
+  }
+
+  @Test
+  public void testGetRowFindsEveryName() {
+    List<User> users = createUsers(5000);
+    ColumnarUsers columnarUsers = new ColumnarUsers.Builder().add(users).build();
+
+    for (int row = 0; row < users.size(); row++) {
+      assertEquals(row, columnarUsers.getRow(users.get(row).getName()));
+    }
+    assertEquals(-1, columnarUsers.getRow("missing"));
+    assertEquals(-1, new ColumnarUsers.Builder().build().getRow("missing"));
+  }
+
+  @Test
+  public void testNamesCompareLikeStrings() {
+    List<User> users = createUsers(500);
+    ColumnarUsers columnarUsers = new ColumnarUsers.Builder().add(users).build();
+
+    for (int a = 0; a < users.size(); a++) {
+      for (int b = 0; b < users.size(); b++) {
+        int expected = Integer.signum(users.get(a).getName().compareTo(users.get(b).getName()));
+        assertEquals(expected, Integer.signum(columnarUsers.compareNames(a, b)));
+        assertEquals(expected, Integer.signum(columnarUsers.compareName(a,
+            ColumnarUsers.encodeName(users.get(b).getName()))));
+      }
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testIsUnmodifiable() {
+    new ColumnarUsers.Builder().add("Alex", 1).build().add(new User("Bob", 2));
+  }
+
+  /**
+   * Unique names mixing ASCII with two, three and four byte UTF-8 characters, including
+   * characters above the UTF-16 surrogates that sort differently as code points.
+   */
+  private List<User> createUsers(int count) {
+    Random random = new Random(42);
+    List<User> users = new ArrayList<User>();
+    for (int i = 0; i < count; i++) {
+      StringBuilder name = new StringBuilder();
+      for (int j = random.nextInt(4); j >= 0; j--) {
+        name.append(NAME_PARTS[random.nextInt(NAME_PARTS.length)]);
+      }
+      users.add(new User(name.append(i).toString(), random.nextInt(100000) / 100.0));
+    }
+    return users;
+  }
+}
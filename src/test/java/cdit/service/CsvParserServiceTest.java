@@ -1,10 +1,13 @@
 package cdit.service;
 
 import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -19,8 +22,16 @@ import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit4.SpringRunner;
 import cdit.SwaggerConfig;
 import cdit.exception.InvalidCsvException;
+import cdit.exception.InvalidRowsException;
+import cdit.exception.RowError;
+import cdit.exception.UserDuplicateException;
+import cdit.exception.UserNameIsEmptyException;
+import cdit.exception.UserSalaryInvalidTypeException;
+import cdit.exception.UserSalaryOutOfRangeException;
+import cdit.model.User;
 import cdit.util.StringArrayCsvMapper;
 import cdit.util.TestHelper;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @RunWith(SpringRunner.class)
 @DataJpaTest
@@ -31,6 +42,12 @@ import cdit.util.TestHelper;
 public class CsvParserServiceTest {
   @Autowired
   private CsvParserService _csvParserService;
+  @Autowired
+  private CsvParserServiceImpl _csvParserServiceImpl;
+  @Autowired
+  private UserMetrics _userMetrics;
+  @Autowired
+  private UserMapperService _userMapperService;
 
   @Rule
   public TemporaryFolder _folder = new TemporaryFolder();
@@ -188,6 +205,261 @@ public class CsvParserServiceTest {
     }
   }
 
+  @Test
+  public void testValidCsvInBatches() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    for (int i = 0; i < 5; i++) {
+      expectedStringArrays.add(new String[] {"John " + i, i + ".00"});
+    }
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    List<Integer> batchSizes = new ArrayList<Integer>();
+    List<String[]> actualStringArrays = new ArrayList<String[]>();
+    StringArrayCsvMapper mapper = new StringArrayCsvMapper(new String[] {"1", "2"});
+    TestHelper.getObjectUsingFileInputStream(_folder, fileLines, (InputStream inputStream) -> {
+      _csvParserService.parseInputStream(inputStream, mapper, 2, (List<String[]> batch) -> {
+        batchSizes.add(batch.size());
+        actualStringArrays.addAll(batch);
+      });
+      return null;
+    });
+    assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+    assertEquals(expectedStringArrays.size(), actualStringArrays.size());
+    for (int i = 0; i < expectedStringArrays.size(); i++) {
+      assertArrayEquals(expectedStringArrays.get(i), actualStringArrays.get(i));
+    }
+  }
+
+  @Test
+  public void testParallelCsvMatchesSequentialCsv() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 200; i++) {
+      String name = i % 7 == 0 ? "\"John\n" + i + "\"" : "John " + i;
+      expectedStringArrays.add(new String[] {name, i + ".00"});
+    }
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    String[] headers = new String[] {"1", "2"};
+    List<String[]> sequentialStringArrays = getStringArraysFromCsv(fileLines, headers);
+
+    byte[] bytes = String.join("\n", fileLines).getBytes(StandardCharsets.UTF_8);
+    List<String[]> parallelStringArrays = new ArrayList<String[]>();
+    _csvParserServiceImpl.parseBytesInParallel(bytes, new StringArrayCsvMapper(headers), 16,
+        (List<String[]> batch) -> parallelStringArrays.addAll(batch), 64);
+
+    assertEquals(expectedStringArrays.size(), parallelStringArrays.size());
+    for (int i = 0; i < sequentialStringArrays.size(); i++) {
+      assertArrayEquals(sequentialStringArrays.get(i), parallelStringArrays.get(i));
+    }
+  }
+
+  @Test
+  public void testPushedCsvMatchesSequentialCsv() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 200; i++) {
+      String name = i % 7 == 0 ? "\"John\r\n" + i + "\"" : "J\u00f6hn " + i;
+      expectedStringArrays.add(new String[] {name, i + ".00"});
+    }
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    String[] headers = new String[] {"1", "2"};
+    List<String[]> sequentialStringArrays = getStringArraysFromCsv(fileLines, headers);
+
+    byte[] bytes = ("\ufeff" + String.join("\r\n", fileLines)).getBytes(StandardCharsets.UTF_8);
+    Random random = new Random(0);
+    for (int round = 0; round < 10; round++) {
+      List<String[]> pushedStringArrays = new ArrayList<String[]>();
+      CditPushParser<String[]> parser = _csvParserService.createPushParser(
+          new StringArrayCsvMapper(headers), 16,
+          (List<String[]> batch) -> pushedStringArrays.addAll(batch));
+      for (int from = 0; from < bytes.length;) {
+        int length = Math.min(bytes.length - from, 1 + random.nextInt(round * 10 + 1));
+        parser.feed(bytes, from, length);
+        from += length;
+      }
+      parser.finish();
+
+      assertEquals(sequentialStringArrays.size(), pushedStringArrays.size());
+      for (int i = 0; i < sequentialStringArrays.size(); i++) {
+        assertArrayEquals(sequentialStringArrays.get(i), pushedStringArrays.get(i));
+      }
+    }
+  }
+
+  @Test(expected = InvalidCsvException.class)
+  public void testPushedCsvWithUnclosedQuotedField() throws Exception {
+    byte[] bytes = "name,salary\n\"John Doe,2500.05\n".getBytes(StandardCharsets.UTF_8);
+    CditPushParser<String[]> parser = _csvParserService.createPushParser(
+        new StringArrayCsvMapper(new String[] {"1", "2"}), 16, (List<String[]> batch) -> {
+        });
+    parser.feed(bytes, 0, bytes.length);
+    parser.finish();
+  }
+
+  @Test
+  public void testParallelParseWithCarriageReturnLineEndings() throws Exception {
+    for (String lineBreak : new String[] {"\r", "\r\n", "\n"}) {
+      byte[] bytes = ("\ufeffname,salary" + lineBreak + "John,2500.05" + lineBreak + "Mary,4000.00"
+          + lineBreak).getBytes(StandardCharsets.UTF_8);
+      List<User> users = new ArrayList<User>();
+      _csvParserServiceImpl.parseBytesInParallel(bytes, _userMapperService, 16,
+          (List<User> batch) -> users.addAll(batch), 4, false);
+      assertEquals(2, users.size());
+      assertEquals("John", users.get(0).getName());
+      assertEquals("Mary", users.get(1).getName());
+
+      byte[] badBytes = ("name,salary" + lineBreak + "John,2500.05" + lineBreak + "Mary,abc")
+          .getBytes(StandardCharsets.UTF_8);
+      try {
+        _csvParserServiceImpl.parseBytesInParallel(badBytes, _userMapperService, 16,
+            (List<User> batch) -> {
+            }, 4, true);
+        fail();
+      } catch (InvalidRowsException e) {
+        assertEquals(1, e.getErrorCount());
+        assertEquals(3, e.getRowErrors().get(0).getLine());
+      }
+    }
+  }
+
+  @Test
+  public void testParsesAreTimedAndRejectedRowsCounted() throws Exception {
+    byte[] bytes = "name,salary\nJohn,2500.05\nMary,4000.00\n".getBytes(StandardCharsets.UTF_8);
+    StringArrayCsvMapper mapper = new StringArrayCsvMapper(new String[] {"1", "2"});
+    _csvParserServiceImpl.parseBytesInParallel(bytes, mapper, 16, (List<String[]> batch) -> {
+    });
+    try {
+      _csvParserService.parseInputStream(
+          new ByteArrayInputStream("name\n\"John Doe\n".getBytes(StandardCharsets.UTF_8)),
+          new StringArrayCsvMapper(new String[] {"1"}));
+      fail();
+    } catch (InvalidCsvException e) {
+      // expected
+    }
+    try {
+      _csvParserService.parseInputStream(new ByteArrayInputStream(bytes), mapper, 16,
+          (List<String[]> batch) -> {
+            throw new UserDuplicateException();
+          });
+      fail();
+    } catch (UserDuplicateException e) {
+      // expected
+    }
+
+    MeterRegistry meterRegistry = _userMetrics.getMeterRegistry();
+    assertEquals(3, meterRegistry.get(UserMetrics.UPLOAD_PHASE)
+        .tag(UserMetrics.TAG_PHASE, UserMetrics.PHASE_PARSE).timer().count());
+    assertEquals(3, meterRegistry.get(UserMetrics.UPLOAD_PHASE)
+        .tag(UserMetrics.TAG_PHASE, UserMetrics.PHASE_DUPLICATE_CHECK).timer().count());
+    assertEquals(1, meterRegistry.get(UserMetrics.UPLOAD_ROWS_REJECTED)
+        .tag(UserMetrics.TAG_EXCEPTION, "InvalidCsvException").counter().count(), 0);
+    assertNull(meterRegistry.find(UserMetrics.UPLOAD_ROWS_REJECTED)
+        .tag(UserMetrics.TAG_EXCEPTION, "UserDuplicateException").counter());
+  }
+
+  @Test
+  public void testEveryBadRowIsReported() throws Exception {
+    byte[] bytes = ("name,salary\n"
+        + "John,2500.05\n"
+        + "Mary,abc\n"
+        + "\"Jane\nDoe\",1.00\n"
+        + "Peter,1.00,a\n"
+        + ",1.00\n"
+        + "JOHN,1.00\n"
+        + "Paul,5000.00\n"
+        + "Ann\"a,1.00\r\n"
+        + "Luke\n"
+        + "Mark,1.00\n").getBytes(StandardCharsets.UTF_8);
+    long[] expectedLines = new long[] {3, 6, 7, 8, 9, 10, 11};
+    int[] expectedColumns = new int[] {2, 3, 1, 1, 2, 1, 2};
+    Class<?>[] expectedCauses = new Class<?>[] {UserSalaryInvalidTypeException.class,
+        InvalidCsvException.class, UserNameIsEmptyException.class, UserDuplicateException.class,
+        UserSalaryOutOfRangeException.class, InvalidCsvException.class, InvalidCsvException.class};
+
+    List<InvalidRowsException> exceptions = new ArrayList<InvalidRowsException>();
+    try {
+      _csvParserService.parseInputStream(new ByteArrayInputStream(bytes), _userMapperService, 2,
+          (List<User> batch) -> {
+          }, true);
+      fail();
+    } catch (InvalidRowsException e) {
+      exceptions.add(e);
+    }
+    try {
+      _csvParserServiceImpl.parseBytesInParallel(bytes, _userMapperService, 2,
+          (List<User> batch) -> {
+          }, 16, true);
+      fail();
+    } catch (InvalidRowsException e) {
+      exceptions.add(e);
+    }
+    for (int length : new int[] {1, 7, bytes.length}) {
+      CditPushParser<User> parser = _csvParserService.createPushParser(_userMapperService, 2,
+          (List<User> batch) -> {
+          }, true);
+      try {
+        for (int from = 0; from < bytes.length; from += length) {
+          parser.feed(bytes, from, Math.min(length, bytes.length - from));
+        }
+        parser.finish();
+        fail();
+      } catch (InvalidRowsException e) {
+        exceptions.add(e);
+      }
+    }
+
+    for (InvalidRowsException exception : exceptions) {
+      List<RowError> rowErrors = exception.getRowErrors();
+      assertEquals(expectedLines.length, exception.getErrorCount());
+      assertEquals(expectedLines.length, rowErrors.size());
+      for (int i = 0; i < expectedLines.length; i++) {
+        assertEquals(expectedLines[i], rowErrors.get(i).getLine());
+        assertEquals(expectedColumns[i], rowErrors.get(i).getColumn());
+        assertEquals(expectedCauses[i], rowErrors.get(i).getCause().getClass());
+      }
+    }
+  }
+
+  @Test
+  public void testFirstBadRowsAreReportedBeyondMaxReportedErrors() throws Exception {
+    StringBuilder builder = new StringBuilder("name,salary\n,1.00\n");
+    for (int i = 0; i < 148; i++) {
+      builder.append("User").append(i).append(",abc\n");
+    }
+    byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+    List<InvalidRowsException> exceptions = new ArrayList<InvalidRowsException>();
+    try {
+      _csvParserService.parseInputStream(new ByteArrayInputStream(bytes), _userMapperService, 200,
+          (List<User> batch) -> {
+          }, true);
+      fail();
+    } catch (InvalidRowsException e) {
+      exceptions.add(e);
+    }
+    try {
+      _csvParserServiceImpl.parseBytesInParallel(bytes, _userMapperService, 200,
+          (List<User> batch) -> {
+          }, 64, true);
+      fail();
+    } catch (InvalidRowsException e) {
+      exceptions.add(e);
+    }
+
+    for (InvalidRowsException exception : exceptions) {
+      List<RowError> rowErrors = exception.getRowErrors();
+      assertEquals(149, exception.getErrorCount());
+      assertEquals(100, rowErrors.size());
+      assertEquals(UserNameIsEmptyException.class, rowErrors.get(0).getCause().getClass());
+      for (int i = 0; i < rowErrors.size(); i++) {
+        assertEquals(i + 2, rowErrors.get(i).getLine());
+      }
+      assertEquals(UserSalaryInvalidTypeException.class, rowErrors.get(99).getCause().getClass());
+    }
+  }
+
   @Test(expected = InvalidCsvException.class)
   public void testInvalidCsvWithInconsistentNumberOfColumns() throws Exception {
     List<String[]> expectedStringArrays = new ArrayList<String[]>();
@@ -223,7 +495,7 @@ public class CsvParserServiceTest {
   }
 
   /**
-   * Not supported by com.fasterxml.jackson
+   * Double quotes are not allowed inside quoted fields either
    * 
    * @throws Exception
    */
@@ -237,6 +509,16 @@ public class CsvParserServiceTest {
     getStringArraysFromCsv(fileLines, new String[] {"1", "2"});
   }
 
+  @Test(expected = InvalidCsvException.class)
+  public void testInvalidCsvWithUnclosedQuotedField() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"\"John Doe", "2500.05"});
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    getStringArraysFromCsv(fileLines, new String[] {"1", "2"});
+  }
+
   private List<String[]> getStringArraysFromCsv(List<String> fileLines, String[] headers)
       throws Exception {
     return TestHelper.getObjectUsingFileInputStream(_folder, fileLines,
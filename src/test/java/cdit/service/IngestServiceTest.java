@@ -0,0 +1,240 @@
+package cdit.service;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.junit4.SpringRunner;
+import cdit.SwaggerConfig;
+import cdit.exception.CditException;
+import cdit.exception.InvalidRecordException;
+import cdit.exception.InvalidRowsException;
+import cdit.exception.RowError;
+import cdit.exception.UserDuplicateException;
+import cdit.exception.UserMissingCsvHeaderException;
+import cdit.exception.UserNameIsEmptyException;
+import cdit.exception.UserSalaryInvalidTypeException;
+import cdit.exception.UserSalaryOutOfRangeException;
+import cdit.model.User;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@DirtiesContext(classMode = ClassMode.BEFORE_EACH_TEST_METHOD)
+@ComponentScan(basePackages = "cdit",
+    excludeFilters = @Filter(type = FilterType.ASSIGNABLE_TYPE, classes = SwaggerConfig.class))
+@org.springframework.transaction.annotation.Transactional()
+public class IngestServiceTest {
+  private static final String NDJSON = "application/x-ndjson";
+  private static final String BINARY = "application/vnd.cdit.users";
+
+  @Autowired
+  private IngestService _ingestService;
+  @Autowired
+  private UserMapperService _userMapperService;
+
+  @Test
+  public void testInjectedComponentsAreNotNull() {
+    assertNotNull(_ingestService);
+  }
+
+  @Test
+  public void testFormatsAreChosenByContentType() {
+    assertTrue(_ingestService.getFormat(NDJSON) instanceof NdjsonIngestFormat);
+    assertTrue(_ingestService.getFormat(" Application/NDJSON; charset=utf-8")
+        instanceof NdjsonIngestFormat);
+    assertTrue(_ingestService.getFormat(BINARY) instanceof BinaryIngestFormat);
+    assertTrue(_ingestService.getFormat("text/csv") instanceof CsvIngestFormat);
+    assertTrue(_ingestService.getFormat("application/vnd.ms-excel") instanceof CsvIngestFormat);
+    assertTrue(_ingestService.getFormat(null) instanceof CsvIngestFormat);
+  }
+
+  @Test
+  public void testNdjsonIsParsedIntoUsers() throws Exception {
+    byte[] bytes = ("\ufeff{\"name\": \" John Doe \", \"salary\": 2500.05}\r\n"
+        + "\n"
+        + "{\"salary\":\"1e3\",\"name\":\"Mary \\\"Posa\\\"\"}\n"
+        + "  {\"name\":\"Jos\\u00e9\",\"salary\":0}  \n"
+        + "{\"name\":\"Ren\u00e9e\",\"salary\":4000}").getBytes(StandardCharsets.UTF_8);
+    String[] expectedNames = {"John Doe", "Mary \"Posa\"", "Jos\u00e9", "Ren\u00e9e"};
+    double[] expectedSalaries = {2500.05, 1000, 0, 4000};
+    for (int pieceSize : new int[] {1, 3, bytes.length}) {
+      assertUsers(expectedNames, expectedSalaries, push(NDJSON, bytes, pieceSize, false));
+    }
+    assertUsers(expectedNames, expectedSalaries, pull(NDJSON, bytes));
+  }
+
+  @Test
+  public void testBinaryIsParsedIntoUsers() throws Exception {
+    byte[] bytes = binary(new String[] {"John Doe", "Mary Posa", "Ren\u00e9e"},
+        new double[] {2500.05, 4000, 0});
+    String[] expectedNames = {"John Doe", "Mary Posa", "Ren\u00e9e"};
+    double[] expectedSalaries = {2500.05, 4000, 0};
+    for (int pieceSize : new int[] {1, 3, bytes.length}) {
+      assertUsers(expectedNames, expectedSalaries, push(BINARY, bytes, pieceSize, false));
+    }
+    assertUsers(expectedNames, expectedSalaries, pull(BINARY, bytes));
+  }
+
+  @Test
+  public void testFormatsShareTheValidation() throws Exception {
+    byte[] ndjson = "{\"name\":\"John\",\"salary\":1}\n{\"name\":\"JOHN\",\"salary\":2}\n"
+        .getBytes(StandardCharsets.UTF_8);
+    assertFailure(UserDuplicateException.class, NDJSON, ndjson);
+    assertFailure(UserDuplicateException.class, BINARY,
+        binary(new String[] {"John", "JOHN"}, new double[] {1, 2}));
+    assertFailure(UserSalaryOutOfRangeException.class, BINARY,
+        binary(new String[] {"John"}, new double[] {Double.NaN}));
+    assertFailure(UserNameIsEmptyException.class, BINARY,
+        binary(new String[] {" "}, new double[] {1}));
+    assertFailure(UserSalaryInvalidTypeException.class, NDJSON,
+        "{\"name\":\"John\",\"salary\":true}".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testMissingHeaders() throws Exception {
+    assertFailure(UserMissingCsvHeaderException.class, NDJSON, new byte[0]);
+    assertFailure(UserMissingCsvHeaderException.class, NDJSON,
+        "\n\n".getBytes(StandardCharsets.UTF_8));
+    assertFailure(UserMissingCsvHeaderException.class, NDJSON,
+        "{\"name\":\"John\"}\n".getBytes(StandardCharsets.UTF_8));
+    assertFailure(UserMissingCsvHeaderException.class, BINARY, new byte[0]);
+  }
+
+  @Test
+  public void testMalformedRecords() throws Exception {
+    String[] malformedLines = {"[\"John\", 1]", "{\"name\":\"John\",\"salary\":{}}",
+        "{\"name\":\"John\",\"salary\":1", "{\"name\":\"John\",\"salary\":1} x",
+        "{\"name\":\"John\",\"salary\":nul}", "{\"name\":\"Jo\\x\",\"salary\":1}",
+        "{\"name\":\"John\",\"name\":\"Mary\",\"salary\":1}"};
+    for (String line : malformedLines) {
+      assertFailure(InvalidRecordException.class, NDJSON,
+          ("{\"name\":\"a\",\"salary\":1}\n" + line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    byte[] bytes = binary(new String[] {"John"}, new double[] {1});
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    assertFailure(InvalidRecordException.class, BINARY, truncated);
+  }
+
+  @Test
+  public void testOnlyJsonNumbersAreSalaries() throws Exception {
+    String[] malformedSalaries = {"0x1p3", "100d", "1f", "-Infinity", "01", "-", "1.", ".5", "1e",
+        "1e+", "--1", "1.5.2"};
+    for (String salary : malformedSalaries) {
+      assertFailure(InvalidRecordException.class, NDJSON,
+          ("{\"name\":\"a\",\"salary\":" + salary + "}").getBytes(StandardCharsets.UTF_8));
+    }
+    byte[] bytes = ("{\"name\":\"a\",\"salary\":0.5}\n"
+        + "{\"name\":\"b\",\"salary\":1.5E+3}\n"
+        + "{\"name\":\"c\",\"salary\":25e-1}").getBytes(StandardCharsets.UTF_8);
+    assertUsers(new String[] {"a", "b", "c"}, new double[] {0.5, 1500, 2.5}, pull(NDJSON, bytes));
+  }
+
+  @Test
+  public void testEveryBadRowIsReported() throws Exception {
+    byte[] ndjson = ("{\"name\":\"a\",\"salary\":1}\n"
+        + "{\"name\":\"b\",\"salary\":\"abc\"}\n"
+        + "\n"
+        + "{\"name\":\"c\",\"salary\":2,\"id\":3}\n"
+        + "{\"name\":\"\",\"salary\":3}\n"
+        + "{\"name\":\"A\",\"salary\":4}\n"
+        + "{\"name\":\"d\",\"salary\":5000}\n"
+        + "{\"name\":\"e\"\n"
+        + "{\"name\":\"f\",\"salary\":6}\n").getBytes(StandardCharsets.UTF_8);
+    long[] expectedLines = {2, 4, 5, 6, 7, 8};
+    int[] expectedColumns = {2, 0, 1, 1, 2, 0};
+    for (int pieceSize : new int[] {1, 3, ndjson.length}) {
+      assertRowErrors(expectedLines, expectedColumns, NDJSON, ndjson, pieceSize);
+    }
+
+    byte[] bytes = binary(new String[] {"a", "", "b", "A", "c"}, new double[] {1, 2, 5000, 3, 4});
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    assertRowErrors(new long[] {2, 3, 4, 5}, new int[] {1, 2, 1, 0}, BINARY, truncated, 3);
+  }
+
+  private List<User> push(String contentType, byte[] bytes, int pieceSize,
+      boolean isEveryErrorReported) throws CditException {
+    List<User> users = new ArrayList<User>();
+    CditPushParser<User> parser = _ingestService.getFormat(contentType).createPushParser(
+        _userMapperService, 2, (List<User> batch) -> users.addAll(batch), isEveryErrorReported);
+    for (int from = 0; from < bytes.length; from += pieceSize) {
+      parser.feed(bytes, from, Math.min(pieceSize, bytes.length - from));
+    }
+    parser.finish();
+    return users;
+  }
+
+  private List<User> pull(String contentType, byte[] bytes) throws Exception {
+    List<User> users = new ArrayList<User>();
+    _ingestService.getFormat(contentType).parseInputStream(new ByteArrayInputStream(bytes),
+        _userMapperService, 2, (List<User> batch) -> users.addAll(batch), false);
+    return users;
+  }
+
+  private void assertUsers(String[] expectedNames, double[] expectedSalaries, List<User> users) {
+    assertEquals(expectedNames.length, users.size());
+    for (int i = 0; i < expectedNames.length; i++) {
+      assertEquals(expectedNames[i], users.get(i).getName());
+      assertEquals(expectedSalaries[i], users.get(i).getSalary(), 0);
+    }
+  }
+
+  private void assertFailure(Class<? extends CditException> expected, String contentType,
+      byte[] bytes) throws Exception {
+    for (int pieceSize : new int[] {1, Math.max(1, bytes.length)}) {
+      try {
+        push(contentType, bytes, pieceSize, false);
+        fail("Expected " + expected.getSimpleName());
+      } catch (CditException e) {
+        assertEquals(expected, e.getClass());
+      }
+    }
+    try {
+      pull(contentType, bytes);
+      fail("Expected " + expected.getSimpleName());
+    } catch (CditException e) {
+      assertEquals(expected, e.getClass());
+    }
+  }
+
+  private void assertRowErrors(long[] expectedLines, int[] expectedColumns, String contentType,
+      byte[] bytes, int pieceSize) throws Exception {
+    try {
+      push(contentType, bytes, pieceSize, true);
+      fail("Expected InvalidRowsException");
+    } catch (InvalidRowsException e) {
+      List<RowError> rowErrors = e.getRowErrors();
+      assertEquals(expectedLines.length, rowErrors.size());
+      for (int i = 0; i < expectedLines.length; i++) {
+        assertEquals(expectedLines[i], rowErrors.get(i).getLine());
+        assertEquals(expectedColumns[i], rowErrors.get(i).getColumn());
+      }
+    }
+  }
+
+  private static byte[] binary(String[] names, double[] salaries) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      for (int i = 0; i < names.length; i++) {
+        byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeDouble(salaries[i]);
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,167 @@
+package cdit.service;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import cdit.exception.CditException;
+import cdit.exception.DecompressedSizeExceededException;
+import cdit.exception.InvalidCompressedUploadException;
+import cdit.exception.UnsupportedContentEncodingException;
+
+public class UploadDecoderServiceTest {
+  private static final byte[] CSV =
+      "name,salary\nJohn,2500.05\n\"Mary\nPosa\",4000.00\n".getBytes(StandardCharsets.UTF_8);
+
+  private final UploadDecoderService _uploadDecoderService = new UploadDecoderServiceImpl(1);
+
+  @Test
+  public void testEncodingFromContentEncoding() throws Exception {
+    assertNull(UploadEncoding.fromContentEncoding(null));
+    assertEquals(UploadEncoding.GZIP, UploadEncoding.fromContentEncoding("GZip "));
+    assertEquals(UploadEncoding.GZIP, UploadEncoding.fromContentEncoding("x-gzip"));
+    assertEquals(UploadEncoding.DEFLATE, UploadEncoding.fromContentEncoding("deflate"));
+    assertEquals(UploadEncoding.IDENTITY, UploadEncoding.fromContentEncoding("identity"));
+  }
+
+  @Test(expected = UnsupportedContentEncodingException.class)
+  public void testUnsupportedContentEncoding() throws Exception {
+    UploadEncoding.fromContentEncoding("br");
+  }
+
+  @Test
+  public void testSniffedEncodings() throws Exception {
+    assertEquals(UploadEncoding.GZIP, UploadEncoding.sniff(gzip(CSV), 2));
+    assertEquals(UploadEncoding.DEFLATE, UploadEncoding.sniff(zlib(CSV, false), 2));
+    assertEquals(UploadEncoding.IDENTITY, UploadEncoding.sniff(CSV, CSV.length));
+    assertEquals(UploadEncoding.IDENTITY,
+        UploadEncoding.sniff("x^".getBytes(StandardCharsets.UTF_8), 2));
+    assertEquals(UploadEncoding.IDENTITY, UploadEncoding.sniff(gzip(CSV), 1));
+  }
+
+  @Test
+  public void testDecodesWhateverPieceSizes() throws Exception {
+    byte[][] encodedFiles = {gzip(CSV), zlib(CSV, false), CSV, concat(gzip(CSV), gzip(CSV)),
+        gzipWithOptionalFields(CSV)};
+    byte[][] expectedFiles = {CSV, CSV, CSV, concat(CSV, CSV), CSV};
+    for (int file = 0; file < encodedFiles.length; file++) {
+      for (int length : new int[] {1, 3, encodedFiles[file].length}) {
+        assertArrayEquals(expectedFiles[file], decode(null, encodedFiles[file], length));
+      }
+    }
+    assertArrayEquals(CSV, decode(UploadEncoding.GZIP, gzip(CSV), 5));
+    assertArrayEquals(CSV, decode(UploadEncoding.DEFLATE, zlib(CSV, false), 5));
+    assertArrayEquals(CSV, decode(UploadEncoding.DEFLATE, zlib(CSV, true), 5));
+    assertArrayEquals(gzip(CSV), decode(UploadEncoding.IDENTITY, gzip(CSV), 5));
+    assertArrayEquals(new byte[] {'a'}, decode(null, new byte[] {'a'}, 1));
+  }
+
+  @Test
+  public void testParsesInputStream() throws Exception {
+    CollectingParser parser = new CollectingParser();
+    _uploadDecoderService.parseInputStream(new ByteArrayInputStream(gzip(CSV)), null, parser);
+    assertArrayEquals(CSV, parser._bytes.toByteArray());
+    assertTrue(parser._isFinished);
+  }
+
+  @Test(expected = InvalidCompressedUploadException.class)
+  public void testTruncatedGzip() throws Exception {
+    byte[] bytes = gzip(CSV);
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    decode(null, truncated, 7);
+  }
+
+  @Test(expected = InvalidCompressedUploadException.class)
+  public void testGzipWithWrongChecksum() throws Exception {
+    byte[] bytes = gzip(CSV);
+    bytes[bytes.length - 8] ^= 1;
+    decode(null, bytes, 7);
+  }
+
+  @Test(expected = InvalidCompressedUploadException.class)
+  public void testDeclaredGzipThatIsNot() throws Exception {
+    decode(UploadEncoding.GZIP, CSV, 7);
+  }
+
+  @Test(expected = DecompressedSizeExceededException.class)
+  public void testDecompressedSizeIsLimited() throws Exception {
+    byte[] bomb = new byte[1024 * 1024 + 1];
+    decode(null, gzip(bomb), 1024);
+  }
+
+  private byte[] decode(UploadEncoding encoding, byte[] bytes, int length) throws CditException {
+    CollectingParser parser = new CollectingParser();
+    CditPushParser<Void> decodingParser =
+        _uploadDecoderService.createDecodingParser(encoding, parser);
+    for (int from = 0; from < bytes.length; from += length) {
+      decodingParser.feed(bytes, from, Math.min(length, bytes.length - from));
+    }
+    decodingParser.finish();
+    assertTrue(parser._isFinished);
+    return parser._bytes.toByteArray();
+  }
+
+  private static byte[] gzip(byte[] bytes) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+      gzipOut.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * A gzip file whose header has every optional field, extra data, a file name, a comment and a
+   * header checksum, which the JDK never writes.
+   */
+  private static byte[] gzipWithOptionalFields(byte[] bytes) throws Exception {
+    byte[] plain = gzip(bytes);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(plain, 0, 3);
+    out.write(4 | 8 | 16 | 2);
+    out.write(plain, 4, 6);
+    out.write(new byte[] {3, 0, 'a', 'b', 'c'});
+    out.write("users.csv\0".getBytes(StandardCharsets.US_ASCII));
+    out.write("salaries\0".getBytes(StandardCharsets.US_ASCII));
+    out.write(new byte[] {0x12, 0x34});
+    out.write(plain, 10, plain.length - 10);
+    return out.toByteArray();
+  }
+
+  private static byte[] zlib(byte[] bytes, boolean isRaw) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, isRaw);
+    try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+      deflaterOut.write(bytes);
+    } finally {
+      deflater.end();
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] bytes = new byte[first.length + second.length];
+    System.arraycopy(first, 0, bytes, 0, first.length);
+    System.arraycopy(second, 0, bytes, first.length, second.length);
+    return bytes;
+  }
+
+  private static class CollectingParser implements CditPushParser<Void> {
+    private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+    private boolean _isFinished;
+
+    @Override
+    public void feed(byte[] bytes, int offset, int length) {
+      _bytes.write(bytes, offset, length);
+    }
+
+    @Override
+    public void finish() {
+      _isFinished = true;
+    }
+  }
+}
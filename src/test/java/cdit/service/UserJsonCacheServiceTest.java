@@ -0,0 +1,100 @@
+package cdit.service;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.junit4.SpringRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cdit.SwaggerConfig;
+import cdit.model.User;
+
+@RunWith(SpringRunner.class)
+@DirtiesContext(classMode = ClassMode.BEFORE_EACH_TEST_METHOD)
+@DataJpaTest
+@ComponentScan(basePackages = "cdit",
+    excludeFilters = @Filter(type = FilterType.ASSIGNABLE_TYPE, classes = SwaggerConfig.class))
+@org.springframework.transaction.annotation.Transactional()
+public class UserJsonCacheServiceTest {
+  @Autowired
+  private UserJsonCacheService _userJsonCacheService;
+
+  @Test
+  public void testRenderedUsers() throws Exception {
+    RenderedJson renderedUsers = _userJsonCacheService.getRenderedUsers(createSnapshot(1, "alice"));
+    String json = new String(renderedUsers.getBytes(), StandardCharsets.UTF_8);
+    assertEquals(new ObjectMapper().writeValueAsString(
+        Collections.singletonList(new User("alice", 1))), json);
+    assertTrue(renderedUsers.getEtag().startsWith("\""));
+    assertNotEquals(renderedUsers.getEtag(), renderedUsers.getGzipEtag());
+
+    ByteArrayOutputStream gunzipped = new ByteArrayOutputStream();
+    try (GZIPInputStream in =
+        new GZIPInputStream(new ByteArrayInputStream(renderedUsers.getGzipBytes()))) {
+      for (int b = in.read(); b != -1; b = in.read()) {
+        gunzipped.write(b);
+      }
+    }
+    assertArrayEquals(renderedUsers.getBytes(), gunzipped.toByteArray());
+  }
+
+  @Test
+  public void testRenderedUsersAreReusedUntilNewerVersion() throws Exception {
+    RenderedJson first = _userJsonCacheService.getRenderedUsers(createSnapshot(1, "alice"));
+    assertSame(first, _userJsonCacheService.getRenderedUsers(createSnapshot(1, "alice")));
+
+    RenderedJson second = _userJsonCacheService.getRenderedUsers(createSnapshot(2, "bob"));
+    assertEquals(2, second.getVersion());
+    assertNotEquals(first.getEtag(), second.getEtag());
+    assertSame(second, _userJsonCacheService.getRenderedUsers(createSnapshot(1, "alice")));
+  }
+
+  @Test
+  public void testConcurrentRendersOfSameVersionAreCoalesced() throws Exception {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 100000; i++) {
+      names.add("user " + i);
+    }
+    UserSnapshot snapshot = createSnapshot(1, names.toArray(new String[names.size()]));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<RenderedJson>> futures = new ArrayList<Future<RenderedJson>>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> _userJsonCacheService.getRenderedUsers(snapshot)));
+      }
+      RenderedJson renderedUsers = futures.get(0).get();
+      for (Future<RenderedJson> future : futures) {
+        assertSame(renderedUsers, future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private UserSnapshot createSnapshot(long version, String... names) {
+    List<User> users = new ArrayList<User>();
+    for (String name : names) {
+      users.add(new User(name, 1));
+    }
+    UserStatisticsAccumulator statisticsAccumulator = new UserStatisticsAccumulator(1);
+    statisticsAccumulator.add(users);
+    return new UserSnapshot(version, new ColumnarUsers.Builder().add(users).build(),
+        statisticsAccumulator, new double[0]);
+  }
+}
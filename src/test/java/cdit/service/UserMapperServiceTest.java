@@ -4,9 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import org.junit.Rule;
 import org.junit.Test;
@@ -42,6 +44,9 @@ public class UserMapperServiceTest {
   @Autowired
   private CsvParserService _csvParserService;
 
+  @Autowired
+  private CsvParserServiceImpl _csvParserServiceImpl;
+
   @Autowired
   private UserMapperService _userMapperService;
 
@@ -206,6 +211,23 @@ public class UserMapperServiceTest {
     getUsersFromCsv(fileLines);
   }
 
+  @Test(expected = UserDuplicateException.class)
+  public void testInvalidUsersInParallelReportsFirstInvalidRow() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    for (int i = 0; i < 100; i++) {
+      expectedStringArrays.add(new String[] {"user " + i, "1.00"});
+    }
+    expectedStringArrays.set(41, new String[] {"user 3", "1.00"});
+    expectedStringArrays.set(91, new String[] {"user 90", "true"});
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    byte[] bytes = String.join("\n", fileLines).getBytes(StandardCharsets.UTF_8);
+    _csvParserServiceImpl.parseBytesInParallel(bytes, _userMapperService, 10,
+        (List<User> batch) -> {
+        }, 64);
+  }
+
   @Test(expected = UserSalaryInvalidTypeException.class)
   public void testInvalidUsersWithInvalidSalaryType() throws Exception {
     List<String[]> expectedStringArrays = new ArrayList<String[]>();
@@ -298,6 +320,35 @@ public class UserMapperServiceTest {
     _userMapperService.createObjectByRow(row, headerIndices);
   }
   
+  @Test
+  public void testBindCreatesObjectsFromRecords() throws Exception {
+    CditRecordBinding<User> binding =
+        _userMapperService.bind(new String[] {"salary", " Name ", "a"});
+    byte[] bytes = " 2500.05 ,  John Doe  ,a\n1e3,Mary Posa,a\n".getBytes(StandardCharsets.UTF_8);
+    CsvTokenizer tokenizer = new CsvTokenizer(bytes, 0, bytes.length);
+
+    User user = binding.createObject(tokenizer.next());
+    assertEquals("John Doe", user.getName());
+    assertEquals(2500.05, user.getSalary(), EPSILON);
+
+    user = binding.createObject(tokenizer.next());
+    assertEquals("Mary Posa", user.getName());
+    assertEquals(1000, user.getSalary(), EPSILON);
+  }
+
+  @Test(expected = UserMissingCsvHeaderException.class)
+  public void testBindFailedDueToMissingSalary() throws CditException {
+    _userMapperService.bind(new String[] {"name", "a"});
+  }
+
+  @Test(expected = UserSalaryInvalidTypeException.class)
+  public void testBindCreateObjectWithInvalidSalary() throws Exception {
+    CditRecordBinding<User> binding = _userMapperService.bind(new String[] {"name", "salary"});
+    byte[] bytes = "bob,1.2.3\n".getBytes(StandardCharsets.UTF_8);
+    CsvTokenizer tokenizer = new CsvTokenizer(bytes, 0, bytes.length);
+    binding.createObject(tokenizer.next());
+  }
+
   @Test
   public void testValidateObjectSuccess() {    
     try {
@@ -346,6 +397,43 @@ public class UserMapperServiceTest {
     _userMapperService.validateObjects(users);
   }
   
+  @Test(expected = UserDuplicateException.class)
+  public void testValidateObjectsFailedDueToDuplicateNamesInTurkishLocale() throws CditException {
+    Locale defaultLocale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      List<User> users = new ArrayList<User>();
+      users.add(new User("TITLE", 1));
+      users.add(new User("title", 2999));
+      _userMapperService.validateObjects(users);
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+
+  @Test
+  public void testDuplicateUserFailsBeforeLaterRowsAreConsumed() throws Exception {
+    List<String[]> expectedStringArrays = new ArrayList<String[]>();
+    expectedStringArrays.add(new String[] {"name", "salary"});
+    expectedStringArrays.add(new String[] {"bob", "2500.05"});
+    expectedStringArrays.add(new String[] {"alice", "2500.05"});
+    expectedStringArrays.add(new String[] {"BOB", "2500.10"});
+    expectedStringArrays.add(new String[] {"carol", "true"});
+
+    List<String> fileLines = TestHelper.getCsvFileLinesFromStringArrays(expectedStringArrays);
+    List<User> consumedUsers = new ArrayList<User>();
+    try {
+      TestHelper.getObjectUsingFileInputStream(_folder, fileLines, (InputStream inputStream) -> {
+        _csvParserService.parseInputStream(inputStream, _userMapperService, 1,
+            (List<User> batch) -> consumedUsers.addAll(batch));
+        return null;
+      });
+      fail();
+    } catch (UserDuplicateException e) {
+      assertEquals(2, consumedUsers.size());
+    }
+  }
+
   private List<User> getUsersFromCsv(List<String> fileLines) throws Exception {
     return TestHelper.getObjectUsingFileInputStream(_folder, fileLines,
         (InputStream inputStream) -> _csvParserService.parseInputStream(inputStream,
@@ -2,8 +2,15 @@ package cdit.service;
 
 import static org.junit.Assert.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
@@ -13,9 +20,16 @@ import org.springframework.context.annotation.ComponentScan.Filter;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
 import cdit.SwaggerConfig;
 import cdit.dao.UserRepository;
+import cdit.exception.CursorExpiredException;
+import cdit.exception.InvalidCursorException;
+import cdit.exception.InvalidPageLimitException;
+import cdit.exception.InvalidUserQueryException;
+import cdit.exception.UserDuplicateException;
 import cdit.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @RunWith(SpringRunner.class)
 @DirtiesContext(classMode = ClassMode.BEFORE_EACH_TEST_METHOD)
@@ -30,6 +44,15 @@ public class UserServiceTest {
   private UserRepository _userRepository;
   @Autowired
   private UserServiceImpl _userService;
+  @Autowired
+  private EntityManager _entityManager;
+  @Autowired
+  private PlatformTransactionManager _transactionManager;
+  @Autowired
+  private UserMetrics _userMetrics;
+
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
 
   @Test
   public void testInjectedComponentsAreNotNull() {
@@ -84,4 +107,323 @@ public class UserServiceTest {
     assertEquals(expectedUser.getName(), actualUser.getName());
     assertEquals(expectedUser.getSalary(), actualUser.getSalary(), EPSILON);
   }
+
+  @Test
+  public void testUpdateUsersInBatches() throws Exception {
+    User originalUser = new User("Bob", 2);
+    _userRepository.saveAndFlush(originalUser);
+
+    List<User> expectedUsers = new ArrayList<User>();
+    expectedUsers.add(new User("alice", 1));
+    expectedUsers.add(new User("bob", 3));
+    expectedUsers.add(new User("carol", 4));
+
+    _userService.updateUsers((CditBatchConsumer<User> batchConsumer) -> {
+      batchConsumer.accept(expectedUsers.subList(0, 2));
+      batchConsumer.accept(expectedUsers.subList(2, 3));
+    });
+
+    List<User> actualUsers = _userRepository.findAll();
+    assertEquals(expectedUsers.size(), actualUsers.size());
+    for (int i = 0; i < expectedUsers.size(); i++) {
+      assertEquals(expectedUsers.get(i).getName(), actualUsers.get(i).getName());
+      assertEquals(expectedUsers.get(i).getSalary(), actualUsers.get(i).getSalary(), EPSILON);
+    }
+  }
+
+  @Test
+  public void testGetAllUsersDoesNotWaitForUpdate() throws Exception {
+    ExecutorService readerExecutor = Executors.newSingleThreadExecutor();
+    try {
+      _userService.updateUsers((CditBatchConsumer<User> batchConsumer) -> {
+        List<User> users = new ArrayList<User>();
+        users.add(new User("alice", 1));
+        batchConsumer.accept(users);
+        try {
+          List<User> usersDuringUpdate =
+              readerExecutor.submit(() -> _userService.getAllUsers()).get(10, TimeUnit.SECONDS);
+          assertEquals(0, usersDuringUpdate.size());
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      });
+    } finally {
+      readerExecutor.shutdownNow();
+    }
+    assertEquals(1, _userService.getAllUsers().size());
+  }
+
+  @Test
+  public void testFailedUpdateKeepsExistingUsers() throws Exception {
+    User originalUser = new User("Bob", 2);
+    _userRepository.saveAndFlush(originalUser);
+
+    try {
+      _userService.updateUsers((CditBatchConsumer<User> batchConsumer) -> {
+        List<User> users = new ArrayList<User>();
+        users.add(new User("alice", 1));
+        batchConsumer.accept(users);
+        throw new UserDuplicateException();
+      });
+      fail();
+    } catch (UserDuplicateException e) {
+      List<User> actualUsers = _userService.getAllUsers();
+      assertEquals(1, actualUsers.size());
+      assertEquals(originalUser.getName(), actualUsers.get(0).getName());
+    }
+  }
+
+  @Test
+  public void testUpdateUsersPublishesNewSnapshot() {
+    UserSnapshot originalSnapshot = _userService.getSnapshot();
+    assertEquals(0, originalSnapshot.getUsers().size());
+
+    List<User> expectedUsers = new ArrayList<User>();
+    expectedUsers.add(new User("alice", 1));
+    _userService.updateUsers(expectedUsers);
+
+    UserSnapshot actualSnapshot = _userService.getSnapshot();
+    assertTrue(actualSnapshot.getVersion() > originalSnapshot.getVersion());
+    assertEquals(0, originalSnapshot.getUsers().size());
+    assertEquals(1, actualSnapshot.getUsers().size());
+    assertEquals("alice", actualSnapshot.getUsers().get(0).getName());
+    assertSame(actualSnapshot, _userService.getSnapshot());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotUsersCannotBeModified() {
+    _userService.getAllUsers().add(new User("alice", 1));
+  }
+
+  @Test
+  public void testGetUsersPageReadsEveryUserOnceInNameOrder() throws Exception {
+    List<User> expectedUsers = new ArrayList<User>();
+    for (int i = 0; i < 25; i++) {
+      expectedUsers.add(new User(String.format("user %02d", 24 - i), i));
+    }
+    _userService.updateUsers(expectedUsers);
+
+    List<String> actualNames = new ArrayList<String>();
+    UserPage page = _userService.getUsersPage(null, 10);
+    actualNames.addAll(getNames(page.getUsers()));
+    // an upload landing between pages does not affect the pages of a cursor chain
+    _userService.updateUsers(new ArrayList<User>());
+    while (page.getNextCursor() != null) {
+      page = _userService.getUsersPage(page.getNextCursor(), 10);
+      actualNames.addAll(getNames(page.getUsers()));
+    }
+
+    assertEquals(25, actualNames.size());
+    for (int i = 0; i < actualNames.size(); i++) {
+      assertEquals(String.format("user %02d", i), actualNames.get(i));
+    }
+  }
+
+  @Test(expected = CursorExpiredException.class)
+  public void testGetUsersPageFailedDueToExpiredCursor() throws Exception {
+    List<User> users = new ArrayList<User>();
+    users.add(new User("alice", 1));
+    users.add(new User("bob", 2));
+    _userService.updateUsers(users);
+    UserPage page = _userService.getUsersPage(null, 1);
+    for (int i = 0; i < 2; i++) {
+      _userService.updateUsers(users);
+    }
+    _userService.getUsersPage(page.getNextCursor(), 1);
+  }
+
+  @Test(expected = InvalidCursorException.class)
+  public void testGetUsersPageFailedDueToInvalidCursor() throws Exception {
+    _userService.getUsersPage("not a cursor!", 1);
+  }
+
+  @Test(expected = InvalidPageLimitException.class)
+  public void testGetUsersPageFailedDueToInvalidLimit() throws Exception {
+    _userService.getUsersPage(null, 0);
+  }
+
+  @Test
+  public void testFindUsersBySalaryRange() throws Exception {
+    List<User> users = new ArrayList<User>();
+    users.add(new User("dave", 3000));
+    users.add(new User("alice", 1000));
+    users.add(new User("erin", 2000));
+    users.add(new User("bob", 2000));
+    users.add(new User("carol", 500));
+    _userService.updateUsers(users);
+
+    assertEquals(Arrays.asList("dave", "erin", "bob"),
+        getNames(_userService.findUsers(2000.0, 3000.0, UserSortOrder.UPLOAD, null)));
+    assertEquals(Arrays.asList("alice", "erin", "bob"),
+        getNames(_userService.findUsers(1000.0, 2999.9, UserSortOrder.SALARY, null)));
+    assertEquals(Arrays.asList("bob", "dave"),
+        getNames(_userService.findUsers(2000.0, null, UserSortOrder.NAME, 2)));
+    assertEquals(Arrays.asList("alice", "bob", "carol", "dave", "erin"),
+        getNames(_userService.findUsers(null, null, UserSortOrder.NAME, null)));
+    assertEquals(Arrays.asList("carol", "alice"),
+        getNames(_userService.findUsers(null, null, UserSortOrder.SALARY, 2)));
+    assertEquals(0, _userService.findUsers(3000.1, null, UserSortOrder.SALARY, null).size());
+    assertEquals(0, _userService.findUsers(2000.0, 1000.0, UserSortOrder.NAME, null).size());
+  }
+
+  @Test(expected = InvalidUserQueryException.class)
+  public void testFindUsersFailedDueToInvalidSortOrder() throws Exception {
+    _userService.findUsers(null, null, UserSortOrder.fromParameter("age"), null);
+  }
+
+  @Test
+  public void testUpdateUsersComputesStatistics() throws Exception {
+    assertEquals(0, _userService.getSnapshot().getStatistics().getCount());
+    assertNull(_userService.getSnapshot().getStatistics().getMean());
+
+    List<User> users = new ArrayList<User>();
+    for (int i = 1; i <= 100; i++) {
+      users.add(new User("user " + i, i * 40));
+    }
+    _userService.updateUsers(users);
+
+    UserStatistics statistics = _userService.getSnapshot().getStatistics();
+    assertEquals(_userService.getSnapshot().getVersion(), statistics.getVersion());
+    assertEquals(100, statistics.getCount());
+    assertEquals(202000, statistics.getSum(), EPSILON);
+    assertEquals(2020, statistics.getMean(), EPSILON);
+    assertEquals(40, statistics.getMin(), EPSILON);
+    assertEquals(4000, statistics.getMax(), EPSILON);
+    assertEquals(2000, statistics.getPercentiles().get("50"), EPSILON);
+    assertEquals(3960, statistics.getPercentiles().get("99"), EPSILON);
+
+    long[] histogramCounts = statistics.getHistogramCounts();
+    assertEquals(40, histogramCounts.length);
+    assertEquals(100, statistics.getHistogramBucketWidth(), EPSILON);
+    assertEquals(2, histogramCounts[0]);
+    assertEquals(3, histogramCounts[39]);
+  }
+
+  @Test
+  public void testColumnarStoreKeepsUsersOutOfDatabase() throws Exception {
+    _userRepository.saveAndFlush(new User("alice", 1));
+    UserServiceImpl columnarUserService = new UserServiceImpl(_userRepository, null, null, 2,
+        new double[] {50}, 40, "columnar", "", _userMetrics);
+    assertEquals(0, columnarUserService.getAllUsers().size());
+
+    columnarUserService.updateUsers(Arrays.asList(new User("bob", 2), new User("carol", 3)));
+
+    assertEquals(Arrays.asList("bob", "carol"), getNames(columnarUserService.getAllUsers()));
+    assertEquals(2, columnarUserService.getSnapshot().getStatistics().getCount());
+    assertEquals(Arrays.asList("alice"), getNames(_userRepository.findAll()));
+  }
+
+  @Test
+  public void testSavedSnapshotIsLoadedAfterRestart() throws Exception {
+    String snapshotDirectory = _folder.getRoot().getPath();
+    UserServiceImpl userService = new UserServiceImpl(_userRepository, null, null, 2,
+        new double[] {50}, 40, "columnar", snapshotDirectory, _userMetrics);
+    userService.loadSavedSnapshot();
+    userService.updateUsers(Arrays.asList(new User("bob", 2), new User("alice", 3)));
+    userService.updateUsers(Arrays.asList(new User("carol", 4), new User("alice", 5)));
+
+    UserServiceImpl restartedUserService = new UserServiceImpl(_userRepository, null, null, 2,
+        new double[] {50}, 40, "columnar", snapshotDirectory, _userMetrics);
+    restartedUserService.loadSavedSnapshot();
+
+    UserSnapshot snapshot = restartedUserService.getSnapshot();
+    assertEquals(2, snapshot.getVersion());
+    assertEquals(Arrays.asList("carol", "alice"), getNames(snapshot.getUsers()));
+    assertEquals(Arrays.asList("alice", "carol"), getNames(snapshot.getUsersSortedByName()));
+    assertEquals(9, snapshot.getStatistics().getSum(), EPSILON);
+  }
+
+  @Test
+  public void testUpdateChangedUsersWritesOnlyChanges() throws Exception {
+    _userService.updateUsers(Arrays.asList(new User("alice", 1), new User("bob", 2),
+        new User("carol", 3), new User("dan", 4)));
+
+    UserDelta delta = _userService.updateChangedUsers(
+        (CditBatchConsumer<User> batchConsumer) -> batchConsumer.accept(Arrays
+            .asList(new User("dan", 4), new User("erin", 5), new User("alice", 10),
+                new User("carol", 3))));
+
+    assertEquals(1, delta.getInsertedCount());
+    assertEquals(1, delta.getUpdatedCount());
+    assertEquals(1, delta.getDeletedCount());
+    assertEquals(Arrays.asList("dan", "erin", "alice", "carol"),
+        getNames(_userService.getAllUsers()));
+    assertEquals(2, _userService.getSnapshot().getVersion());
+    assertEquals(22, _userService.getSnapshot().getStatistics().getSum(), EPSILON);
+    assertEquals(4, _userRepository.count());
+    assertFalse(_userRepository.findById("bob").isPresent());
+    assertEquals(10, _userRepository.findById("alice").get().getSalary(), EPSILON);
+    assertEquals(5, _userRepository.findById("erin").get().getSalary(), EPSILON);
+  }
+
+  @Test
+  public void testFailedUpdateChangedUsersKeepsExistingUsers() throws Exception {
+    _userService.updateUsers(Arrays.asList(new User("alice", 1)));
+    try {
+      _userService.updateChangedUsers((CditBatchConsumer<User> batchConsumer) -> {
+        batchConsumer.accept(Arrays.asList(new User("bob", 2)));
+        throw new UserDuplicateException();
+      });
+      fail();
+    } catch (UserDuplicateException e) {
+      // expected
+    }
+    assertEquals(Arrays.asList("alice"), getNames(_userService.getAllUsers()));
+    assertEquals(Arrays.asList("alice"), getNames(_userRepository.findAll()));
+  }
+
+  @Test
+  public void testUpdateChangedUsersAfterRestartWritesEveryUser() throws Exception {
+    String snapshotDirectory = _folder.getRoot().getPath();
+    UserServiceImpl userService = new UserServiceImpl(_userRepository, null, null, 2,
+        new double[] {50}, 40, "columnar", snapshotDirectory, _userMetrics);
+    userService.updateUsers(Arrays.asList(new User("alice", 1), new User("bob", 2)));
+
+    UserServiceImpl restartedUserService = new UserServiceImpl(_userRepository,
+        _entityManager, _transactionManager, 2, new double[] {50}, 40, "jpa", snapshotDirectory,
+        _userMetrics);
+    restartedUserService.loadSavedSnapshot();
+    UserDelta delta = restartedUserService.updateChangedUsers(
+        (CditBatchConsumer<User> batchConsumer) -> batchConsumer
+            .accept(Arrays.asList(new User("alice", 1), new User("bob", 3))));
+
+    assertEquals(1, delta.getUpdatedCount());
+    assertEquals(Arrays.asList("alice", "bob"), getNames(_userRepository.findAll()));
+    assertEquals(3, _userRepository.findById("bob").get().getSalary(), EPSILON);
+  }
+
+  @Test
+  public void testUpdatesAreMeasured() throws Exception {
+    MeterRegistry meterRegistry = _userMetrics.getMeterRegistry();
+    assertEquals(0, meterRegistry.get(UserMetrics.USERS_COUNT).gauge().value(), EPSILON);
+
+    _userService.updateUsers(Arrays.asList(new User("alice", 1), new User("bob", 2)));
+    _userService.updateChangedUsers((CditBatchConsumer<User> batchConsumer) -> batchConsumer
+        .accept(Arrays.asList(new User("alice", 3), new User("carol", 4), new User("dan", 5))));
+
+    assertEquals(5,
+        meterRegistry.get(UserMetrics.UPLOAD_ROWS_INGESTED).counter().count(), EPSILON);
+    assertEquals(3, meterRegistry.get(UserMetrics.USERS_COUNT).gauge().value(), EPSILON);
+    assertEquals(2, meterRegistry.get(UserMetrics.UPLOAD_LOCK_WAIT).timer().count());
+    assertEquals(0, meterRegistry.get(UserMetrics.UPLOAD_LOCK_WAITING).gauge().value(), EPSILON);
+    for (String phase : new String[] {UserMetrics.PHASE_DB_DELETE, UserMetrics.PHASE_DB_INSERT,
+        UserMetrics.PHASE_DB_UPDATE}) {
+      assertTrue(phase, meterRegistry.get(UserMetrics.UPLOAD_PHASE)
+          .tag(UserMetrics.TAG_PHASE, phase).timer().count() > 0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStoreIsRejected() {
+    new UserServiceImpl(_userRepository, null, null, 2, new double[] {50}, 40, "files", "",
+        _userMetrics);
+  }
+
+  private List<String> getNames(List<User> users) {
+    List<String> names = new ArrayList<String>();
+    for (User user : users) {
+      names.add(user.getName());
+    }
+    return names;
+  }
 }
@@ -0,0 +1,142 @@
+package cdit.service;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import cdit.model.User;
+
+public class UserSnapshotFileTest {
+  private static final double[] PERCENTILES = {50, 99};
+  private static final int HISTOGRAM_BUCKET_COUNT = 40;
+  private static final double EPSILON = 0.001;
+
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void testLoadReturnsNullWhenNothingSaved() throws Exception {
+    UserSnapshotFile snapshotFile = new UserSnapshotFile(_folder.getRoot().toPath());
+    assertNull(snapshotFile.load(HISTOGRAM_BUCKET_COUNT, PERCENTILES));
+  }
+
+  @Test
+  public void testLoadReadsBackSavedSnapshot() throws Exception {
+    UserSnapshot savedSnapshot = createSnapshot(7, 3000);
+    UserSnapshotFile snapshotFile = new UserSnapshotFile(_folder.getRoot().toPath());
+    snapshotFile.save(savedSnapshot);
+
+    UserSnapshot loadedSnapshot = snapshotFile.load(HISTOGRAM_BUCKET_COUNT, PERCENTILES);
+    assertEquals(7, loadedSnapshot.getVersion());
+    assertUsersEqual(savedSnapshot.getUsers(), loadedSnapshot.getUsers());
+    assertUsersEqual(savedSnapshot.getUsersSortedByName(),
+        loadedSnapshot.getUsersSortedByName());
+    assertUsersEqual(
+        savedSnapshot.findUsers(1000, 2000, UserSortOrder.SALARY, Integer.MAX_VALUE),
+        loadedSnapshot.findUsers(1000, 2000, UserSortOrder.SALARY, Integer.MAX_VALUE));
+    for (int row = 0; row < savedSnapshot.getUsers().size(); row++) {
+      assertEquals(row, loadedSnapshot.getUsers().getRow(savedSnapshot.getUsers().getName(row)));
+    }
+
+    UserStatistics savedStatistics = savedSnapshot.getStatistics();
+    UserStatistics loadedStatistics = loadedSnapshot.getStatistics();
+    assertEquals(savedStatistics.getCount(), loadedStatistics.getCount());
+    assertEquals(savedStatistics.getSum(), loadedStatistics.getSum(), 0);
+    assertEquals(savedStatistics.getPercentiles(), loadedStatistics.getPercentiles());
+    assertArrayEquals(savedStatistics.getHistogramCounts(), loadedStatistics.getHistogramCounts());
+  }
+
+  @Test
+  public void testSaveReplacesPreviousSnapshot() throws Exception {
+    UserSnapshotFile snapshotFile = new UserSnapshotFile(_folder.getRoot().toPath());
+    snapshotFile.save(createSnapshot(1, 100));
+    snapshotFile.save(createSnapshot(2, 0));
+
+    UserSnapshot loadedSnapshot = snapshotFile.load(HISTOGRAM_BUCKET_COUNT, PERCENTILES);
+    assertEquals(2, loadedSnapshot.getVersion());
+    assertEquals(0, loadedSnapshot.getUsers().size());
+    assertNull(loadedSnapshot.getStatistics().getMean());
+    try (Stream<Path> files = Files.list(_folder.getRoot().toPath())) {
+      assertEquals(1, files.count());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testLoadFailedDueToTruncatedFile() throws Exception {
+    UserSnapshotFile snapshotFile = new UserSnapshotFile(_folder.getRoot().toPath());
+    snapshotFile.save(createSnapshot(1, 100));
+    try (RandomAccessFile file = new RandomAccessFile(snapshotFile.getPath().toFile(), "rw")) {
+      file.setLength(file.length() - 1);
+    }
+    snapshotFile.load(HISTOGRAM_BUCKET_COUNT, PERCENTILES);
+  }
+
+  @Test
+  public void testLoadFailedDueToCorruptColumns() throws Exception {
+    UserSnapshot snapshot = createSnapshot(1, 100);
+    int size = snapshot.getUsers().size();
+    int[] rowSlots = snapshot.getUsers().getRowSlots();
+    int emptySlot = 0;
+    while (rowSlots[emptySlot] != 0) {
+      emptySlot++;
+    }
+    int filledSlot = 0;
+    while (rowSlots[filledSlot] == 0) {
+      filledSlot++;
+    }
+    long nameEndsOffset = 32 + 8 * size;
+    long rowSlotsOffset = nameEndsOffset + 4 * size;
+    long salaryOrderOffset = rowSlotsOffset + 4 * rowSlots.length;
+    long nameOrderOffset = salaryOrderOffset + 4 * size;
+    long[] offsets = {nameEndsOffset + 4 * 10, nameEndsOffset + 4 * (size - 1),
+        rowSlotsOffset + 4 * emptySlot, rowSlotsOffset + 4 * emptySlot, salaryOrderOffset,
+        nameOrderOffset + 4 * 10};
+    int[] values = {0, snapshot.getUsers().getNameColumn().length + 1, size + 1,
+        rowSlots[filledSlot], size, snapshot.getNameOrder()[0]};
+
+    UserSnapshotFile snapshotFile = new UserSnapshotFile(_folder.getRoot().toPath());
+    for (int i = 0; i < offsets.length; i++) {
+      snapshotFile.save(snapshot);
+      try (RandomAccessFile file = new RandomAccessFile(snapshotFile.getPath().toFile(), "rw")) {
+        file.seek(offsets[i]);
+        file.writeInt(Integer.reverseBytes(values[i]));
+      }
+      try {
+        snapshotFile.load(HISTOGRAM_BUCKET_COUNT, PERCENTILES);
+        fail("Loaded corruption " + i);
+      } catch (IOException e) {
+        assertTrue(e.getMessage().startsWith("Corrupt user snapshot"));
+      }
+    }
+  }
+
+  private UserSnapshot createSnapshot(long version, int userCount) {
+    Random random = new Random(version);
+    List<User> users = new ArrayList<User>();
+    for (int i = 0; i < userCount; i++) {
+      users.add(new User("user \u00e9" + random.nextInt(1000000) + "-" + i,
+          random.nextInt(400000) / 100.0));
+    }
+    UserStatisticsAccumulator statisticsAccumulator =
+        new UserStatisticsAccumulator(HISTOGRAM_BUCKET_COUNT);
+    statisticsAccumulator.add(users);
+    return new UserSnapshot(version, new ColumnarUsers.Builder().add(users).build(),
+        statisticsAccumulator, PERCENTILES);
+  }
+
+  private void assertUsersEqual(List<User> expectedUsers, List<User> actualUsers) {
+    assertEquals(expectedUsers.size(), actualUsers.size());
+    for (int i = 0; i < expectedUsers.size(); i++) {
+      assertEquals(expectedUsers.get(i).getName(), actualUsers.get(i).getName());
+      assertEquals(expectedUsers.get(i).getSalary(), actualUsers.get(i).getSalary(), EPSILON);
+    }
+  }
+}
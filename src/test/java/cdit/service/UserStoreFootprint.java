@@ -0,0 +1,123 @@
+package cdit.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import cdit.Application;
+import cdit.model.User;
+
+/**
+ * Measures the heap retained by the users of one upload, for each user count given as an argument,
+ * in the JPA store and in the columnar store. Run it with {@code gradle footprint}.
+ *
+ * The JPA store is measured the way an upload used to keep users: every user persisted through the
+ * application's {@link EntityManagerFactory} into the in-memory H2 database, first while the
+ * persistence context still manages the entities and then once only the H2 rows are left. The
+ * columnar store is measured as its columns alone and as the {@link UserSnapshot} that serves
+ * reads, which adds the salary and name indexes.
+ */
+public class UserStoreFootprint {
+  private static final int FLUSH_SIZE = 10000;
+  private static final int GC_ROUNDS = 5;
+  private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+  public static void main(String[] args) throws Exception {
+    ConfigurableApplicationContext context = SpringApplication.run(Application.class,
+        "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN");
+    try {
+      EntityManagerFactory entityManagerFactory = context.getBean(EntityManagerFactory.class);
+      System.out.printf("%12s %24s %24s %24s %24s%n", "users", "JPA with context", "H2 rows",
+          "columns", "columnar snapshot");
+      for (String arg : args) {
+        int userCount = Integer.parseInt(arg);
+        long[] jpaBytes = measureJpa(entityManagerFactory, userCount);
+        long[] columnarBytes = measureColumnar(userCount);
+        System.out.printf("%12d %24s %24s %24s %24s%n", userCount, format(jpaBytes[0], userCount),
+            format(jpaBytes[1], userCount), format(columnarBytes[0], userCount),
+            format(columnarBytes[1], userCount));
+      }
+    } finally {
+      context.close();
+    }
+  }
+
+  /**
+   * Returns the bytes retained while the persistence context manages every user, and the bytes
+   * retained by the H2 rows alone once it is closed.
+   */
+  private static long[] measureJpa(EntityManagerFactory entityManagerFactory, int userCount) {
+    long baseline = getUsedHeap();
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    entityManager.getTransaction().begin();
+    Random random = new Random(userCount);
+    for (int i = 0; i < userCount; i++) {
+      entityManager.persist(createUser(i, random));
+      if ((i + 1) % FLUSH_SIZE == 0) {
+        entityManager.flush();
+      }
+    }
+    entityManager.flush();
+    long withContext = getUsedHeap() - baseline;
+    entityManager.getTransaction().commit();
+    entityManager.close();
+    long rowsOnly = getUsedHeap() - baseline;
+
+    entityManager = entityManagerFactory.createEntityManager();
+    entityManager.getTransaction().begin();
+    entityManager.createNativeQuery("DELETE FROM " + User.TABLE_NAME).executeUpdate();
+    entityManager.getTransaction().commit();
+    entityManager.close();
+    return new long[] {withContext, rowsOnly};
+  }
+
+  /**
+   * Returns the bytes retained by the columns alone, and by the snapshot with its indexes.
+   */
+  private static long[] measureColumnar(int userCount) {
+    long baseline = getUsedHeap();
+    ColumnarUsers users = createColumnarUsers(userCount);
+    long columnsOnly = getUsedHeap() - baseline;
+    UserStatisticsAccumulator statisticsAccumulator = new UserStatisticsAccumulator(40);
+    statisticsAccumulator.add(users);
+    UserSnapshot snapshot =
+        new UserSnapshot(1, users, statisticsAccumulator, new double[] {50, 90, 95, 99});
+    long withIndexes = getUsedHeap() - baseline;
+    if (snapshot.getUsers().size() != userCount) {
+      throw new IllegalStateException("Lost users while measuring.");
+    }
+    return new long[] {columnsOnly, withIndexes};
+  }
+
+  /**
+   * Builds the columns in a method of their own so that the builder's arrays are garbage by the
+   * time the heap is measured.
+   */
+  private static ColumnarUsers createColumnarUsers(int userCount) {
+    ColumnarUsers.Builder usersBuilder = new ColumnarUsers.Builder();
+    Random random = new Random(userCount);
+    for (int i = 0; i < userCount; i++) {
+      User user = createUser(i, random);
+      usersBuilder.add(user.getName(), user.getSalary());
+    }
+    return usersBuilder.build();
+  }
+
+  private static User createUser(int i, Random random) {
+    return new User("user " + i, random.nextInt(400000) / 100.0);
+  }
+
+  private static long getUsedHeap() {
+    for (int i = 0; i < GC_ROUNDS; i++) {
+      System.gc();
+    }
+    return MEMORY.getHeapMemoryUsage().getUsed();
+  }
+
+  private static String format(long bytes, int userCount) {
+    return String.format("%,d MB (%d B/user)", bytes >> 20, bytes / userCount);
+  }
+}
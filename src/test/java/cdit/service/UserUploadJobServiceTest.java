@@ -0,0 +1,138 @@
+package cdit.service;
+
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import cdit.exception.UploadJobRejectedException;
+import cdit.exception.UserDuplicateException;
+import cdit.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+
+public class UserUploadJobServiceTest {
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private final UserService _userService =
+      new UserServiceImpl(null, null, null, 2, new double[] {50}, 40, "columnar", "",
+          new UserMetrics(new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class)));
+  private final AtomicInteger _mappedFailureCount = new AtomicInteger();
+  private final UserUploadJobServiceImpl _userUploadJobService =
+      new UserUploadJobServiceImpl(_userService, (Exception failure) -> {
+        _mappedFailureCount.incrementAndGet();
+        return new UserUploadJobError(400, failure.getClass().getSimpleName());
+      }, 1, 1, 2);
+
+  @After
+  public void shutdownExecutor() {
+    _userUploadJobService.shutdownExecutor();
+  }
+
+  @Test
+  public void testJobSucceeds() throws Exception {
+    UserUploadJob job = _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+      batchConsumer.accept(Arrays.asList(new User("alice", 1), new User("bob", 2)));
+      batchConsumer.accept(Arrays.asList(new User("carol", 3)));
+    }, false);
+
+    UserUploadJobStatus status = awaitFinished(job);
+    assertEquals(UserUploadJobPhase.SUCCEEDED, status.getPhase());
+    assertEquals(3, status.getRowsProcessed());
+    assertNull(status.getDelta());
+    assertNull(status.getError());
+    assertSame(job, _userUploadJobService.getJob(job.getId()));
+    assertEquals(3, _userService.getAllUsers().size());
+  }
+
+  @Test
+  public void testDeltaJobReportsDelta() throws Exception {
+    _userService.updateUsers(Arrays.asList(new User("alice", 1)));
+    UserUploadJob job = _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+      batchConsumer.accept(Arrays.asList(new User("alice", 2), new User("bob", 2)));
+    }, true);
+
+    UserUploadJobStatus status = awaitFinished(job);
+    assertEquals(UserUploadJobPhase.SUCCEEDED, status.getPhase());
+    assertEquals(1, status.getDelta().getInsertedCount());
+    assertEquals(1, status.getDelta().getUpdatedCount());
+  }
+
+  @Test
+  public void testJobFails() throws Exception {
+    UserUploadJob job = _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+      batchConsumer.accept(Arrays.asList(new User("alice", 1)));
+      throw new UserDuplicateException();
+    }, false);
+
+    UserUploadJobStatus status = awaitFinished(job);
+    assertEquals(UserUploadJobPhase.FAILED, status.getPhase());
+    assertEquals(1, status.getRowsProcessed());
+    assertTrue(job.getFailure() instanceof UserDuplicateException);
+    assertEquals(400, status.getError().getStatus());
+    assertEquals("UserDuplicateException", status.getError().getMessage());
+    assertSame(status.getError(), job.toStatus().getError());
+    assertEquals(1, _mappedFailureCount.get());
+    assertEquals(0, _userService.getAllUsers().size());
+  }
+
+  @Test
+  public void testJobsBeyondQueueAreRejected() throws Exception {
+    CountDownLatch runningLatch = new CountDownLatch(1);
+    CountDownLatch releaseLatch = new CountDownLatch(1);
+    UserUploadJob runningJob =
+        _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+          runningLatch.countDown();
+          try {
+            releaseLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }, false);
+    assertTrue(runningLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    UserUploadJob queuedJob =
+        _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+        }, false);
+    assertEquals(UserUploadJobPhase.QUEUED, queuedJob.getPhase());
+
+    try {
+      _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+      }, false);
+      fail();
+    } catch (UploadJobRejectedException e) {
+      // expected
+    } finally {
+      releaseLatch.countDown();
+    }
+    assertEquals(UserUploadJobPhase.SUCCEEDED, awaitFinished(runningJob).getPhase());
+    assertEquals(UserUploadJobPhase.SUCCEEDED, awaitFinished(queuedJob).getPhase());
+  }
+
+  @Test
+  public void testOldJobsAreForgotten() throws Exception {
+    UserUploadJob[] jobs = new UserUploadJob[3];
+    for (int i = 0; i < jobs.length; i++) {
+      jobs[i] = _userUploadJobService.submit((CditBatchConsumer<User> batchConsumer) -> {
+      }, false);
+      awaitFinished(jobs[i]);
+    }
+    assertNull(_userUploadJobService.getJob(jobs[0].getId()));
+    assertSame(jobs[1], _userUploadJobService.getJob(jobs[1].getId()));
+    assertSame(jobs[2], _userUploadJobService.getJob(jobs[2].getId()));
+  }
+
+  private UserUploadJobStatus awaitFinished(UserUploadJob job) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline) {
+      UserUploadJobStatus status = job.toStatus();
+      if (status.getPhase() == UserUploadJobPhase.SUCCEEDED
+          || status.getPhase() == UserUploadJobPhase.FAILED) {
+        return status;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("The job did not finish in time.");
+  }
+}
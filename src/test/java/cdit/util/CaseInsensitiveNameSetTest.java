@@ -0,0 +1,41 @@
+package cdit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CaseInsensitiveNameSetTest {
+  @Test
+  public void testAddDetectsNamesDifferingOnlyInCase() {
+    CaseInsensitiveNameSet names = new CaseInsensitiveNameSet();
+    assertTrue(names.add("Mary Posa"));
+    assertFalse(names.add("mary posa"));
+    assertFalse(names.add("MARY POSA"));
+    assertTrue(names.add("Mary  Posa"));
+    assertEquals(2, names.size());
+  }
+
+  @Test
+  public void testAddFoldsNonAsciiNames() {
+    CaseInsensitiveNameSet names = new CaseInsensitiveNameSet();
+    assertTrue(names.add("\u00C6r\u00F8sk\u00F8bing"));
+    assertFalse(names.add("\u00C6R\u00D8SK\u00D8BING"));
+    assertTrue(names.add("\uD801\uDC00"));
+    assertFalse(names.add("\uD801\uDC28"));
+    assertTrue(names.add(""));
+    assertFalse(names.add(""));
+  }
+
+  @Test
+  public void testAddKeepsAllNamesWhenGrowing() {
+    CaseInsensitiveNameSet names = new CaseInsensitiveNameSet(4);
+    for (int i = 0; i < 100000; i++) {
+      assertTrue(names.add("user " + i));
+    }
+    for (int i = 0; i < 100000; i++) {
+      assertFalse(names.add("USER " + i));
+    }
+    assertEquals(100000, names.size());
+  }
+}
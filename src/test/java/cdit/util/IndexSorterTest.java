@@ -0,0 +1,29 @@
+package cdit.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class IndexSorterTest {
+  @Test
+  public void testSortMatchesStableSort() {
+    Random random = new Random(42);
+    for (int size : new int[] {0, 1, 31, 32, 33, 1000, 100003}) {
+      int[] keys = new int[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = random.nextInt(size / 4 + 1);
+      }
+      Integer[] expectedOrder = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        expectedOrder[i] = i;
+      }
+      Arrays.sort(expectedOrder, (Integer a, Integer b) -> Integer.compare(keys[a], keys[b]));
+
+      int[] actualOrder =
+          IndexSorter.sort(size, (int a, int b) -> Integer.compare(keys[a], keys[b]));
+      assertArrayEquals(Arrays.stream(expectedOrder).mapToInt(Integer::intValue).toArray(),
+          actualOrder);
+    }
+  }
+}
@@ -2,11 +2,14 @@ package cdit.util;
 
 import java.util.List;
 import java.util.Map;
-import com.fasterxml.jackson.databind.MappingIterator;
 import cdit.exception.CditException;
-import cdit.service.CditCsvMapper;
+import cdit.service.CditRecordBinding;
+import cdit.service.CditRecordMapper;
+import cdit.service.CditObjectsValidator;
+import cdit.service.CditRecord;
+import cdit.service.CditRecordIterator;
 
-public class StringArrayCsvMapper implements CditCsvMapper<String[]> {
+public class StringArrayCsvMapper implements CditRecordMapper<String[]> {
   private String[] _headers;
   
   public StringArrayCsvMapper(String[] headers) {
@@ -14,7 +17,7 @@ public class StringArrayCsvMapper implements CditCsvMapper<String[]> {
   }  
   
   @Override
-  public String[] getHeaders(MappingIterator<String[]> it) throws CditException {
+  public String[] getHeaders(CditRecordIterator it) throws CditException {
     return _headers;
   }
 
@@ -34,6 +37,11 @@ public class StringArrayCsvMapper implements CditCsvMapper<String[]> {
     return row;
   }
 
+  @Override
+  public CditRecordBinding<String[]> bind(String[] headers) throws CditException {
+    return (CditRecord record) -> record.toStringArray();
+  }
+
   @Override
   public void validateObject(String[] object) throws CditException {
     // Not doing any validation on test
@@ -44,4 +52,11 @@ public class StringArrayCsvMapper implements CditCsvMapper<String[]> {
     // Not doing any validation on test
   }
 
+  @Override
+  public CditObjectsValidator<String[]> createObjectsValidator() {
+    return (String[] object) -> {
+      // Not doing any validation on test
+    };
+  }
+
 }